@@ -0,0 +1,76 @@
+package urbanmason.main;
+
+/**
+ * A Walker alias table (Vose's method) for drawing integers in [0, n) with probability proportional to given weights.
+ * The table is built in O(n); each draw takes O(1): a uniform column and a biased coin deciding between the column and its alias.
+ *
+ */
+final class AliasTable {
+
+	private final double[] probabilities;
+	private final int[] aliases;
+	final double totalWeight;
+
+	/**
+	 * It builds the table for a set of weights; negative or non-finite weights are considered as 0.
+	 *
+	 * @param weights the weights;
+	 */
+	AliasTable(double[] weights) {
+
+		int n = weights.length;
+		probabilities = new double[n];
+		aliases = new int[n];
+		double total = 0.0;
+		for (double weight : weights) if (weight > 0.0 && weight < Double.POSITIVE_INFINITY) total += weight;
+		totalWeight = total;
+		if (total == 0.0) return;
+
+		// scaled weights, split between columns under-full (small) and over-full (large)
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		for (int i = 0; i < n; i++) {
+			double weight = weights[i];
+			scaled[i] = (weight > 0.0 && weight < Double.POSITIVE_INFINITY) ? weight * n / total : 0.0;
+			if (scaled[i] < 1.0) small[smallCount++] = i;
+			else large[largeCount++] = i;
+		}
+
+		while (smallCount > 0 && largeCount > 0) {
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			probabilities[less] = scaled[less];
+			aliases[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if (scaled[more] < 1.0) small[smallCount++] = more;
+			else large[largeCount++] = more;
+		}
+		// left-overs are full columns (up to rounding errors)
+		while (largeCount > 0) probabilities[large[--largeCount]] = 1.0;
+		while (smallCount > 0) probabilities[small[--smallCount]] = 1.0;
+	}
+
+	/**
+	 * It returns true if the table cannot be sampled, as all the weights are 0.
+	 *
+	 */
+	boolean isEmpty() {
+		return totalWeight == 0.0;
+	}
+
+	/**
+	 * It returns the drawn integer, given a column and a uniform number in [0, 1).
+	 *
+	 * @param column the column, uniform in [0, n);
+	 * @param coin the uniform number;
+	 */
+	int sample(int column, double coin) {
+		return (coin < probabilities[column]) ? column : aliases[column];
+	}
+
+	int size() {
+		return probabilities.length;
+	}
+}
@@ -0,0 +1,272 @@
+package urbanmason.main;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * A columnar copy of the attributes of the geometries of a VectorLayer, supporting fast filters.
+ * Columns are extracted on first use: integer and double attributes as primitive arrays, string attributes
+ * dictionary-encoded (an int code per geometry, -1 for missing values). Hash indexes, mapping each value to the rows (positions
+ * of the geometries) holding it, can be built on chosen fields; equality and in-list filters then become index lookups,
+ * otherwise they scan the columns.
+ *
+ * The store reflects the geometries of the layer, and their attributes, at the moment of its creation; the layer discards it
+ * when geometries are added or on request (see VectorLayer.invalidateAttributes()), e.g. after attributes have been changed.
+ */
+final class AttributeStore {
+
+	final MasonGeometry[] rows;
+	private final HashMap<String, IntColumn> intColumns = new HashMap<String, IntColumn>();
+	private final HashMap<String, double[]> doubleColumns = new HashMap<String, double[]>();
+	private final HashMap<String, StringColumn> stringColumns = new HashMap<String, StringColumn>();
+
+	/**
+	 * An integer column; missing values are flagged in a separate bit set (null if no value is missing).
+	 */
+	static final class IntColumn {
+		final int[] values;
+		final BitSet missing;
+		// value -> rows, when indexed
+		HashMap<Integer, int[]> index;
+
+		IntColumn(int[] values, BitSet missing) {
+			this.values = values;
+			this.missing = missing;
+		}
+
+		boolean isMissing(int row) {
+			return missing != null && missing.get(row);
+		}
+	}
+
+	/**
+	 * A dictionary-encoded string column.
+	 */
+	static final class StringColumn {
+		final int[] codes;
+		final String[] dictionary;
+		final HashMap<String, Integer> dictionaryCodes;
+		// code -> rows, when indexed
+		int[][] index;
+
+		StringColumn(int[] codes, String[] dictionary, HashMap<String, Integer> dictionaryCodes) {
+			this.codes = codes;
+			this.dictionary = dictionary;
+			this.dictionaryCodes = dictionaryCodes;
+		}
+	}
+
+	/**
+	 * It creates the store for the given geometries.
+	 *
+	 * @param geometries the geometries of the layer;
+	 */
+	AttributeStore(Bag geometries) {
+		rows = new MasonGeometry[geometries.size()];
+		int row = 0;
+		for (Object o : geometries) rows[row++] = (MasonGeometry) o;
+	}
+
+	/**
+	 * It returns the column of an integer attribute, extracting it on first use.
+	 *
+	 * @param attributeName the field's name;
+	 */
+	synchronized IntColumn intColumn(String attributeName) {
+		IntColumn column = intColumns.get(attributeName);
+		if (column == null) {
+			int[] values = new int[rows.length];
+			BitSet missing = null;
+			for (int row = 0; row < rows.length; row++) {
+				Integer value = rows[row].getIntegerAttribute(attributeName);
+				if (value != null) values[row] = value;
+				else {
+					if (missing == null) missing = new BitSet(rows.length);
+					missing.set(row);
+				}
+			}
+			column = new IntColumn(values, missing);
+			intColumns.put(attributeName, column);
+		}
+		return column;
+	}
+
+	/**
+	 * It returns the column of a double attribute, extracting it on first use; missing values are NaN.
+	 *
+	 * @param attributeName the field's name;
+	 */
+	synchronized double[] doubleColumn(String attributeName) {
+		double[] values = doubleColumns.get(attributeName);
+		if (values == null) {
+			values = new double[rows.length];
+			for (int row = 0; row < rows.length; row++) {
+				Double value = rows[row].getDoubleAttribute(attributeName);
+				values[row] = (value == null) ? Double.NaN : value;
+			}
+			doubleColumns.put(attributeName, values);
+		}
+		return values;
+	}
+
+	/**
+	 * It returns the dictionary-encoded column of a string attribute, extracting it on first use.
+	 *
+	 * @param attributeName the field's name;
+	 */
+	synchronized StringColumn stringColumn(String attributeName) {
+		StringColumn column = stringColumns.get(attributeName);
+		if (column == null) {
+			int[] codes = new int[rows.length];
+			HashMap<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+			for (int row = 0; row < rows.length; row++) {
+				String value = rows[row].getStringAttribute(attributeName);
+				if (value == null) {
+					codes[row] = -1;
+					continue;
+				}
+				Integer code = dictionaryCodes.get(value);
+				if (code == null) {
+					code = dictionaryCodes.size();
+					dictionaryCodes.put(value, code);
+				}
+				codes[row] = code;
+			}
+			String[] dictionary = new String[dictionaryCodes.size()];
+			for (Map.Entry<String, Integer> entry : dictionaryCodes.entrySet()) dictionary[entry.getValue()] = entry.getKey();
+			column = new StringColumn(codes, dictionary, dictionaryCodes);
+			stringColumns.put(attributeName, column);
+		}
+		return column;
+	}
+
+	/**
+	 * It builds a hash index on an integer attribute.
+	 *
+	 * @param attributeName the field's name;
+	 */
+	synchronized void indexInt(String attributeName) {
+		IntColumn column = intColumn(attributeName);
+		if (column.index != null) return;
+		// (value, row) pairs packed in longs: sorting them groups the rows by value, in ascending order
+		long[] entries = new long[rows.length];
+		int size = 0;
+		for (int row = 0; row < rows.length; row++) {
+			if (!column.isMissing(row)) entries[size++] = ((long) column.values[row] << 32) | row;
+		}
+		Arrays.sort(entries, 0, size);
+
+		HashMap<Integer, int[]> index = new HashMap<Integer, int[]>();
+		int start = 0;
+		while (start < size) {
+			int value = (int) (entries[start] >> 32);
+			int end = start + 1;
+			while (end < size && (int) (entries[end] >> 32) == value) end++;
+			int[] valueRows = new int[end - start];
+			for (int i = start; i < end; i++) valueRows[i - start] = (int) entries[i];
+			index.put(value, valueRows);
+			start = end;
+		}
+		column.index = index;
+	}
+
+	/**
+	 * It builds a hash index on a string attribute.
+	 *
+	 * @param attributeName the field's name;
+	 */
+	synchronized void indexString(String attributeName) {
+		StringColumn column = stringColumn(attributeName);
+		if (column.index != null) return;
+		int[] counts = new int[column.dictionary.length];
+		for (int code : column.codes) if (code >= 0) counts[code]++;
+		int[][] index = new int[counts.length][];
+		for (int code = 0; code < counts.length; code++) index[code] = new int[counts[code]];
+		int[] filled = new int[counts.length];
+		for (int row = 0; row < rows.length; row++) {
+			int code = column.codes[row];
+			if (code >= 0) index[code][filled[code]++] = row;
+		}
+		column.index = index;
+	}
+
+	/**
+	 * It returns the rows whose integer attribute's value is contained in a collection of values.
+	 *
+	 * @param attributeName the field's name;
+	 * @param values the values;
+	 */
+	BitSet matchingIntRows(String attributeName, Collection<Integer> values) {
+		IntColumn column = intColumn(attributeName);
+		BitSet matching = new BitSet(rows.length);
+		HashMap<Integer, int[]> index = column.index;
+		if (index != null) {
+			for (Integer value : values) {
+				int[] valueRows = (value == null) ? null : index.get(value);
+				if (valueRows != null) for (int row : valueRows) matching.set(row);
+			}
+			return matching;
+		}
+
+		int[] sortedValues = new int[values.size()];
+		int size = 0;
+		for (Integer value : values) if (value != null) sortedValues[size++] = value;
+		sortedValues = Arrays.copyOf(sortedValues, size);
+		Arrays.sort(sortedValues);
+		int[] columnValues = column.values;
+		if (size == 1) {
+			int value = sortedValues[0];
+			for (int row = 0; row < columnValues.length; row++) if (columnValues[row] == value) matching.set(row);
+		}
+		else if (size > 1) {
+			for (int row = 0; row < columnValues.length; row++)
+				if (Arrays.binarySearch(sortedValues, columnValues[row]) >= 0) matching.set(row);
+		}
+		if (column.missing != null) matching.andNot(column.missing);
+		return matching;
+	}
+
+	/**
+	 * It returns the rows whose string attribute's value is contained in a collection of values.
+	 *
+	 * @param attributeName the field's name;
+	 * @param values the values;
+	 */
+	BitSet matchingStringRows(String attributeName, Collection<String> values) {
+		StringColumn column = stringColumn(attributeName);
+		BitSet matching = new BitSet(rows.length);
+		boolean[] matchingCodes = new boolean[column.dictionary.length];
+		boolean any = false;
+		for (String value : values) {
+			Integer code = column.dictionaryCodes.get(value);
+			if (code == null || matchingCodes[code]) continue;
+			matchingCodes[code] = true;
+			any = true;
+			if (column.index != null) for (int row : column.index[code]) matching.set(row);
+		}
+		if (column.index != null || !any) return matching;
+
+		int[] codes = column.codes;
+		for (int row = 0; row < codes.length; row++) if (codes[row] >= 0 && matchingCodes[codes[row]]) matching.set(row);
+		return matching;
+	}
+
+	/**
+	 * It returns the geometries of the given rows (or of all the other rows, when complement is true), in their order.
+	 *
+	 * @param matching the rows;
+	 * @param complement whether the rows not included in matching should be returned;
+	 */
+	Bag geometries(BitSet matching, boolean complement) {
+		Bag objects = new Bag();
+		if (complement) for (int row = matching.nextClearBit(0); row < rows.length; row = matching.nextClearBit(row + 1)) objects.add(rows[row]);
+		else for (int row = matching.nextSetBit(0); row >= 0; row = matching.nextSetBit(row + 1)) objects.add(rows[row]);
+		return objects;
+	}
+}
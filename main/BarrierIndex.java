@@ -0,0 +1,268 @@
+package urbanmason.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An inverted index between the barriers and the edges of a GraphCSR, in both directions.
+ * Barriers are identified by their IDs (as in EdgeGraph.positiveBarriers, negativeBarriers, waterBodies and parks) and edges
+ * by their index in the snapshot. The edges along the barrier at position b (in the sorted array of barrier IDs) are stored
+ * in the positions [barrierOffsets[b], barrierOffsets[b+1]) of barrierEdges, in ascending order, together with the kinds of
+ * relation (positive barrier, negative barrier, water body, park) as a bit mask; the barriers along the edge e are stored
+ * in the positions [edgeOffsets[e], edgeOffsets[e+1]) of edgeBarriers.
+ *
+ * The index reflects the edges' barriers at the moment of its creation (see Graph.getBarrierIndex()).
+ */
+public class BarrierIndex {
+
+	public static final int POSITIVE = 1, NEGATIVE = 2, WATER_BODY = 4, PARK = 8;
+	public static final int ANY = POSITIVE | NEGATIVE | WATER_BODY | PARK;
+
+	final GraphCSR csr;
+	// sorted barrier IDs
+	final int[] barrierIDs;
+	// per barrier
+	final int[] barrierOffsets;
+	final int[] barrierEdges;
+	final byte[] barrierKinds;
+	// per edge: positions of the barriers in barrierIDs, ascending
+	final int[] edgeOffsets;
+	final int[] edgeBarriers;
+
+	/**
+	 * It builds the index from the barriers of the edges of a snapshot.
+	 *
+	 * @param csr the snapshot;
+	 */
+	BarrierIndex(GraphCSR csr) {
+
+		this.csr = csr;
+		int edgesCount = csr.edgesCount;
+		edgeOffsets = new int[edgesCount + 1];
+		int[][] edgesIDs = new int[edgesCount][];
+		byte[][] edgesKinds = new byte[edgesCount][];
+		int entries = 0;
+		for (int e = 0; e < edgesCount; e++) {
+			EdgeGraph edge = csr.edges[e];
+			int[] IDs = IntSets.union(edge.barrierIDs, IntSets.union(edge.waterBodyIDs, edge.parkIDs));
+			byte[] kinds = new byte[IDs.length];
+			for (int i = 0; i < IDs.length; i++) {
+				int kind = 0;
+				if (IntSets.contains(edge.positiveBarrierIDs, IDs[i])) kind |= POSITIVE;
+				if (IntSets.contains(edge.negativeBarrierIDs, IDs[i])) kind |= NEGATIVE;
+				if (IntSets.contains(edge.waterBodyIDs, IDs[i])) kind |= WATER_BODY;
+				if (IntSets.contains(edge.parkIDs, IDs[i])) kind |= PARK;
+				kinds[i] = (byte) kind;
+			}
+			edgesIDs[e] = IDs;
+			edgesKinds[e] = kinds;
+			edgeOffsets[e] = entries;
+			entries += IDs.length;
+		}
+		edgeOffsets[edgesCount] = entries;
+
+		int[] allIDs = new int[entries];
+		for (int e = 0; e < edgesCount; e++) System.arraycopy(edgesIDs[e], 0, allIDs, edgeOffsets[e], edgesIDs[e].length);
+		barrierIDs = IntSets.of(allIDs, entries);
+
+		edgeBarriers = new int[entries];
+		byte[] entriesKinds = new byte[entries];
+		for (int e = 0; e < edgesCount; e++) {
+			int[] IDs = edgesIDs[e];
+			for (int i = 0; i < IDs.length; i++) {
+				edgeBarriers[edgeOffsets[e] + i] = Arrays.binarySearch(barrierIDs, IDs[i]);
+				entriesKinds[edgeOffsets[e] + i] = edgesKinds[e][i];
+			}
+		}
+
+		barrierOffsets = new int[barrierIDs.length + 1];
+		barrierEdges = new int[entries];
+		barrierKinds = new byte[entries];
+		invert(entriesKinds);
+	}
+
+	/**
+	 * It derives the index of a SubGraph from the index of its parent graph, without going through the edges' barriers.
+	 *
+	 * @param csr the snapshot of the SubGraph;
+	 * @param parentIndex the index of the parent graph;
+	 * @param parentEdges the index of the parent edge (in the parent's snapshot) of each child edge, -1 when not available;
+	 */
+	BarrierIndex(GraphCSR csr, BarrierIndex parentIndex, int[] parentEdges) {
+
+		this.csr = csr;
+		int edgesCount = csr.edgesCount;
+		edgeOffsets = new int[edgesCount + 1];
+		int entries = 0;
+		for (int e = 0; e < edgesCount; e++) {
+			edgeOffsets[e] = entries;
+			int parentEdge = parentEdges[e];
+			if (parentEdge >= 0) entries += parentIndex.edgeOffsets[parentEdge + 1] - parentIndex.edgeOffsets[parentEdge];
+		}
+		edgeOffsets[edgesCount] = entries;
+
+		// positions of the parent's barriers in this index (-1 if not along any edge of the SubGraph)
+		int[] positions = new int[parentIndex.barrierIDs.length];
+		for (int e = 0; e < edgesCount; e++) {
+			int parentEdge = parentEdges[e];
+			if (parentEdge < 0) continue;
+			for (int j = parentIndex.edgeOffsets[parentEdge]; j < parentIndex.edgeOffsets[parentEdge + 1]; j++)
+				positions[parentIndex.edgeBarriers[j]] = 1;
+		}
+		int barriersCount = 0;
+		for (int b = 0; b < positions.length; b++) positions[b] = (positions[b] == 1) ? barriersCount++ : -1;
+		barrierIDs = new int[barriersCount];
+		for (int b = 0; b < positions.length; b++) if (positions[b] >= 0) barrierIDs[positions[b]] = parentIndex.barrierIDs[b];
+
+		edgeBarriers = new int[entries];
+		byte[] entriesKinds = new byte[entries];
+		for (int e = 0; e < edgesCount; e++) {
+			int parentEdge = parentEdges[e];
+			if (parentEdge < 0) continue;
+			int entry = edgeOffsets[e];
+			for (int j = parentIndex.edgeOffsets[parentEdge]; j < parentIndex.edgeOffsets[parentEdge + 1]; j++) {
+				int parentBarrier = parentIndex.edgeBarriers[j];
+				edgeBarriers[entry] = positions[parentBarrier];
+				entriesKinds[entry] = parentIndex.kindOf(parentBarrier, parentEdge);
+				entry++;
+			}
+		}
+
+		barrierOffsets = new int[barriersCount + 1];
+		barrierEdges = new int[entries];
+		barrierKinds = new byte[entries];
+		invert(entriesKinds);
+	}
+
+	/**
+	 * It fills the barrier-to-edges arrays from the edge-to-barriers ones (counting sort by barrier).
+	 *
+	 */
+	private void invert(byte[] entriesKinds) {
+		for (int barrier : edgeBarriers) barrierOffsets[barrier + 1]++;
+		for (int b = 0; b < barrierIDs.length; b++) barrierOffsets[b + 1] += barrierOffsets[b];
+		int[] filled = Arrays.copyOf(barrierOffsets, barrierIDs.length);
+		for (int e = 0; e < csr.edgesCount; e++) {
+			for (int j = edgeOffsets[e]; j < edgeOffsets[e + 1]; j++) {
+				int entry = filled[edgeBarriers[j]]++;
+				barrierEdges[entry] = e;
+				barrierKinds[entry] = entriesKinds[j];
+			}
+		}
+	}
+
+	private byte kindOf(int barrier, int edge) {
+		int entry = Arrays.binarySearch(barrierEdges, barrierOffsets[barrier], barrierOffsets[barrier + 1], edge);
+		return barrierKinds[entry];
+	}
+
+	/**
+	 * It returns the position of a barrier in the sorted array of barrier IDs, or -1 when no edge is along the barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	private int positionOf(int barrierID) {
+		int position = Arrays.binarySearch(barrierIDs, barrierID);
+		return (position < 0) ? -1 : position;
+	}
+
+	/**
+	 * It returns the number of barriers in the index.
+	 *
+	 */
+	public int getBarriersCount() {
+		return barrierIDs.length;
+	}
+
+	/**
+	 * It returns the IDs of the barriers along at least one edge, in ascending order; the array should not be modified.
+	 *
+	 */
+	public int[] getBarrierIDs() {
+		return barrierIDs;
+	}
+
+	/**
+	 * It returns the IDs of the barriers along at least one edge with the given kinds of relation, in ascending order (e.g.
+	 * POSITIVE | NEGATIVE, for the barriers among the positive or negative barriers of an edge, excluding water bodies and
+	 * parks).
+	 *
+	 * @param kinds the kinds of relation, as a bit mask (POSITIVE, NEGATIVE, WATER_BODY, PARK);
+	 */
+	public int[] getBarrierIDs(int kinds) {
+		int[] IDs = new int[barrierIDs.length];
+		int size = 0;
+		for (int position = 0; position < barrierIDs.length; position++) {
+			for (int j = barrierOffsets[position]; j < barrierOffsets[position + 1]; j++) {
+				if ((barrierKinds[j] & kinds) == 0) continue;
+				IDs[size++] = barrierIDs[position];
+				break;
+			}
+		}
+		return (size == IDs.length) ? IDs : Arrays.copyOf(IDs, size);
+	}
+
+	/**
+	 * It returns the number of edges along a barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public int countEdgesAlongBarrier(int barrierID) {
+		int position = positionOf(barrierID);
+		if (position < 0) return 0;
+		return barrierOffsets[position + 1] - barrierOffsets[position];
+	}
+
+	/**
+	 * It returns the indexes (see GraphCSR) of the edges along a barrier, in ascending order.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public int[] edgesAlongBarrier(int barrierID) {
+		int position = positionOf(barrierID);
+		if (position < 0) return IntSets.EMPTY;
+		return Arrays.copyOfRange(barrierEdges, barrierOffsets[position], barrierOffsets[position + 1]);
+	}
+
+	/**
+	 * It returns the indexes (see GraphCSR) of the edges along a barrier with the given kinds of relation, in ascending order
+	 * (e.g. POSITIVE, for the edges having the barrier among their positive barriers).
+	 *
+	 * @param barrierID the barrier's ID;
+	 * @param kinds the kinds of relation, as a bit mask (POSITIVE, NEGATIVE, WATER_BODY, PARK);
+	 */
+	public int[] edgesAlongBarrier(int barrierID, int kinds) {
+		int position = positionOf(barrierID);
+		if (position < 0) return IntSets.EMPTY;
+		int[] edges = new int[barrierOffsets[position + 1] - barrierOffsets[position]];
+		int size = 0;
+		for (int j = barrierOffsets[position]; j < barrierOffsets[position + 1]; j++)
+			if ((barrierKinds[j] & kinds) != 0) edges[size++] = barrierEdges[j];
+		return (size == edges.length) ? edges : Arrays.copyOf(edges, size);
+	}
+
+	/**
+	 * It returns the edges along a barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public ArrayList<EdgeGraph> getEdgesAlongBarrier(int barrierID) {
+		int position = positionOf(barrierID);
+		ArrayList<EdgeGraph> edges = new ArrayList<EdgeGraph>();
+		if (position < 0) return edges;
+		edges.ensureCapacity(barrierOffsets[position + 1] - barrierOffsets[position]);
+		for (int j = barrierOffsets[position]; j < barrierOffsets[position + 1]; j++) edges.add(csr.edges[barrierEdges[j]]);
+		return edges;
+	}
+
+	/**
+	 * It returns the IDs of the barriers along an edge, in ascending order.
+	 *
+	 * @param edgeIndex the index of the edge (see GraphCSR);
+	 */
+	public int[] barriersAlongEdge(int edgeIndex) {
+		int[] IDs = new int[edgeOffsets[edgeIndex + 1] - edgeOffsets[edgeIndex]];
+		for (int j = edgeOffsets[edgeIndex]; j < edgeOffsets[edgeIndex + 1]; j++) IDs[j - edgeOffsets[edgeIndex]] = barrierIDs[edgeBarriers[j]];
+		return IDs;
+	}
+}
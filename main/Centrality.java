@@ -0,0 +1,239 @@
+package urbanmason.main;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A class for computing nodes' centrality measures over a Graph: betweenness (Brandes' algorithm) and closeness.
+ * Computations run on the graph's CSR snapshot, with edges weighted by a static EdgeCostFunction (length by default).
+ * Sources are processed in parallel on the common fork-join pool; each worker accumulates its own partial results.
+ *
+ * Betweenness can be approximated for large networks by processing only a random sample of source nodes; the results are
+ * then scaled by nodesCount / samples. Values are keyed by node index (see GraphCSR).
+ */
+public class Centrality {
+
+	// relative tolerance for considering two path costs equal
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * It computes the betweenness centrality of the nodes of a graph (metric length) and assigns it to NodeGraph.centrality;
+	 * the centrality map and the rescaled values (centrality_sc) are then regenerated.
+	 *
+	 * @param graph the graph;
+	 * @param samples the number of source nodes to sample; 0 (or more than the nodes) to use all the nodes;
+	 * @param seed the seed of the sampling;
+	 */
+	public static void setBetweennessCentrality(Graph graph, int samples, long seed) {
+		setCentrality(graph, betweenness(graph, EdgeCostFunction.LENGTH, samples, seed));
+	}
+
+	/**
+	 * It computes the closeness centrality of the nodes of a graph (metric length) and assigns it to NodeGraph.centrality;
+	 * the centrality map and the rescaled values (centrality_sc) are then regenerated.
+	 *
+	 * @param graph the graph;
+	 */
+	public static void setClosenessCentrality(Graph graph) {
+		setCentrality(graph, closeness(graph, EdgeCostFunction.LENGTH));
+	}
+
+	/**
+	 * It assigns centrality values, keyed by node index, to the nodes of a graph and regenerates the centrality map.
+	 *
+	 * @param graph the graph;
+	 * @param values the centrality values;
+	 */
+	private static void setCentrality(Graph graph, double[] values) {
+		GraphCSR csr = graph.getCSR();
+		for (int i = 0; i < csr.nodesCount; i++) csr.nodes[i].centrality = values[i];
+		graph.generateCentralityMap();
+	}
+
+	/**
+	 * It computes the betweenness centrality of the nodes of a graph with Brandes' algorithm for weighted graphs.
+	 * As the graph is undirected, each pair of nodes is counted once.
+	 *
+	 * @param graph the graph;
+	 * @param costFunction a static cost function, used as edge weight;
+	 * @param samples the number of source nodes to sample; 0 (or more than the nodes) to use all the nodes;
+	 * @param seed the seed of the sampling;
+	 */
+	public static double[] betweenness(Graph graph, EdgeCostFunction costFunction, int samples, long seed) {
+
+		GraphCSR csr = graph.getCSR();
+		double[] costs = csr.costs(costFunction);
+		int[] sources = sources(csr.nodesCount, samples, seed);
+		double scale = (sources.length == 0) ? 0.0 : (double) csr.nodesCount / sources.length / 2.0;
+
+		int chunks = chunks(sources.length);
+
+		double[] betweenness = IntStream.range(0, chunks).parallel()
+				.mapToObj(chunk -> {
+					Workspace workspace = new Workspace(csr.nodesCount);
+					double[] partial = new double[csr.nodesCount];
+					for (int i = chunk; i < sources.length; i += chunks)
+						workspace.accumulateDependencies(csr, costs, sources[i], partial);
+					return partial;
+				})
+				.reduce(new double[csr.nodesCount], Centrality::sum);
+
+		for (int i = 0; i < betweenness.length; i++) betweenness[i] *= scale;
+		return betweenness;
+	}
+
+	/**
+	 * It computes the closeness centrality of the nodes of a graph: the number of other reachable nodes divided by the sum of
+	 * the costs of the shortest paths to them (0 for isolated nodes).
+	 *
+	 * @param graph the graph;
+	 * @param costFunction a static cost function, used as edge weight;
+	 */
+	public static double[] closeness(Graph graph, EdgeCostFunction costFunction) {
+
+		GraphCSR csr = graph.getCSR();
+		double[] costs = csr.costs(costFunction);
+		double[] closeness = new double[csr.nodesCount];
+		int chunks = chunks(csr.nodesCount);
+
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			Workspace workspace = new Workspace(csr.nodesCount);
+			for (int source = chunk; source < csr.nodesCount; source += chunks) {
+				int reached = workspace.shortestPaths(csr, costs, source);
+				double total = 0.0;
+				for (int i = 0; i < reached; i++) total += workspace.dist[workspace.order[i]];
+				closeness[source] = (total > 0.0) ? (reached - 1) / total : 0.0;
+				workspace.clear(reached);
+			}
+		});
+		return closeness;
+	}
+
+	/**
+	 * It returns the source nodes: all the nodes, or a random sample without repetitions.
+	 *
+	 */
+	private static int[] sources(int nodesCount, int samples, long seed) {
+		int[] nodes = new int[nodesCount];
+		for (int i = 0; i < nodesCount; i++) nodes[i] = i;
+		if (samples <= 0 || samples >= nodesCount) return nodes;
+
+		// partial Fisher-Yates shuffle
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < samples; i++) {
+			int j = i + random.nextInt(nodesCount - i);
+			int tmp = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = tmp;
+		}
+		return Arrays.copyOf(nodes, samples);
+	}
+
+	/**
+	 * It returns the number of chunks in which the sources are distributed among the workers.
+	 *
+	 */
+	private static int chunks(int sourcesCount) {
+		return Math.max(1, Math.min(sourcesCount, ForkJoinPool.getCommonPoolParallelism() * 4));
+	}
+
+	private static double[] sum(double[] values, double[] otherValues) {
+		double[] sum = new double[values.length];
+		for (int i = 0; i < values.length; i++) sum[i] = values[i] + otherValues[i];
+		return sum;
+	}
+
+	/**
+	 * The arrays used by a worker for single-source shortest paths and dependency accumulation; only the entries of the
+	 * nodes reached from a source are reset after each source.
+	 *
+	 */
+	private static final class Workspace {
+
+		final double[] dist, sigma, delta;
+		final int[] order, settled;
+		final IndexedHeap heap;
+
+		Workspace(int nodesCount) {
+			dist = new double[nodesCount];
+			sigma = new double[nodesCount];
+			delta = new double[nodesCount];
+			order = new int[nodesCount];
+			settled = new int[nodesCount];
+			heap = new IndexedHeap(nodesCount);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(settled, -1);
+		}
+
+		/**
+		 * It computes the shortest paths from a source, counting them (sigma) and storing the nodes in order of settlement.
+		 * It returns the number of nodes reached.
+		 *
+		 */
+		int shortestPaths(GraphCSR csr, double[] costs, int source) {
+
+			int reached = 0;
+			dist[source] = 0.0;
+			sigma[source] = 1.0;
+			heap.insertOrDecrease(source, 0.0);
+
+			while (!heap.isEmpty()) {
+				int node = heap.poll();
+				settled[node] = reached;
+				order[reached++] = node;
+
+				for (int arc = csr.offsets[node]; arc < csr.offsets[node + 1]; arc++) {
+					int target = csr.targets[arc];
+					if (settled[target] != -1) continue;
+					double tentative = dist[node] + costs[csr.arcEdges[arc]];
+					double current = dist[target];
+					if (current == Double.POSITIVE_INFINITY || tentative < current * (1.0 - EPSILON)) {
+						dist[target] = tentative;
+						sigma[target] = sigma[node];
+						heap.insertOrDecrease(target, tentative);
+					}
+					else if (tentative <= current * (1.0 + EPSILON)) sigma[target] += sigma[node];
+				}
+			}
+			return reached;
+		}
+
+		/**
+		 * It adds the dependencies of the source on the other nodes to the betweenness values.
+		 *
+		 */
+		void accumulateDependencies(GraphCSR csr, double[] costs, int source, double[] betweenness) {
+
+			int reached = shortestPaths(csr, costs, source);
+			for (int i = reached - 1; i > 0; i--) {
+				int node = order[i];
+				double coefficient = (1.0 + delta[node]) / sigma[node];
+				for (int arc = csr.offsets[node]; arc < csr.offsets[node + 1]; arc++) {
+					int predecessor = csr.targets[arc];
+					if (settled[predecessor] == -1 || settled[predecessor] >= i) continue;
+					double throughPredecessor = dist[predecessor] + costs[csr.arcEdges[arc]];
+					if (Math.abs(throughPredecessor - dist[node]) <= EPSILON * dist[node])
+						delta[predecessor] += sigma[predecessor] * coefficient;
+				}
+				betweenness[node] += delta[node];
+			}
+			clear(reached);
+		}
+
+		/**
+		 * It resets the entries of the nodes reached from the last source.
+		 *
+		 */
+		void clear(int reached) {
+			for (int i = 0; i < reached; i++) {
+				int node = order[i];
+				dist[node] = Double.POSITIVE_INFINITY;
+				sigma[node] = 0.0;
+				delta[node] = 0.0;
+				settled[node] = -1;
+			}
+		}
+	}
+}
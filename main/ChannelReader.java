@@ -0,0 +1,117 @@
+package urbanmason.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sequential reader over a file channel, exposing windows of the file through a reusable buffer, so that files of any
+ * size are read with bounded memory (see ShapefileStreamReader and FlowRecorder.exportCSV()).
+ */
+final class ChannelReader implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private boolean endOfFile = false;
+
+	ChannelReader(FileChannel channel) {
+		this.channel = channel;
+		buffer.limit(0);
+	}
+
+	/**
+	 * It creates a reader whose buffer has the given byte order.
+	 *
+	 * @param channel the channel, closed with the reader;
+	 * @param order the byte order of the buffer;
+	 */
+	ChannelReader(FileChannel channel, ByteOrder order) {
+		this(channel);
+		buffer.order(order);
+	}
+
+	/**
+	 * It reads further data, when needed, so that at least n bytes are available from the buffer's position.
+	 * It returns false when the file ends earlier.
+	 *
+	 */
+	boolean fill(int n) throws IOException {
+		if (buffer.remaining() >= n) return true;
+		if (buffer.capacity() < n) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2)).order(buffer.order());
+			larger.put(buffer);
+			buffer = larger;
+		}
+		else buffer.compact();
+		while (buffer.position() < n && !endOfFile) {
+			if (channel.read(buffer) == -1) endOfFile = true;
+		}
+		buffer.flip();
+		return buffer.remaining() >= n;
+	}
+
+	/**
+	 * It returns the buffer with at least n bytes available from its position, reading further data when needed.
+	 * The position is not advanced (see skipRequired()).
+	 *
+	 */
+	ByteBuffer require(int n) throws IOException {
+		if (!fill(n)) throw new IOException("Unexpected end of file");
+		return buffer;
+	}
+
+	/**
+	 * It advances past n bytes, previously made available by require(n).
+	 *
+	 */
+	void skipRequired(int n) {
+		buffer.position(buffer.position() + n);
+	}
+
+	/**
+	 * It reads an int, in the buffer's byte order.
+	 *
+	 */
+	int getInt() throws IOException {
+		return require(4).getInt();
+	}
+
+	/**
+	 * It reads a long, in the buffer's byte order.
+	 *
+	 */
+	long getLong() throws IOException {
+		return require(8).getLong();
+	}
+
+	/**
+	 * It reads n bytes.
+	 *
+	 */
+	byte[] getBytes(int n) throws IOException {
+		byte[] bytes = new byte[n];
+		require(n).get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * It advances past n bytes, reading through the buffer.
+	 *
+	 */
+	void skip(int n) throws IOException {
+		while (n > 0) {
+			int step = Math.min(n, BUFFER_SIZE);
+			require(step);
+			skipRequired(step);
+			n -= step;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
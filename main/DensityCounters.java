@@ -0,0 +1,183 @@
+package urbanmason.main;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe counters of the pedestrians' volumes on the edges of a graph, per route choice category (e.g. "RD", "AC"), so
+ * that agents can be stepped in parallel without losing counts.
+ * Counts are stored in flat primitive arrays indexed by edge index (see GraphCSR) and category, and they are striped as in
+ * LongAdder: each thread increments one of a few copies of the array, chosen on the basis of its ID, and reads sum the
+ * copies. Increments do not box and do not go through the edges' HashMaps; they are exported to the edges' fields
+ * (EdgeGraph.RD, AC, ... and EdgeGraph.densities) on request.
+ *
+ * Reads are not atomic across edges while increments are in progress; snapshots should be taken between steps.
+ */
+public class DensityCounters {
+
+	private static final int MAX_STRIPES = 8;
+
+	final GraphCSR csr;
+	final String[] categories;
+	private final HashMap<String, Integer> categoriesIndexes = new HashMap<String, Integer>();
+	private final int stripesCount;
+	// per stripe, counts at [edgeIndex * categories.length + category]
+	private volatile AtomicLongArray[] stripes;
+
+	/**
+	 * It creates the counters for the edges of a graph, with one stripe per available processor (up to 8).
+	 *
+	 * @param graph the graph;
+	 * @param categories the names of the route choice categories;
+	 */
+	public DensityCounters(Graph graph, String... categories) {
+		this(graph.getCSR(), Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES), categories);
+	}
+
+	/**
+	 * It creates the counters for the edges of a snapshot.
+	 *
+	 * @param csr the snapshot of the graph;
+	 * @param stripes the number of copies of the counters (rounded up to a power of two); 1 to save memory on large graphs;
+	 * @param categories the names of the route choice categories;
+	 */
+	public DensityCounters(GraphCSR csr, int stripes, String... categories) {
+		this.csr = csr;
+		this.categories = categories.clone();
+		for (int c = 0; c < categories.length; c++) categoriesIndexes.put(categories[c], c);
+		int count = 1;
+		while (count < stripes) count <<= 1;
+		this.stripesCount = count;
+		this.stripes = newStripes();
+	}
+
+	private AtomicLongArray[] newStripes() {
+		AtomicLongArray[] newStripes = new AtomicLongArray[stripesCount];
+		for (int s = 0; s < stripesCount; s++) newStripes[s] = new AtomicLongArray(csr.edgesCount * categories.length);
+		return newStripes;
+	}
+
+	private AtomicLongArray stripe() {
+		return stripes[(int) Thread.currentThread().getId() & (stripesCount - 1)];
+	}
+
+	/**
+	 * It returns the index of a category, or -1 when the category is not counted.
+	 *
+	 * @param category the name of the category;
+	 */
+	public int categoryIndex(String category) {
+		Integer index = categoriesIndexes.get(category);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * It counts a pedestrian on an edge.
+	 *
+	 * @param edgeIndex the index of the edge (see GraphCSR);
+	 * @param category the index of the category (see categoryIndex());
+	 */
+	public void increment(int edgeIndex, int category) {
+		stripe().incrementAndGet(edgeIndex * categories.length + category);
+	}
+
+	/**
+	 * It adds a number of pedestrians to the count of an edge.
+	 *
+	 * @param edgeIndex the index of the edge (see GraphCSR);
+	 * @param category the index of the category (see categoryIndex());
+	 * @param delta the number of pedestrians;
+	 */
+	public void add(int edgeIndex, int category, long delta) {
+		stripe().addAndGet(edgeIndex * categories.length + category, delta);
+	}
+
+	/**
+	 * It counts a pedestrian on an edge; edges that do not belong to the graph's snapshot are ignored.
+	 *
+	 * @param edge the edge;
+	 * @param category the index of the category (see categoryIndex());
+	 */
+	public void increment(EdgeGraph edge, int category) {
+		int edgeIndex = csr.indexOf(edge);
+		if (edgeIndex >= 0) increment(edgeIndex, category);
+	}
+
+	/**
+	 * It returns the count of an edge.
+	 *
+	 * @param edgeIndex the index of the edge (see GraphCSR);
+	 * @param category the index of the category (see categoryIndex());
+	 */
+	public long get(int edgeIndex, int category) {
+		int position = edgeIndex * categories.length + category;
+		long count = 0;
+		for (AtomicLongArray stripe : stripes) count += stripe.get(position);
+		return count;
+	}
+
+	/**
+	 * It resets the counts of all the edges at once (e.g. new run), replacing the arrays rather than clearing them one counter
+	 * at a time. Increments running concurrently with the reset may be lost.
+	 *
+	 */
+	public void resetDensities() {
+		stripes = newStripes();
+	}
+
+	/**
+	 * It returns a copy of all the counts, at [edgeIndex * number of categories + category].
+	 *
+	 */
+	public long[] snapshot() {
+		AtomicLongArray[] current = stripes;
+		long[] counts = new long[csr.edgesCount * categories.length];
+		for (AtomicLongArray stripe : current) {
+			for (int i = 0; i < counts.length; i++) counts[i] += stripe.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * It returns a copy of the counts of a category, by edge index.
+	 *
+	 * @param category the index of the category (see categoryIndex());
+	 */
+	public long[] snapshot(int category) {
+		AtomicLongArray[] current = stripes;
+		long[] counts = new long[csr.edgesCount];
+		for (AtomicLongArray stripe : current) {
+			for (int e = 0; e < counts.length; e++) counts[e] += stripe.get(e * categories.length + category);
+		}
+		return counts;
+	}
+
+	/**
+	 * It copies the counts to the edges: to EdgeGraph.densities, for every category, and to the corresponding field
+	 * (RD, AC, RL, AL, LL, GL, RB, BB, RBB), for the categories having one of those names.
+	 * Counts larger than Integer.MAX_VALUE are capped.
+	 *
+	 */
+	public void exportToEdges() {
+		long[] counts = snapshot();
+		for (int e = 0; e < csr.edgesCount; e++) {
+			EdgeGraph edge = csr.edges[e];
+			for (int c = 0; c < categories.length; c++) {
+				int count = (int) Math.min(counts[e * categories.length + c], Integer.MAX_VALUE);
+				edge.densities.put(categories[c], count);
+				switch (categories[c]) {
+				case "RD": edge.RD = count; break;
+				case "AC": edge.AC = count; break;
+				case "RL": edge.RL = count; break;
+				case "AL": edge.AL = count; break;
+				case "LL": edge.LL = count; break;
+				case "GL": edge.GL = count; break;
+				case "RB": edge.RB = count; break;
+				case "BB": edge.BB = count; break;
+				case "RBB": edge.RBB = count; break;
+				default: break;
+				}
+			}
+		}
+	}
+}
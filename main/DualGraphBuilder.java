@@ -0,0 +1,94 @@
+package urbanmason.main;
+
+import java.util.ArrayList;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * It derives the dual representation of a (primal) Graph, where nodes represent street segments and edges represent the
+ * links between contiguous segments, weighted by the deflection angle at the shared junction.
+ *
+ * Primal and dual components are linked as in the rest of the library: EdgeGraph.dualNode for primal edges,
+ * NodeGraph.primalEdge for dual nodes. The IDs of the primal edges should be set before building the dual graph, as
+ * they are used as IDs of the dual nodes.
+ */
+public class DualGraphBuilder {
+
+	/**
+	 * It builds the dual graph of a given primal graph.
+	 * Each dual node is located at the centroid of the corresponding street segment, with the same ID and region.
+	 * For each junction of the primal graph, a dual edge is created between every pair of segments meeting at the junction;
+	 * its deflectionDegrees is the angular change (0 = straight on, 180 = U-turn) when moving from one segment to the other,
+	 * and its commonPrimalJunction is the junction. Segments meeting at both their ends (e.g. parallel segments between the
+	 * same junctions) are linked by two dual edges, one per junction.
+	 *
+	 * @param primalGraph the primal graph;
+	 */
+	public static Graph build(Graph primalGraph) {
+
+		Graph dualGraph = new Graph();
+		GeometryFactory geometryFactory = new GeometryFactory();
+
+		for (EdgeGraph edge : primalGraph.edgesGraph) {
+			Coordinate centroid = edge.getCoordsCentroid();
+			// segments sharing the centroid (e.g. symmetric parallel segments) are slightly displaced
+			while (dualGraph.findNode(centroid) != null) centroid = new Coordinate(centroid.x + 0.001, centroid.y);
+
+			NodeGraph dualNode = dualGraph.getNode(centroid);
+			dualNode.setID(edge.getID());
+			dualNode.region = edge.region;
+			dualNode.primalEdge = edge;
+			dualNode.masonGeometry = new MasonGeometry(geometryFactory.createPoint(centroid));
+			edge.dualNode = dualNode;
+			dualGraph.nodesMap.put(dualNode.getID(), dualNode);
+		}
+
+		int dualEdgeID = 0;
+		for (Object o : primalGraph.getNodes()) {
+			NodeGraph junction = (NodeGraph) o;
+			ArrayList<EdgeGraph> edges = new ArrayList<EdgeGraph>();
+			for (Object de : junction.getOutEdges().getEdges()) {
+				EdgeGraph edge = (EdgeGraph) ((GeomPlanarGraphDirectedEdge) de).getEdge();
+				if (edge.u != edge.v && !edges.contains(edge)) edges.add(edge);
+			}
+
+			for (int i = 0; i < edges.size(); i++) {
+				EdgeGraph edge = edges.get(i);
+				for (int j = i + 1; j < edges.size(); j++) {
+					EdgeGraph otherEdge = edges.get(j);
+					Coordinate[] coords = {edge.dualNode.getCoordinate(), otherEdge.dualNode.getCoordinate()};
+					LineString line = geometryFactory.createLineString(coords);
+					EdgeGraph dualEdge = dualGraph.addLineString(new MasonGeometry(line));
+					if (dualEdge == null) continue;
+
+					dualEdge.setID(dualEdgeID);
+					dualEdgeID++;
+					dualEdge.region = (edge.region == otherEdge.region) ? edge.region : 999999;
+					dualEdge.deflectionDegrees = deflection(junction, edge, otherEdge);
+					dualEdge.commonPrimalJunction = junction;
+				}
+			}
+		}
+
+		for (Object o : dualGraph.getNodes()) ((NodeGraph) o).setNeighbouringComponents();
+		return dualGraph;
+	}
+
+	/**
+	 * It computes the deflection angle (degrees) when moving from a segment to another one through their common junction.
+	 *
+	 * @param junction the common junction;
+	 * @param edge the segment from which the junction is reached;
+	 * @param otherEdge the segment towards which the junction is left;
+	 */
+	public static double deflection(NodeGraph junction, EdgeGraph edge, EdgeGraph otherEdge) {
+		double angleIn = Angles.angle(edge.getOtherNode(junction), junction);
+		double angleOut = Angles.angle(junction, otherEdge.getOtherNode(junction));
+		return Angles.differenceAngles(angleIn, angleOut);
+	}
+}
@@ -0,0 +1,83 @@
+package urbanmason.main;
+
+/**
+ * A function assigning a (non-negative) cost to the traversal of an EdgeGraph, used by PathFinder.
+ * Some common criteria are provided: length, deflection angle (dual graphs), landmarkness, barriers.
+ *
+ * Static cost functions (isStatic() == true) only depend on properties of the edges that do not change during the
+ * simulation; their values are computed once per graph snapshot and stored in a double[] keyed by edge index
+ * (see GraphCSR.costs()), so that evaluating them during a search is an array load.
+ * Precomputed arrays are cached per instance: functions returned by ofStatic() should be created once and reused, whereas
+ * those returned by landmarkness() and barriers() are equal for equal parameters and share their arrays. Precomputed costs
+ * that depend on properties set afterwards (e.g. landmarks, barriers) are discarded through Graph.clearCosts().
+ */
+@FunctionalInterface
+public interface EdgeCostFunction {
+
+	/**
+	 * It returns the cost of traversing a given edge.
+	 *
+	 * @param edge the edge;
+	 */
+	double cost(EdgeGraph edge);
+
+	/**
+	 * It returns true if the cost of the edges does not change over time and can therefore be precomputed.
+	 *
+	 */
+	default boolean isStatic() {
+		return false;
+	}
+
+	/**
+	 * It returns a static version of a given cost function, whose values are precomputed per graph.
+	 *
+	 * @param costFunction the cost function;
+	 */
+	static EdgeCostFunction ofStatic(EdgeCostFunction costFunction) {
+		return new EdgeCostFunction() {
+			@Override
+			public double cost(EdgeGraph edge) {
+				return costFunction.cost(edge);
+			}
+
+			@Override
+			public boolean isStatic() {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * The length of the edge (metric distance).
+	 */
+	EdgeCostFunction LENGTH = ofStatic(edge -> edge.getLength());
+
+	/**
+	 * The deflection angle of the edge, in degrees. It is meaningful in dual graphs, where edges represent the link between
+	 * two street segments (angular change).
+	 */
+	EdgeCostFunction DEFLECTION = ofStatic(edge -> edge.getDeflectionAngle());
+
+	/**
+	 * It returns a static cost function that discounts the length of an edge on the basis of the local landmarkness of the
+	 * landmarks at its nodes: cost = length * (1 - weight * highest localLandmarkness at u or v).
+	 *
+	 * @param weight the weight of the landmarkness, between 0.0 and 1.0;
+	 * @throws IllegalArgumentException when the weight is not between 0.0 and 1.0;
+	 */
+	static EdgeCostFunction landmarkness(double weight) {
+		return new ParametricCostFunction(ParametricCostFunction.LANDMARKNESS, weight);
+	}
+
+	/**
+	 * It returns a static cost function that discounts the length of the edges along positive barriers (e.g. rivers, parks):
+	 * cost = length * (1 - discount) for those edges, length otherwise.
+	 *
+	 * @param discount the discount, between 0.0 and 1.0;
+	 * @throws IllegalArgumentException when the discount is not between 0.0 and 1.0;
+	 */
+	static EdgeCostFunction barriers(double discount) {
+		return new ParametricCostFunction(ParametricCostFunction.BARRIERS, discount);
+	}
+}
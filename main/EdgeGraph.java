@@ -1,10 +1,10 @@
 package urbanmason.main;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.AbstractList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineString;
@@ -21,7 +21,9 @@ import sim.util.geo.MasonGeometry;
 public class EdgeGraph extends GeomPlanarGraphEdge {
 
 	public int region, edgeID;
+	public int edgeIndex = -1;
 	public double deflectionDegrees;
+	private double length = -1.0;
 	public MasonGeometry masonGeometry;
 
 	public int RD, AC, RL, AL, LL, GL;
@@ -29,12 +31,18 @@ public class EdgeGraph extends GeomPlanarGraphEdge {
 
 	public NodeGraph u, v;
 	public NodeGraph dualNode;
-
-	public List<Integer> positiveBarriers = new ArrayList<Integer>();
-	public List<Integer> negativeBarriers = new ArrayList<Integer>();
-	public List<Integer> barriers = new ArrayList<Integer>(); //all the barriers
-	List<Integer> waterBodies = new ArrayList<Integer>();
-	List<Integer> parks = new ArrayList<Integer>();
+	// for dual edges: the primal junction shared by the two segments, at which deflectionDegrees is measured
+	public NodeGraph commonPrimalJunction;
+
+	// barriers' IDs, as sorted sets (see IntSets); the lists are read-only views reading the current sets
+	int[] positiveBarrierIDs = IntSets.EMPTY, negativeBarrierIDs = IntSets.EMPTY, barrierIDs = IntSets.EMPTY;
+	int[] waterBodyIDs = IntSets.EMPTY, parkIDs = IntSets.EMPTY;
+	public final List<Integer> positiveBarriers = new BarriersView(POSITIVE_BARRIERS);
+	public final List<Integer> negativeBarriers = new BarriersView(NEGATIVE_BARRIERS);
+	public final List<Integer> barriers = new BarriersView(ALL_BARRIERS); //all the barriers
+	final List<Integer> waterBodies = new BarriersView(WATER_BODIES);
+	final List<Integer> parks = new BarriersView(PARKS);
+	private static final int POSITIVE_BARRIERS = 0, NEGATIVE_BARRIERS = 1, ALL_BARRIERS = 2, WATER_BODIES = 3, PARKS = 4;
 
 	public HashMap<String, Integer> densities = new HashMap<String, Integer>();
 	public Map<String, AttributeValue> attributes;
@@ -92,11 +100,12 @@ public class EdgeGraph extends GeomPlanarGraphEdge {
 	}
 
 	/**
-	 * It returns the edge's length.
+	 * It returns the edge's length. It is computed on the first call, as the line does not change.
 	 *
 	 */
 	public double getLength() {
-		return this.getLine().getLength();
+		if (length < 0.0) length = this.getLine().getLength();
+		return length;
 	}
 
 	/**
@@ -128,39 +137,128 @@ public class EdgeGraph extends GeomPlanarGraphEdge {
 
 
 	/**
-	 * Set the barriers of an EdgeGraph
+	 * Set the barriers of an EdgeGraph, parsing the lists of IDs stored in its attributes ("p_barr", "n_barr", "a_rivers",
+	 * "aw_parks", e.g. "[12, 15]").
+	 * Graph.resetBarrierIndex() should be called once the barriers of the graph's edges are set, so that the barrier index
+	 * and the precomputed costs (e.g. EdgeCostFunction.barriers()) reflect them.
 	 *
 	 */
 	public void setBarriers() {
+		setBarriers(IntSets.parse(this.getStringAttribute("p_barr")), IntSets.parse(this.getStringAttribute("n_barr")),
+				IntSets.parse(this.getStringAttribute("a_rivers")), IntSets.parse(this.getStringAttribute("aw_parks")));
+	}
 
-		String pBarriersString = this.getStringAttribute("p_barr");
-		String nBarriersString = this.getStringAttribute("n_barr");
-		String riversString = this.getStringAttribute("a_rivers");
-		String parksString = this.getStringAttribute("aw_parks");
+	/**
+	 * Set the barriers of an EdgeGraph, given the sorted sets of IDs (see IntSets); the arrays are not copied.
+	 *
+	 * @param positiveBarriers the positive barriers' IDs;
+	 * @param negativeBarriers the negative barriers' IDs;
+	 * @param waterBodies the water bodies' IDs;
+	 * @param parks the parks' IDs;
+	 */
+	void setBarriers(int[] positiveBarriers, int[] negativeBarriers, int[] waterBodies, int[] parks) {
+		this.positiveBarrierIDs = positiveBarriers;
+		this.negativeBarrierIDs = negativeBarriers;
+		this.barrierIDs = IntSets.union(positiveBarriers, negativeBarriers);
+		this.waterBodyIDs = waterBodies;
+		this.parkIDs = parks;
+	}
+
+	/**
+	 * It copies the barriers of another EdgeGraph (e.g. the parent edge of a SubGraph's edge); the sets are shared.
+	 *
+	 * @param edge the other edge;
+	 */
+	void setBarriers(EdgeGraph edge) {
+		this.positiveBarrierIDs = edge.positiveBarrierIDs;
+		this.negativeBarrierIDs = edge.negativeBarrierIDs;
+		this.barrierIDs = edge.barrierIDs;
+		this.waterBodyIDs = edge.waterBodyIDs;
+		this.parkIDs = edge.parkIDs;
+	}
+
+	/**
+	 * It verifies whether the edge is along a given (positive or negative) barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public boolean touchesBarrier(int barrierID) {
+		return IntSets.contains(barrierIDs, barrierID);
+	}
+
+	/**
+	 * It verifies whether the edge is along a given positive barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public boolean touchesPositiveBarrier(int barrierID) {
+		return IntSets.contains(positiveBarrierIDs, barrierID);
+	}
 
-		if (!pBarriersString.equals("[]")) {
-			String p = pBarriersString.replaceAll("[^-?0-9]+", " ");
-			for(String t : (Arrays.asList(p.trim().split(" ")))) this.positiveBarriers.add(Integer.valueOf(t));
+	/**
+	 * It verifies whether the edge is along a given negative barrier.
+	 *
+	 * @param barrierID the barrier's ID;
+	 */
+	public boolean touchesNegativeBarrier(int barrierID) {
+		return IntSets.contains(negativeBarrierIDs, barrierID);
+	}
+
+	/**
+	 * It verifies whether this and another edge are along at least a common barrier.
+	 *
+	 * @param edge the other edge;
+	 */
+	public boolean sharesBarrierWith(EdgeGraph edge) {
+		return IntSets.intersects(barrierIDs, edge.barrierIDs);
+	}
+
+	/**
+	 * It returns the IDs of all the barriers (positive and negative) along the edge, sorted; the array should not be modified.
+	 *
+	 */
+	public int[] getBarrierIDs() {
+		return barrierIDs;
+	}
+
+	/**
+	 * A read-only List view of one of the edge's sets of barriers, for code expecting a List of Integer; it reads the current
+	 * set at each access, so that it always agrees with the set.
+	 *
+	 */
+	private final class BarriersView extends AbstractList<Integer> implements RandomAccess {
+		private final int kind;
+
+		BarriersView(int kind) {
+			this.kind = kind;
 		}
 
-		if (!nBarriersString.equals("[]")) {
-			String n = nBarriersString.replaceAll("[^-?0-9]+", " ");
-			for(String t : (Arrays.asList(n.trim().split(" ")))) this.negativeBarriers.add(Integer.valueOf(t));
+		private int[] set() {
+			switch (kind) {
+			case POSITIVE_BARRIERS: return positiveBarrierIDs;
+			case NEGATIVE_BARRIERS: return negativeBarrierIDs;
+			case ALL_BARRIERS: return barrierIDs;
+			case WATER_BODIES: return waterBodyIDs;
+			default: return parkIDs;
+			}
 		}
 
-		if (!riversString.equals("[]")) {
-			String r = riversString.replaceAll("[^-?0-9]+", " ");
-			for(String t : (Arrays.asList(r.trim().split(" ")))) this.waterBodies.add(Integer.valueOf(t));
+		@Override
+		public Integer get(int index) {
+			int[] set = set();
+			if (index < 0 || index >= set.length) throw new IndexOutOfBoundsException("Index: " + index);
+			return set[index];
 		}
 
-		if (!parksString.equals("[]")) {
-			String p = parksString.replaceAll("[^-?0-9]+", " ");
-			for(String t : (Arrays.asList(p.trim().split(" ")))) this.parks.add(Integer.valueOf(t));
+		@Override
+		public int size() {
+			return set().length;
 		}
 
-		this.barriers.addAll(positiveBarriers);
-		this.barriers.addAll(negativeBarriers);
-		//		this.attributes.clear();
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && IntSets.contains(set(), (Integer) o);
+		}
 	}
 
 	/**
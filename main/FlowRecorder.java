@@ -0,0 +1,296 @@
+package urbanmason.main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A recorder of the pedestrians' volumes on the edges of a graph per time window (bucket), e.g. per 5 simulated minutes, and
+ * per route choice category.
+ * Counts are accumulated in a fixed ring of preallocated buckets (flat primitive arrays indexed by edge index and category,
+ * safe for agents stepped in parallel). When the simulation moves past the end of a bucket (see advance()), the bucket is
+ * handed to a background thread that writes it to a file and returns it to the ring; the simulation never waits for the
+ * writer: when no bucket is free the bucket just completed is discarded and counted (see getDroppedBuckets()).
+ * Memory is bounded by the size of the ring, regardless of the length of the run.
+ *
+ * The file is columnar and little-endian: a header (magic number, version, bucket length, number of edges, names of the
+ * categories, IDs of the edges by edge index), followed, for each bucket, by its start time and one column of edgesCount int
+ * counts per category. It can be converted to CSV with exportCSV().
+ */
+public class FlowRecorder implements AutoCloseable {
+
+	private static final int MAGIC = 0x52464d55; // "UMFR"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	final GraphCSR csr;
+	final String[] categories;
+	final long bucketLength;
+	private final ArrayBlockingQueue<Bucket> freeBuckets;
+	private final ArrayBlockingQueue<Bucket> fullBuckets;
+	private final Bucket closing = new Bucket(-1L, 0);
+	private final FileChannel channel;
+	private final Thread writer;
+	private volatile Bucket current;
+	private volatile IOException writeException;
+	private final AtomicLong droppedBuckets = new AtomicLong();
+	private boolean closed = false;
+
+	/**
+	 * A time window: its start time and its counts, at [edgeIndex * number of categories + category].
+	 */
+	private static final class Bucket {
+		long start;
+		final AtomicIntegerArray counts;
+
+		Bucket(long start, int size) {
+			this.start = start;
+			this.counts = new AtomicIntegerArray(size);
+		}
+	}
+
+	/**
+	 * It creates the recorder, writes the header of the file and starts the background writer.
+	 *
+	 * @param csr the snapshot of the graph;
+	 * @param categories the names of the route choice categories;
+	 * @param bucketLength the length of the time windows, in simulation time units (e.g. steps), greater than 0;
+	 * @param ringSize the number of preallocated buckets (at least 2);
+	 * @param path the path of the file;
+	 * @throws IllegalArgumentException when there are no categories, the length of the windows is not positive or the ring
+	 * has fewer than 2 buckets;
+	 */
+	public FlowRecorder(GraphCSR csr, String[] categories, long bucketLength, int ringSize, String path) throws IOException {
+
+		if (categories.length == 0) throw new IllegalArgumentException("At least one category is required");
+		if (bucketLength <= 0) throw new IllegalArgumentException("Invalid bucket length: " + bucketLength);
+		if (ringSize < 2) throw new IllegalArgumentException("Invalid ring size: " + ringSize);
+		this.csr = csr;
+		this.categories = categories.clone();
+		this.bucketLength = bucketLength;
+		int size = csr.edgesCount * categories.length;
+		freeBuckets = new ArrayBlockingQueue<Bucket>(ringSize);
+		fullBuckets = new ArrayBlockingQueue<Bucket>(ringSize + 1);
+		current = new Bucket(0L, size);
+		for (int i = 1; i < ringSize; i++) freeBuckets.add(new Bucket(0L, size));
+
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			writeHeader();
+		}
+		catch (IOException | RuntimeException e) {
+			// the recorder is not returned: the channel would leak
+			try {
+				channel.close();
+			}
+			catch (IOException closing) {
+				e.addSuppressed(closing);
+			}
+			throw e;
+		}
+
+		writer = new Thread(this::writeBuckets, "FlowRecorder writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * It counts a pedestrian on an edge, in the current time window.
+	 *
+	 * @param edgeIndex the index of the edge (see GraphCSR);
+	 * @param category the index of the category (position in the categories passed to the constructor);
+	 */
+	public void record(int edgeIndex, int category) {
+		current.counts.incrementAndGet(edgeIndex * categories.length + category);
+	}
+
+	/**
+	 * It counts a pedestrian on an edge, in the current time window; edges that do not belong to the graph's snapshot are
+	 * ignored.
+	 *
+	 * @param edge the edge;
+	 * @param category the index of the category (position in the categories passed to the constructor);
+	 */
+	public void record(EdgeGraph edge, int category) {
+		int edgeIndex = csr.indexOf(edge);
+		if (edgeIndex >= 0) record(edgeIndex, category);
+	}
+
+	/**
+	 * It moves the recorder to the given simulation time: when the time falls beyond the current window, the window is
+	 * handed to the writer and a new one, containing the time, is started (windows without any record in between are not
+	 * written). It should be called between steps, by a single thread.
+	 *
+	 * @param time the simulation time;
+	 */
+	public void advance(long time) {
+		Bucket bucket = current;
+		if (closed || time < bucket.start + bucketLength) return;
+		long start = time - Math.floorMod(time, bucketLength);
+		Bucket next = freeBuckets.poll();
+		if (next == null) {
+			// the writer is behind: the completed window is discarded and its bucket reused
+			droppedBuckets.incrementAndGet();
+			clear(bucket);
+			bucket.start = start;
+			return;
+		}
+		next.start = start;
+		current = next;
+		fullBuckets.add(bucket);
+	}
+
+	/**
+	 * It returns the number of time windows discarded because the writer could not keep up.
+	 *
+	 */
+	public long getDroppedBuckets() {
+		return droppedBuckets.get();
+	}
+
+	/**
+	 * It writes the current window, waits for the writer to complete and closes the file.
+	 * It throws the first exception occurred while writing, if any.
+	 *
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		fullBuckets.add(current);
+		fullBuckets.add(closing);
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			channel.close();
+		}
+		if (writeException != null) throw writeException;
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer buffer = newBuffer();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(bucketLength);
+		buffer.putInt(csr.edgesCount);
+		buffer.putInt(categories.length);
+		for (String category : categories) {
+			byte[] bytes = category.getBytes(StandardCharsets.UTF_8);
+			buffer = ensure(buffer, 4 + bytes.length);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+		for (int e = 0; e < csr.edgesCount; e++) {
+			buffer = ensure(buffer, 4);
+			buffer.putInt(csr.edgeIDs[e]);
+		}
+		flush(buffer);
+	}
+
+	private void writeBuckets() {
+		ByteBuffer buffer = newBuffer();
+		while (true) {
+			Bucket bucket;
+			try {
+				bucket = fullBuckets.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			if (bucket == closing) return;
+			if (writeException == null) {
+				try {
+					buffer = ensure(buffer, 8);
+					buffer.putLong(bucket.start);
+					// one column per category
+					for (int c = 0; c < categories.length; c++) {
+						for (int e = 0; e < csr.edgesCount; e++) {
+							buffer = ensure(buffer, 4);
+							buffer.putInt(bucket.counts.get(e * categories.length + c));
+						}
+					}
+					flush(buffer);
+				}
+				catch (IOException e) {
+					writeException = e;
+				}
+			}
+			clear(bucket);
+			freeBuckets.offer(bucket);
+		}
+	}
+
+	private static void clear(Bucket bucket) {
+		for (int i = 0; i < bucket.counts.length(); i++) bucket.counts.lazySet(i, 0);
+	}
+
+	private static ByteBuffer newBuffer() {
+		return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private ByteBuffer ensure(ByteBuffer buffer, int n) throws IOException {
+		if (buffer.remaining() < n) flush(buffer);
+		return buffer;
+	}
+
+	private void flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * It converts a file written by a FlowRecorder to CSV, with one line per non-zero count: start of the window, edge ID,
+	 * category and count.
+	 * It returns false when the file was not written by a FlowRecorder.
+	 *
+	 * @param path the path of the recorder's file;
+	 * @param csvPath the path of the CSV file;
+	 */
+	public static boolean exportCSV(String path, String csvPath) throws IOException {
+
+		// streamed through a fixed-size window: the file can be larger than the memory (or than a mapped buffer)
+		try (ChannelReader input = new ChannelReader(FileChannel.open(Paths.get(path), StandardOpenOption.READ),
+				ByteOrder.LITTLE_ENDIAN)) {
+			if (!input.fill(8) || input.getInt() != MAGIC || input.getInt() != VERSION) return false;
+			input.getLong();
+			int edgesCount = input.getInt();
+			String[] categories = new String[input.getInt()];
+			for (int c = 0; c < categories.length; c++)
+				categories[c] = new String(input.getBytes(input.getInt()), StandardCharsets.UTF_8);
+			int[] edgeIDs = new int[edgesCount];
+			for (int e = 0; e < edgesCount; e++) edgeIDs[e] = input.getInt();
+
+			try (BufferedWriter csv = Files.newBufferedWriter(Paths.get(csvPath), StandardCharsets.UTF_8)) {
+				csv.write("start,edgeID,category,count");
+				csv.newLine();
+				while (input.fill(8)) {
+					long start = input.getLong();
+					for (String category : categories) {
+						for (int e = 0; e < edgesCount; e++) {
+							int count = input.getInt();
+							if (count == 0) continue;
+							csv.write(start + "," + edgeIDs[e] + "," + category + "," + count);
+							csv.newLine();
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -1,18 +1,24 @@
 package urbanmason.main;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateArrays;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.planargraph.DirectedEdge;
 
 import sim.field.network.Network;
@@ -32,8 +38,19 @@ public class Graph extends GeomPlanarGraph
 {
 	public ArrayList<EdgeGraph> edgesGraph = new ArrayList<EdgeGraph>();
 	LinkedHashMap<NodeGraph, Double> centralityMap = new LinkedHashMap<NodeGraph, Double>();
+	NodeGraph[] centralityNodes = new NodeGraph[0];
+	double[] centralityValues = new double[0];
+	private boolean centralityMapSorted = true;
+	private Map<SalientNodesKey, Map<NodeGraph, Double>> salientNodesCache;
 	public HashMap<Integer, NodeGraph> nodesMap = new HashMap<Integer, NodeGraph>();
 	VectorLayer junctions = new VectorLayer();
+	GraphCSR csr;
+	private STRtree nodesIndex;
+	private STRtree edgesIndex;
+	private NodesKDTree nodesKDTree;
+	private HashMap<Integer, STRtree> regionsNodesIndexes;
+	private BarrierIndex barrierIndex;
+	LandmarkStore landmarkStore;
 
 	public Graph()
 	{
@@ -67,18 +84,30 @@ public class Graph extends GeomPlanarGraph
 		this.junctions = streetJunctions;
 	}
 
+	/**
+	 * It populates the network with the street segments of an ESRI shapefile, read record by record
+	 * (see ShapefileStreamReader); only the given attribute columns are kept.
+	 *
+	 * @param shapefilePath the path of the .shp file;
+	 * @param attributes the names of the attribute columns to keep; null to keep all the columns;
+	 */
+	public void fromShapefile(String shapefilePath, Collection<String> attributes) throws IOException {
+		ShapefileStreamReader.readStreets(this, shapefilePath, attributes);
+	}
+
 	/**
 	 * It adds an Edge Graph and its nodes to the graph.
 	 * It also stores the geometries of the junctions, for convenience.
 	 *
 	 * @param wrappedLine the MasonGeometry corresponding to a street segment;
+	 * @return the new EdgeGraph, or null if the line is empty or degenerate;
 	 */
-	private void addLineString(MasonGeometry wrappedLine) {
+	EdgeGraph addLineString(MasonGeometry wrappedLine) {
 		LineString line = (LineString) wrappedLine.geometry;
-		if (line.isEmpty()) return;
+		if (line.isEmpty()) return null;
 
 		Coordinate[] coords = CoordinateArrays.removeRepeatedPoints(line.getCoordinates());
-		if (coords.length < 2) return;
+		if (coords.length < 2) return null;
 
 		Coordinate uCoord = coords[0];
 		Coordinate vCoord = coords[coords.length - 1];
@@ -98,6 +127,8 @@ public class Graph extends GeomPlanarGraph
 		edge.masonGeometry = wrappedLine;
 		add(edge);
 		edgesGraph.add(edge);
+		resetIndexes();
+		return edge;
 	}
 
 
@@ -118,6 +149,161 @@ public class Graph extends GeomPlanarGraph
 		return node;
 	}
 
+	/**
+	 * It returns the compressed-sparse-row snapshot of this graph, for fast traversals.
+	 * The snapshot is generated the first time it is requested, and again after the graph has been modified.
+	 *
+	 */
+	public synchronized GraphCSR getCSR() {
+		if (csr == null) csr = new GraphCSR(this);
+		return csr;
+	}
+
+	/**
+	 * It returns the spatial index (STRtree) of the nodes in nodesMap, built on first use.
+	 *
+	 */
+	synchronized STRtree getNodesIndex() {
+		if (nodesIndex == null) {
+			nodesIndex = new STRtree();
+			for (NodeGraph node : nodesMap.values()) nodesIndex.insert(node.masonGeometry.geometry.getEnvelopeInternal(), node);
+			nodesIndex.build();
+		}
+		return nodesIndex;
+	}
+
+	/**
+	 * It returns the spatial index (STRtree) of the edges, built on first use.
+	 *
+	 */
+	synchronized STRtree getEdgesIndex() {
+		if (edgesIndex == null) {
+			edgesIndex = new STRtree();
+			for (EdgeGraph edge : edgesGraph) edgesIndex.insert(edge.masonGeometry.geometry.getEnvelopeInternal(), edge);
+			edgesIndex.build();
+		}
+		return edgesIndex;
+	}
+
+	/**
+	 * It returns the spatial indexes (STRtree) of the nodes in nodesMap, one per region, built on first use.
+	 * The indexes reflect the nodes' regions at that moment; resetIndexes() should be called after assigning the regions.
+	 *
+	 */
+	synchronized HashMap<Integer, STRtree> getRegionsNodesIndexes() {
+		if (regionsNodesIndexes == null) {
+			regionsNodesIndexes = new HashMap<Integer, STRtree>();
+			for (NodeGraph node : nodesMap.values()) {
+				STRtree regionIndex = regionsNodesIndexes.computeIfAbsent(node.region, region -> new STRtree());
+				regionIndex.insert(node.masonGeometry.geometry.getEnvelopeInternal(), node);
+			}
+			for (STRtree regionIndex : regionsNodesIndexes.values()) regionIndex.build();
+		}
+		return regionsNodesIndexes;
+	}
+
+	/**
+	 * It returns the KD-tree of the nodes' coordinates, for distance band queries, built on first use over the graph's snapshot.
+	 *
+	 */
+	synchronized NodesKDTree getNodesKDTree() {
+		GraphCSR csr = getCSR();
+		if (nodesKDTree == null || nodesKDTree.csr != csr) nodesKDTree = new NodesKDTree(csr);
+		return nodesKDTree;
+	}
+
+	/**
+	 * It returns the index between the barriers and the edges of the graph (see BarrierIndex), built on first use over the
+	 * graph's snapshot. The index reflects the edges' barriers at that moment; resetBarrierIndex() should be called after
+	 * setting the barriers (see EdgeGraph.setBarriers()), and it also discards the costs that depend on them.
+	 *
+	 */
+	public synchronized BarrierIndex getBarrierIndex() {
+		GraphCSR csr = getCSR();
+		if (barrierIndex == null || barrierIndex.csr != csr) barrierIndex = buildBarrierIndex(csr);
+		return barrierIndex;
+	}
+
+	/**
+	 * It discards the barrier index and the precomputed costs (see clearCosts()), keeping the snapshot and the other indexes,
+	 * e.g. after setting the edges' barriers. The index is rebuilt when needed.
+	 *
+	 */
+	public synchronized void resetBarrierIndex() {
+		barrierIndex = null;
+		clearCosts();
+	}
+
+	/**
+	 * It discards the costs of the static cost functions precomputed on the graph's snapshot (see GraphCSR.costs()), e.g.
+	 * after changing the landmarks or the barriers they depend on; they are computed again when needed.
+	 * It is called by setLocalLandmarkness(), setGlobalLandmarkness() and resetBarrierIndex().
+	 *
+	 */
+	public synchronized void clearCosts() {
+		if (csr != null) csr.clearCosts();
+	}
+
+	/**
+	 * It builds the barrier index over the given snapshot of this graph.
+	 *
+	 * @param csr the snapshot;
+	 */
+	BarrierIndex buildBarrierIndex(GraphCSR csr) {
+		return new BarrierIndex(csr);
+	}
+
+	/**
+	 * It copies the landmarks of the nodes (visible2d, localLandmarks, distantLandmarks, anchors and distances) to a compact
+	 * LandmarkStore and returns the store. The landmarks are then read through the nodes' getters (e.g.
+	 * NodeGraph.getLocalLandmarks()), which return read-only views over the store. The nodes' lists keep their landmarks but
+	 * become read-only: modifying them throws an UnsupportedOperationException until restoreLandmarks() is called.
+	 * It should be called once the landmarks have been assigned (see setLocalLandmarkness() and setGlobalLandmarkness()), and
+	 * before building the SubGraphs (see SubGraph.setSubGraphLandmarks()); it can be reverted with restoreLandmarks().
+	 *
+	 */
+	public synchronized LandmarkStore compactLandmarks() {
+		LandmarkStore previousStore = landmarkStore;
+		landmarkStore = new LandmarkStore(getCSR());
+		landmarkStore.assignToNodes();
+		// nodes no longer in the snapshot get modifiable lists back
+		if (previousStore != null) previousStore.restoreToNodes();
+		return landmarkStore;
+	}
+
+	/**
+	 * It gives back modifiable lists, with the same landmarks, to the nodes and discards the LandmarkStore. It does nothing
+	 * when the landmarks have not been compacted.
+	 *
+	 */
+	public synchronized void restoreLandmarks() {
+		if (landmarkStore == null) return;
+		landmarkStore.restoreToNodes();
+		landmarkStore = null;
+	}
+
+	/**
+	 * It returns the LandmarkStore of the graph, or null if the landmarks have not been compacted (see compactLandmarks()).
+	 *
+	 */
+	public synchronized LandmarkStore getLandmarkStore() {
+		return landmarkStore;
+	}
+
+	/**
+	 * It discards the snapshot and the spatial indexes of the graph, which are regenerated when needed.
+	 * It is called whenever the graph is modified; it should be called as well after modifying nodesMap or edgesGraph directly.
+	 *
+	 */
+	public synchronized void resetIndexes() {
+		csr = null;
+		nodesIndex = null;
+		edgesIndex = null;
+		nodesKDTree = null;
+		regionsNodesIndexes = null;
+		barrierIndex = null;
+	}
+
 	/**
 	 * It returns this graph's network;
 	 *
@@ -147,36 +333,128 @@ public class Graph extends GeomPlanarGraph
 
 	/**
 	 * It generates the nodes map of this graph.
+	 * The snapshot and the spatial indexes are kept, unless nodes missing from the map had to be added.
 	 *
 	 */
 	private void generateNodesMap() {
 		Collection<NodeGraph> nodes = this.getNodes();
+		boolean changed = false;
 		for (NodeGraph node : nodes) {
-			nodesMap.put(node.getID(), node);
+			if (nodesMap.put(node.getID(), node) != node) changed = true;
 		}
+		if (changed) resetIndexes();
 	}
 
 	/**
 	 * It generates the nodes' centrality map of this graph.
+	 * Nodes and centrality values are also stored in primitive arrays, sorted in ascending order of centrality, and the
+	 * rescaled centrality (centrality_sc) of each node is computed on the basis of the minimum and maximum values.
 	 *
 	 */
 	public void generateCentralityMap() {
 
 		this.generateNodesMap();
-		LinkedHashMap<NodeGraph, Double> centralityMap = new LinkedHashMap<NodeGraph, Double>();
 		Collection<NodeGraph> nodes = nodesMap.values();
+		NodeGraph[] sortedNodes = nodes.toArray(new NodeGraph[nodes.size()]);
+		// stable sort: nodes with equal values keep the order of the nodes map
+		Arrays.sort(sortedNodes, Comparator.comparingDouble(node -> node.centrality));
 
-		for (NodeGraph node : nodes) centralityMap.put(node, node.centrality);
-		this.centralityMap = (LinkedHashMap<NodeGraph, Double>) Utilities.sortByValue(centralityMap, false);
+		centralityNodes = sortedNodes;
+		centralityValues = new double[sortedNodes.length];
+		for (int i = 0; i < sortedNodes.length; i++) centralityValues[i] = sortedNodes[i].centrality;
+		this.generateSortedCentralityMap();
 
 		// rescale
-		for (NodeGraph node : nodes) {
-			double rescaled = (node.centrality - Collections.min(centralityMap.values())) /
-					(Collections.max(centralityMap.values()) - Collections.min(centralityMap.values()));
-			node.centrality_sc = rescaled;
-		}
+		if (sortedNodes.length == 0) return;
+		double min = centralityValues[0];
+		double max = centralityValues[centralityValues.length - 1];
+		for (NodeGraph node : sortedNodes) node.centrality_sc = (node.centrality - min) / (max - min);
+	}
+
+	/**
+	 * It regenerates the centrality map from the sorted arrays, so that its entries are in ascending order of centrality.
+	 *
+	 */
+	private void generateSortedCentralityMap() {
+		LinkedHashMap<NodeGraph, Double> centralityMap = new LinkedHashMap<NodeGraph, Double>();
+		for (int i = 0; i < centralityNodes.length; i++) centralityMap.put(centralityNodes[i], centralityValues[i]);
+		this.centralityMap = centralityMap;
+		centralityMapSorted = true;
+		if (salientNodesCache != null) salientNodesCache.clear();
 	}
 
+	/**
+	 * It returns the centrality map of this graph, with entries sorted in ascending order of centrality.
+	 *
+	 */
+	public LinkedHashMap<NodeGraph, Double> getCentralityMap() {
+		if (!centralityMapSorted) this.generateSortedCentralityMap();
+		return centralityMap;
+	}
+
+	/**
+	 * It updates the centrality of some nodes, without regenerating the whole centrality map.
+	 * The changed nodes are taken out of the sorted arrays in one pass, sorted by their new values and merged back in a
+	 * second pass (O(N + k log k), for k changed nodes out of N); a changed node follows the unchanged nodes with an equal
+	 * value. The rescaled centrality is recomputed for all the nodes only when the minimum or the maximum value change,
+	 * otherwise only for the changed nodes. Nodes that are not in the centrality map are ignored.
+	 *
+	 * @param newValues the new centrality values of the nodes;
+	 */
+	public void updateCentrality(Map<NodeGraph, Double> newValues) {
+
+		int size = centralityValues.length;
+		if (size == 0) return;
+
+		NodeGraph[] changedNodes = new NodeGraph[newValues.size()];
+		int changed = 0;
+		for (Map.Entry<NodeGraph, Double> entry : newValues.entrySet()) {
+			NodeGraph node = entry.getKey();
+			if (!centralityMap.containsKey(node)) continue;
+			node.centrality = entry.getValue();
+			centralityMap.put(node, node.centrality);
+			changedNodes[changed++] = node;
+		}
+		if (changed == 0) return;
+		Arrays.sort(changedNodes, 0, changed, Comparator.comparingDouble(node -> node.centrality));
+
+		// compaction of the unchanged nodes, in place
+		double oldMin = centralityValues[0];
+		double oldMax = centralityValues[size - 1];
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (newValues.containsKey(centralityNodes[i])) continue;
+			centralityNodes[kept] = centralityNodes[i];
+			centralityValues[kept] = centralityValues[i];
+			kept++;
+		}
+
+		// merge from the end, so that the unchanged nodes are not overwritten before being moved
+		int i = kept - 1, j = changed - 1;
+		for (int position = size - 1; position >= 0; position--) {
+			if (j < 0 || (i >= 0 && centralityValues[i] > changedNodes[j].centrality)) {
+				centralityNodes[position] = centralityNodes[i];
+				centralityValues[position] = centralityValues[i];
+				i--;
+			}
+			else {
+				centralityNodes[position] = changedNodes[j];
+				centralityValues[position] = changedNodes[j].centrality;
+				j--;
+			}
+		}
+		centralityMapSorted = false;
+		if (salientNodesCache != null) salientNodesCache.clear();
+
+		double min = centralityValues[0];
+		double max = centralityValues[size - 1];
+		if (min != oldMin || max != oldMax) {
+			for (NodeGraph node : centralityNodes) node.centrality_sc = (node.centrality - min) / (max - min);
+		}
+		else {
+			for (int c = 0; c < changed; c++) changedNodes[c].centrality_sc = (changedNodes[c].centrality - min) / (max - min);
+		}
+	}
 
 	/**
 	 * It returns a Map of salient nodes, on the basis of centrality values.
@@ -186,80 +464,151 @@ public class Graph extends GeomPlanarGraph
 	 * This is computed within the space (smallest enclosing circle) between two given nodes;
 	 * The keys represent NodeGraph in the SubGraph (child nodes).
 	 *
+	 * Nodes within the circle are retrieved through the spatial index and the percentile's value is identified by selection,
+	 * without sorting. When the cache is enabled (see setSalientNodesCacheSize), results are reused for repeated queries.
+	 *
 	 * @param node a node;
 	 * @param otherNode an other node;
 	 * @param percentile the percentile use to identify salient nodes;
 	 */
 	public Map<NodeGraph, Double> salientNodesWithinSpace(NodeGraph node, NodeGraph otherNode, double percentile) {
-		ArrayList<NodeGraph> containedNodes = new ArrayList<NodeGraph>();
+
+		SalientNodesKey key = null;
+		if (salientNodesCache != null) {
+			key = new SalientNodesKey(node, otherNode, percentile);
+			Map<NodeGraph, Double> cached = salientNodesCache.get(key);
+			if (cached != null) return cached.isEmpty() ? null : new HashMap<NodeGraph, Double>(cached);
+		}
+
 		Geometry smallestEnclosingCircle = NodeGraph.nodesEnclosingCircle(node, otherNode);
-		containedNodes = this.getContainedNodes(smallestEnclosingCircle);
+		ArrayList<NodeGraph> containedNodes = this.getContainedNodes(smallestEnclosingCircle);
+		NodeGraph[] nodes = new NodeGraph[containedNodes.size()];
+		double[] values = new double[containedNodes.size()];
+		int size = 0;
+		for (NodeGraph containedNode : containedNodes) {
+			Double centrality = centralityMap.get(containedNode);
+			if (centrality == null) continue;
+			nodes[size] = containedNode;
+			values[size] = centrality;
+			size++;
+		}
 
-		if (containedNodes.size() == 0 ) return null;
-		LinkedHashMap<NodeGraph, Double> spatialfilteredMap = new LinkedHashMap<NodeGraph, Double>();
-		spatialfilteredMap = filterCentralityMap(centralityMap, containedNodes);
-		if (spatialfilteredMap.size() == 0 || spatialfilteredMap == null ) return null;
+		Map<NodeGraph, Double> valueFilteredMap = new HashMap<NodeGraph, Double>();
+		if (size > 0) {
+			int position = Math.min((int) (size*percentile), size - 1);
+			double boundary = Utilities.kthSmallest(values.clone(), size, position);
+			for (int i = 0; i < size; i++) if (values[i] >= boundary) valueFilteredMap.put(nodes[i], values[i]);
+		}
 
-		int position = (int) (spatialfilteredMap.size()*percentile);
-		double boundary = (new ArrayList<Double>(spatialfilteredMap.values())).get(position);
-		Map<NodeGraph, Double> valueFilteredMap = spatialfilteredMap.entrySet().stream()
-				.filter(entry -> entry.getValue() >= boundary)
-				.collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue()));
+		if (key != null) salientNodesCache.put(key, valueFilteredMap);
+		if (valueFilteredMap.size() == 0) return null;
+		else return key != null ? new HashMap<NodeGraph, Double>(valueFilteredMap) : valueFilteredMap;
+	}
 
-		if (valueFilteredMap.size() == 0 || valueFilteredMap == null) return null;
-		else return valueFilteredMap;
+	/**
+	 * It enables a bounded cache of the results of salientNodesWithinSpace, keyed by origin, destination and percentile,
+	 * for models where the same OD pairs are queried repeatedly. The least recently used entries are discarded first.
+	 * The cache is emptied when the centrality map is regenerated.
+	 *
+	 * @param maxEntries the maximum number of cached results; 0 disables the cache;
+	 */
+	public void setSalientNodesCacheSize(int maxEntries) {
+		if (maxEntries <= 0) {
+			salientNodesCache = null;
+			return;
+		}
+		salientNodesCache = Collections.synchronizedMap(new LinkedHashMap<SalientNodesKey, Map<NodeGraph, Double>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SalientNodesKey, Map<NodeGraph, Double>> eldest) {
+				return size() > maxEntries;
+			}
+		});
 	}
 
+	/**
+	 * The key of the salient nodes' cache.
+	 *
+	 */
+	private static final class SalientNodesKey {
+		private final NodeGraph node, otherNode;
+		private final double percentile;
+
+		private SalientNodesKey(NodeGraph node, NodeGraph otherNode, double percentile) {
+			this.node = node;
+			this.otherNode = otherNode;
+			this.percentile = percentile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SalientNodesKey)) return false;
+			SalientNodesKey other = (SalientNodesKey) o;
+			return node == other.node && otherNode == other.otherNode && Double.compare(percentile, other.percentile) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(node) + System.identityHashCode(otherNode)) + Double.hashCode(percentile);
+		}
+	}
 
 	/**
 	 * It returns a Map of salient nodes, on the basis of centrality values.
 	 * The returned Map is in the format <NodeGraph, Double>, where the values represent centrality values.
 	 * The percentile determines the threshold used to identify salient nodes. For example, if 0.75 is provided,
 	 * only the nodes whose centrality value is higher than the value at the 75th percentile are returned.
-	 * This is computed within the entire graph..
+	 * This is computed within the entire graph, on the sorted centrality values.
 	 *
 	 * @param percentile the percentile use to identify salient nodes;
 	 */
 	public Map<NodeGraph, Double> salientNodesNetwork(double percentile) {
-		int position;
-		position = (int) (centralityMap.size()*percentile);
-		double boundary = (new ArrayList<Double>(centralityMap.values())).get(position);
-		Map<NodeGraph, Double> valueFilteredMap = centralityMap.entrySet().stream()
-				.filter(entry -> entry.getValue() >= boundary)
-				.collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue()));
-		if (valueFilteredMap.size() == 0 || valueFilteredMap == null) return null;
-		else return valueFilteredMap;
+		int size = centralityValues.length;
+		if (size == 0) return null;
+		int position = Math.min((int) (size*percentile), size - 1);
+		// first position holding the boundary value, as equal values are salient too
+		while (position > 0 && centralityValues[position - 1] == centralityValues[position]) position--;
+
+		Map<NodeGraph, Double> valueFilteredMap = new HashMap<NodeGraph, Double>();
+		for (int i = position; i < size; i++) valueFilteredMap.put(centralityNodes[i], centralityValues[i]);
+		return valueFilteredMap;
 	}
 
 	/**
 	 * It returns a list of nodes contained within a given geometry.
+	 * Candidates are retrieved through the nodes' spatial index; the containment is verified on the prepared geometry.
 	 *
 	 * @param g the given geometry;
 	 */
 	public ArrayList<NodeGraph> getContainedNodes(Geometry g) {
 		ArrayList<NodeGraph> containedNodes = new ArrayList<NodeGraph>();
-		Collection<NodeGraph> nodes = nodesMap.values();
+		List<?> candidates = getNodesIndex().query(g.getEnvelopeInternal());
+		if (candidates.isEmpty()) return containedNodes;
+		PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(g);
 
-		for (NodeGraph node : nodes ) {
-			Geometry geoNode = node.masonGeometry.geometry;
-			if (g.contains(geoNode)) containedNodes.add(node);
+		for (Object o : candidates) {
+			NodeGraph node = (NodeGraph) o;
+			if (preparedGeometry.contains(node.masonGeometry.geometry)) containedNodes.add(node);
 		}
 		return containedNodes;
 	}
 
 	/**
 	 * It returns a list of edges contained within a given geometry.
+	 * Candidates are retrieved through the edges' spatial index; the containment is verified on the prepared geometry.
 	 *
 	 * @param g the given geometry;
 	 */
 	public ArrayList<EdgeGraph> getContainedEdges(Geometry g)
 	{
 		ArrayList<EdgeGraph> containedEdges = new ArrayList<EdgeGraph>();
-		ArrayList<EdgeGraph> edges = this.edgesGraph;
+		List<?> candidates = getEdgesIndex().query(g.getEnvelopeInternal());
+		if (candidates.isEmpty()) return containedEdges;
+		PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(g);
 
-		for (EdgeGraph edge: edges) {
-			Geometry geoEdge = edge.masonGeometry.geometry;
-			if (g.contains(geoEdge)) containedEdges.add(edge);
+		for (Object o : candidates) {
+			EdgeGraph edge = (EdgeGraph) o;
+			if (preparedGeometry.contains(edge.masonGeometry.geometry)) containedEdges.add(edge);
 		}
 		return containedEdges;
 	}
@@ -319,12 +668,23 @@ public class Graph extends GeomPlanarGraph
 
 	}
 
+	/**
+	 * It assigns to each node the local landmarks (buildings) within a certain radius (NodeGraph.localLandmarks).
+	 * Nodes are processed in parallel, on the common fork-join pool. When the landmarks have been compacted, they are restored
+	 * to the nodes' lists and compacted again afterwards (see compactLandmarks()). The precomputed costs are discarded.
+	 *
+	 * @param localLandmarks the layer of the local landmarks, whose geometries' user data is the buildingID;
+	 * @param buildingsMap the buildings, by ID;
+	 * @param radius the radius;
+	 */
 	public void setLocalLandmarkness(VectorLayer localLandmarks, HashMap<Integer, Building> buildingsMap,
 			double radius) {
 
+		boolean compacted = getLandmarkStore() != null;
+		restoreLandmarks();
 		Collection<NodeGraph> nodes = nodesMap.values();
 
-		nodes.forEach((node) -> {
+		nodes.parallelStream().forEach((node) -> {
 
 			Bag containedLandmarks = localLandmarks.featuresWithinDistance(node.masonGeometry.geometry, radius);
 			for (Object l : containedLandmarks ) {
@@ -332,37 +692,61 @@ public class Graph extends GeomPlanarGraph
 				node.localLandmarks.add(buildingsMap.get((int) building.getUserData()));
 			}
 		});
+		if (compacted) compactLandmarks();
+		clearCosts();
 	}
 
+	/**
+	 * It assigns to each node the global landmarks (buildings) within a certain radius that are the node's anchors, with
+	 * their distances (NodeGraph.anchors, NodeGraph.distances), and the distant landmarks visible from the node, on the basis of
+	 * the sight lines (NodeGraph.distantLandmarks).
+	 * When nrAnchors is 999999 all the global landmarks within the radius are anchors; otherwise only those whose "gScore_sc"
+	 * is not lower than the nrAnchors-th highest score (ties included) are; all of them when there are fewer than nrAnchors.
+	 * Anchors are found in parallel, on the common fork-join pool, with the scores read once per building and the top scores
+	 * selected by quickselect (see Utilities.kthSmallest()); sight lines are processed sequentially. When the landmarks have
+	 * been compacted, they are restored to the nodes' lists and compacted again afterwards (see compactLandmarks()). The
+	 * precomputed costs are discarded.
+	 *
+	 * @param globalLandmarks the layer of the global landmarks, whose geometries' user data is the buildingID;
+	 * @param buildingsMap the buildings, by ID;
+	 * @param radiusAnchors the radius within which anchors are searched;
+	 * @param sightLines the layer of the sight lines, with "buildingID" and "nodeID" attributes;
+	 * @param nrAnchors the maximum number of anchors per node, or 999999 for all the global landmarks within the radius;
+	 */
 	public void setGlobalLandmarkness(VectorLayer globalLandmarks, HashMap<Integer, Building> buildingsMap,
 			double radiusAnchors, VectorLayer sightLines, int nrAnchors) {
 
+		boolean compacted = getLandmarkStore() != null;
+		restoreLandmarks();
 		Collection<NodeGraph> nodes = nodesMap.values();
+		IdentityHashMap<MasonGeometry, Double> gScores = new IdentityHashMap<MasonGeometry, Double>();
+		if (nrAnchors != 999999) {
+			for (Object l : globalLandmarks.getGeometries()) {
+				MasonGeometry building = (MasonGeometry) l;
+				gScores.put(building, building.getDoubleAttribute("gScore_sc"));
+			}
+		}
 
-		for (NodeGraph node : nodes) {
-			MasonGeometry nodeGeometry = node.masonGeometry;
-
-			Bag containedLandmarks = globalLandmarks.featuresWithinDistance(node.masonGeometry.geometry, radiusAnchors);
-			List<Double> gScores = new ArrayList<Double>();
-
-			if (nrAnchors != 999999) {
-				for (Object l : containedLandmarks ) {
-					MasonGeometry building = (MasonGeometry) l;
-					gScores.add(building.getDoubleAttribute("gScore_sc"));
+		nodes.parallelStream().forEach((node) -> {
+			ArrayList<Double> distances = new ArrayList<Double>();
+			Bag containedLandmarks = globalLandmarks.featuresWithinDistance(node.masonGeometry.geometry, radiusAnchors, distances);
 
-				}
-				Collections.sort(gScores);
-				Collections.reverse(gScores);
+			double threshold = Double.NEGATIVE_INFINITY;
+			if (nrAnchors != 999999 && containedLandmarks.size() > nrAnchors) {
+				double[] scores = new double[containedLandmarks.size()];
+				for (int i = 0; i < scores.length; i++) scores[i] = gScores.get(containedLandmarks.get(i));
+				threshold = (nrAnchors <= 0) ? Double.POSITIVE_INFINITY
+						: Utilities.kthSmallest(scores, scores.length, scores.length - nrAnchors);
 			}
 
-			for (Object l : containedLandmarks ) {
-				MasonGeometry building = (MasonGeometry) l;
-				if (nrAnchors != 999999 & building.getDoubleAttribute("gScore_sc") < gScores.get(nrAnchors-1)) continue;
+			for (int i = 0; i < containedLandmarks.size(); i++) {
+				MasonGeometry building = (MasonGeometry) containedLandmarks.get(i);
+				if (nrAnchors != 999999 && gScores.get(building) < threshold) continue;
 				int buildingID = (int) building.getUserData();
 				node.anchors.add(buildingsMap.get(buildingID));
-				node.distances.add(building.geometry.distance(nodeGeometry.geometry));
+				node.distances.add(distances.get(i));
 			}
-		}
+		});
 
 		ArrayList<MasonGeometry> sightLinesGeometries = sightLines.geometriesList;
 		for (MasonGeometry sl : sightLinesGeometries) {
@@ -370,6 +754,8 @@ public class Graph extends GeomPlanarGraph
 			NodeGraph node = nodesMap.get(sl.getIntegerAttribute("nodeID"));
 			node.distantLandmarks.add(building);
 		}
+		if (compacted) compactLandmarks();
+		clearCosts();
 	}
 }
 
@@ -0,0 +1,318 @@
+package urbanmason.main;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vividsolutions.jts.planargraph.DirectedEdge;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * An immutable compressed-sparse-row (CSR) snapshot of a Graph.
+ * Nodes and edges are identified by integer indexes (see NodeGraph.nodeIndex and EdgeGraph.edgeIndex); the out-going arcs
+ * (directed edges) of the node i are stored in the positions [offsets[i], offsets[i+1]) of the arc arrays.
+ * It supports traversals without going through the JTS DirectedEdgeStar objects and the ArrayLists of the nodes, and it
+ * allows retrieving the corresponding NodeGraph, EdgeGraph and GeomPlanarGraphDirectedEdge in constant time.
+ *
+ * The snapshot reflects the graph at the moment of its creation; the graph regenerates it when modified (see Graph.getCSR()).
+ * It also caches the precomputed costs of static EdgeCostFunctions.
+ */
+public class GraphCSR {
+
+	final int nodesCount, edgesCount, arcsCount;
+	final NodeGraph[] nodes;
+	final EdgeGraph[] edges;
+
+	// per node
+	final int[] offsets;
+	final double[] nodeX, nodeY;
+	// per arc
+	final int[] targets;
+	final int[] arcEdges;
+	final double[] arcLengths;
+	final GeomPlanarGraphDirectedEdge[] directedEdges;
+	// per edge
+	final int[] edgeIDs;
+	final int[] edgeFrom, edgeTo;
+	final double[] edgeLengths;
+	private final ConcurrentHashMap<EdgeCostFunction, double[]> costs = new ConcurrentHashMap<EdgeCostFunction, double[]>();
+
+	/**
+	 * It builds the CSR snapshot of a graph and assigns the indexes to its nodes and edges.
+	 * Nodes are indexed following the order of the graph's node map, edges following their position in Graph.edgesGraph.
+	 *
+	 * @param graph the graph;
+	 */
+	public GraphCSR(Graph graph) {
+
+		Collection<?> graphNodes = graph.getNodes();
+		ArrayList<EdgeGraph> graphEdges = graph.edgesGraph;
+		nodesCount = graphNodes.size();
+		edgesCount = graphEdges.size();
+
+		nodes = new NodeGraph[nodesCount];
+		nodeX = new double[nodesCount];
+		nodeY = new double[nodesCount];
+		int n = 0;
+		for (Object o : graphNodes) {
+			NodeGraph node = (NodeGraph) o;
+			node.nodeIndex = n;
+			nodes[n] = node;
+			nodeX[n] = node.getCoordinate().x;
+			nodeY[n] = node.getCoordinate().y;
+			n++;
+		}
+
+		edges = new EdgeGraph[edgesCount];
+		edgeIDs = new int[edgesCount];
+		edgeFrom = new int[edgesCount];
+		edgeTo = new int[edgesCount];
+		edgeLengths = new double[edgesCount];
+		for (int e = 0; e < edgesCount; e++) {
+			EdgeGraph edge = graphEdges.get(e);
+			edge.edgeIndex = e;
+			edges[e] = edge;
+			edgeIDs[e] = edge.getID();
+			edgeFrom[e] = edge.u.nodeIndex;
+			edgeTo[e] = edge.v.nodeIndex;
+			edgeLengths[e] = edge.getLength();
+		}
+
+		offsets = new int[nodesCount + 1];
+		int arcs = 0;
+		for (int i = 0; i < nodesCount; i++) {
+			offsets[i] = arcs;
+			arcs += nodes[i].getOutEdges().getDegree();
+		}
+		offsets[nodesCount] = arcs;
+		arcsCount = arcs;
+
+		targets = new int[arcsCount];
+		arcEdges = new int[arcsCount];
+		arcLengths = new double[arcsCount];
+		directedEdges = new GeomPlanarGraphDirectedEdge[arcsCount];
+
+		int arc = 0;
+		for (int i = 0; i < nodesCount; i++) {
+			List<?> outEdges = nodes[i].getOutEdges().getEdges();
+			for (Object o : outEdges) {
+				DirectedEdge directedEdge = (DirectedEdge) o;
+				EdgeGraph edge = (EdgeGraph) directedEdge.getEdge();
+				targets[arc] = ((NodeGraph) directedEdge.getToNode()).nodeIndex;
+				arcEdges[arc] = edge.edgeIndex;
+				arcLengths[arc] = edgeLengths[edge.edgeIndex];
+				directedEdges[arc] = (GeomPlanarGraphDirectedEdge) directedEdge;
+				arc++;
+			}
+		}
+	}
+
+	/**
+	 * It returns the number of nodes in the snapshot.
+	 *
+	 */
+	public int getNodesCount() {
+		return nodesCount;
+	}
+
+	/**
+	 * It returns the number of (non-directed) edges in the snapshot.
+	 *
+	 */
+	public int getEdgesCount() {
+		return edgesCount;
+	}
+
+	/**
+	 * It returns the number of arcs (directed edges) in the snapshot.
+	 *
+	 */
+	public int getArcsCount() {
+		return arcsCount;
+	}
+
+	/**
+	 * It returns the NodeGraph corresponding to the given index.
+	 *
+	 * @param nodeIndex the index of the node;
+	 */
+	public NodeGraph getNode(int nodeIndex) {
+		return nodes[nodeIndex];
+	}
+
+	/**
+	 * It returns the EdgeGraph corresponding to the given index.
+	 *
+	 * @param edgeIndex the index of the edge;
+	 */
+	public EdgeGraph getEdge(int edgeIndex) {
+		return edges[edgeIndex];
+	}
+
+	/**
+	 * It returns the index of a node, or -1 when the node does not belong to the snapshot.
+	 *
+	 * @param node a node;
+	 */
+	public int indexOf(NodeGraph node) {
+		int index = node.nodeIndex;
+		if (index < 0 || index >= nodesCount || nodes[index] != node) return -1;
+		return index;
+	}
+
+	/**
+	 * It returns the index of an edge, or -1 when the edge does not belong to the snapshot.
+	 *
+	 * @param edge an edge;
+	 */
+	public int indexOf(EdgeGraph edge) {
+		int index = edge.edgeIndex;
+		if (index < 0 || index >= edgesCount || edges[index] != edge) return -1;
+		return index;
+	}
+
+	/**
+	 * It returns the x coordinate of a node.
+	 *
+	 * @param nodeIndex the index of the node;
+	 */
+	public double nodeX(int nodeIndex) {
+		return nodeX[nodeIndex];
+	}
+
+	/**
+	 * It returns the y coordinate of a node.
+	 *
+	 * @param nodeIndex the index of the node;
+	 */
+	public double nodeY(int nodeIndex) {
+		return nodeY[nodeIndex];
+	}
+
+	/**
+	 * It returns the Euclidean distance between two nodes.
+	 *
+	 * @param nodeIndex the index of a node;
+	 * @param otherNodeIndex the index of an other node;
+	 */
+	public double nodesDistance(int nodeIndex, int otherNodeIndex) {
+		double dx = nodeX[nodeIndex] - nodeX[otherNodeIndex];
+		double dy = nodeY[nodeIndex] - nodeY[otherNodeIndex];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * It returns the position of the first out-going arc of a node.
+	 *
+	 * @param nodeIndex the index of the node;
+	 */
+	public int firstArc(int nodeIndex) {
+		return offsets[nodeIndex];
+	}
+
+	/**
+	 * It returns the position following the last out-going arc of a node.
+	 *
+	 * @param nodeIndex the index of the node;
+	 */
+	public int endArc(int nodeIndex) {
+		return offsets[nodeIndex + 1];
+	}
+
+	/**
+	 * It returns the index of the node reached through an arc.
+	 *
+	 * @param arc the position of the arc;
+	 */
+	public int arcTarget(int arc) {
+		return targets[arc];
+	}
+
+	/**
+	 * It returns the index of the edge an arc belongs to.
+	 *
+	 * @param arc the position of the arc;
+	 */
+	public int arcEdge(int arc) {
+		return arcEdges[arc];
+	}
+
+	/**
+	 * It returns the length of the edge an arc belongs to.
+	 *
+	 * @param arc the position of the arc;
+	 */
+	public double arcLength(int arc) {
+		return arcLengths[arc];
+	}
+
+	/**
+	 * It returns the GeomPlanarGraphDirectedEdge corresponding to an arc.
+	 *
+	 * @param arc the position of the arc;
+	 */
+	public GeomPlanarGraphDirectedEdge arcDirectedEdge(int arc) {
+		return directedEdges[arc];
+	}
+
+	/**
+	 * It returns the ID (EdgeGraph.edgeID) of an edge.
+	 *
+	 * @param edgeIndex the index of the edge;
+	 */
+	public int edgeID(int edgeIndex) {
+		return edgeIDs[edgeIndex];
+	}
+
+	/**
+	 * It returns the length of an edge.
+	 *
+	 * @param edgeIndex the index of the edge;
+	 */
+	public double edgeLength(int edgeIndex) {
+		return edgeLengths[edgeIndex];
+	}
+
+	/**
+	 * It returns the index of the node u of an edge.
+	 *
+	 * @param edgeIndex the index of the edge;
+	 */
+	public int edgeFrom(int edgeIndex) {
+		return edgeFrom[edgeIndex];
+	}
+
+	/**
+	 * It returns the index of the node v of an edge.
+	 *
+	 * @param edgeIndex the index of the edge;
+	 */
+	public int edgeTo(int edgeIndex) {
+		return edgeTo[edgeIndex];
+	}
+
+	/**
+	 * It returns the costs of the edges, keyed by edge index, for a static cost function.
+	 * Costs are computed the first time a function is passed and cached afterwards; the returned array must not be modified.
+	 *
+	 * @param costFunction a static cost function;
+	 */
+	public double[] costs(EdgeCostFunction costFunction) {
+		if (costFunction == EdgeCostFunction.LENGTH) return edgeLengths;
+		return costs.computeIfAbsent(costFunction, function -> {
+			double[] values = new double[edgesCount];
+			for (int e = 0; e < edgesCount; e++) values[e] = function.cost(edges[e]);
+			return values;
+		});
+	}
+
+	/**
+	 * It discards the precomputed costs, e.g. after changing the edges' or landmarks' properties they depend on.
+	 *
+	 */
+	public void clearCosts() {
+		costs.clear();
+	}
+}
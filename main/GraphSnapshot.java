@@ -0,0 +1,524 @@
+package urbanmason.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * A versioned binary snapshot of a prepared Graph, with its dual graph and buildings (both optional), so that a simulation
+ * can start without re-parsing the input layers, the barriers and the landmarks.
+ *
+ * The snapshot stores, for each graph, the nodes (in the order of nodesMap) with coordinates, IDs, regions, centrality,
+ * junction attributes, landmark lists (as building IDs) and adjacent regions/entries, and the edges (in the order of
+ * edgesGraph) with their lines, IDs, regions, deflection angles, attributes, barriers and densities' keys; for the dual graph
+ * it also stores, with each dual node, its link to the primal edge and, with each dual edge, the common primal junction. The buildings store their attributes and geometry (WKB).
+ * Per-run state (e.g. counters of pedestrians) is not stored.
+ *
+ * Files are written through a buffered FileChannel and read back through FileChannel.map(); all values are little-endian and
+ * strings are written once and then referenced by number.
+ */
+public class GraphSnapshot {
+
+	private static final int MAGIC = 0x53474d55; // "UMGS"
+	private static final int VERSION = 3;
+	private static final int NULL = -1;
+
+	private static final byte NULL_VALUE = 0, INTEGER = 1, DOUBLE = 2, STRING = 3, BOOLEAN = 4, LONG = 5;
+
+	public Graph graph;
+	public Graph dualGraph;
+	public HashMap<Integer, Building> buildingsMap;
+
+	/**
+	 * It writes the snapshot of a graph to a file.
+	 * The buildings referenced by the nodes' landmark lists are always stored, together with those in buildingsMap.
+	 *
+	 * @param path the path of the file;
+	 * @param graph the (primal) graph;
+	 * @param dualGraph the dual graph of the primal one (see DualGraphBuilder), or null;
+	 * @param buildingsMap the buildings, by ID, or null;
+	 */
+	public static void write(String path, Graph graph, Graph dualGraph, HashMap<Integer, Building> buildingsMap) throws IOException {
+
+		LinkedHashMap<Integer, Building> buildings = new LinkedHashMap<Integer, Building>();
+		if (buildingsMap != null) buildings.putAll(buildingsMap);
+		for (NodeGraph node : graph.nodesMap.values()) {
+			for (List<Building> landmarks : landmarkLists(node))
+				for (Building building : landmarks) if (building != null) buildings.putIfAbsent(building.buildingID, building);
+		}
+
+		try (Writer writer = new Writer(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))) {
+			writer.putInt(MAGIC);
+			writer.putInt(VERSION);
+			writer.putBoolean(dualGraph != null);
+
+			writer.putInt(buildings.size());
+			WKBWriter wkbWriter = new WKBWriter();
+			for (Building building : buildings.values()) {
+				writer.putInt(building.buildingID);
+				writer.putString(building.landUse);
+				writer.putString(building.DMA);
+				writer.putDouble(building.localLandmarkness);
+				writer.putDouble(building.globalLandmarkness);
+				writer.putInt(building.node == null ? NULL : building.node.getID());
+				writer.putBytes(building.geometry == null ? null : wkbWriter.write(building.geometry.geometry));
+			}
+
+			writeGraph(writer, graph, null);
+			if (dualGraph != null) writeGraph(writer, dualGraph, graph.getCSR());
+		}
+	}
+
+	/**
+	 * It reads a snapshot from a file.
+	 * It returns null when the file is not a snapshot or its version is not supported.
+	 *
+	 * @param path the path of the file;
+	 */
+	public static GraphSnapshot read(String path) throws IOException {
+
+		Path filePath = Paths.get(path);
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		Reader reader = new Reader(buffer);
+		if (buffer.remaining() < 8 || reader.getInt() != MAGIC || reader.getInt() != VERSION) return null;
+
+		GraphSnapshot snapshot = new GraphSnapshot();
+		boolean hasDualGraph = reader.getBoolean();
+
+		int buildingsCount = reader.getInt();
+		snapshot.buildingsMap = new HashMap<Integer, Building>(buildingsCount * 2);
+		int[] buildingsNodes = new int[buildingsCount];
+		Building[] buildings = new Building[buildingsCount];
+		WKBReader wkbReader = new WKBReader();
+		for (int i = 0; i < buildingsCount; i++) {
+			Building building = new Building();
+			building.buildingID = reader.getInt();
+			building.landUse = reader.getString();
+			building.DMA = reader.getString();
+			building.localLandmarkness = reader.getDouble();
+			building.globalLandmarkness = reader.getDouble();
+			buildingsNodes[i] = reader.getInt();
+			byte[] wkb = reader.getBytes();
+			if (wkb != null) {
+				try {
+					building.geometry = new MasonGeometry(wkbReader.read(wkb));
+				}
+				catch (ParseException e) {
+					throw new IOException("Invalid geometry of building " + building.buildingID, e);
+				}
+				building.geometry.setUserData(building.buildingID);
+			}
+			buildings[i] = building;
+			snapshot.buildingsMap.put(building.buildingID, building);
+		}
+
+		snapshot.graph = readGraph(reader, snapshot.buildingsMap, null);
+		for (int i = 0; i < buildingsCount; i++)
+			if (buildingsNodes[i] != NULL) buildings[i].node = snapshot.graph.nodesMap.get(buildingsNodes[i]);
+
+		if (hasDualGraph) snapshot.dualGraph = readGraph(reader, snapshot.buildingsMap, snapshot.graph);
+		return snapshot;
+	}
+
+	/**
+	 * It writes the nodes and the edges of a graph.
+	 * For a dual graph, each node's record also holds the link to its primal edge, as the edge's position in the primal
+	 * graph's edgesGraph (its index in the primal snapshot), and each edge's record the common primal junction, as its index
+	 * in the primal snapshot (nodes are indexed in the order of their coordinates).
+	 *
+	 * @param writer the writer;
+	 * @param graph the graph;
+	 * @param primalCSR the snapshot of the primal graph, when the graph is a dual graph, null otherwise;
+	 */
+	private static void writeGraph(Writer writer, Graph graph, GraphCSR primalCSR) throws IOException {
+
+		Collection<NodeGraph> nodes = graph.nodesMap.values();
+		HashMap<NodeGraph, Integer> positions = new HashMap<NodeGraph, Integer>(nodes.size() * 2);
+		for (NodeGraph node : nodes) positions.put(node, positions.size());
+
+		writer.putInt(nodes.size());
+		for (NodeGraph node : nodes) {
+			Coordinate coordinate = node.getCoordinate();
+			writer.putDouble(coordinate.x);
+			writer.putDouble(coordinate.y);
+			writer.putInt(node.nodeID);
+			writer.putInt(node.region);
+			writer.putBoolean(node.gateway);
+			writer.putDouble(node.centrality);
+			writer.putDouble(node.centrality_sc);
+			writer.putBoolean(node.masonGeometry != null);
+			if (node.masonGeometry != null) writer.putAttributes(node.masonGeometry.getAttributes());
+
+			for (List<Building> landmarks : landmarkLists(node)) {
+				writer.putInt(landmarks.size());
+				for (Building building : landmarks) writer.putInt(building == null ? NULL : building.buildingID);
+			}
+			writer.putInt(node.getDistances().size());
+			for (Double distance : node.getDistances()) writer.putDouble(distance);
+			writer.putInts(node.adjacentRegions);
+			writer.putInt(node.adjacentEntries.size());
+			for (NodeGraph entry : node.adjacentEntries) writer.putInt(positions.getOrDefault(entry, NULL));
+			if (primalCSR != null) writer.putInt(node.primalEdge == null ? NULL : primalCSR.indexOf(node.primalEdge));
+		}
+
+		writer.putInt(graph.edgesGraph.size());
+		for (EdgeGraph edge : graph.edgesGraph) {
+			Coordinate[] coordinates = edge.getLine().getCoordinates();
+			writer.putInt(coordinates.length);
+			for (Coordinate coordinate : coordinates) {
+				writer.putDouble(coordinate.x);
+				writer.putDouble(coordinate.y);
+			}
+			writer.putInt(edge.edgeID);
+			writer.putInt(edge.region);
+			writer.putDouble(edge.deflectionDegrees);
+			writer.putAttributes(edge.attributes);
+			writer.putInts(edge.positiveBarrierIDs);
+			writer.putInts(edge.negativeBarrierIDs);
+			writer.putInts(edge.waterBodyIDs);
+			writer.putInts(edge.parkIDs);
+			writer.putInt(edge.densities.size());
+			for (String key : edge.densities.keySet()) writer.putString(key);
+			if (primalCSR != null)
+				writer.putInt(edge.commonPrimalJunction == null ? NULL : primalCSR.indexOf(edge.commonPrimalJunction));
+		}
+		writer.putBoolean(graph.centralityMap.size() > 0);
+	}
+
+	/**
+	 * It reads the nodes and the edges of a graph (see writeGraph()).
+	 *
+	 * @param reader the reader;
+	 * @param buildingsMap the buildings already read, by ID;
+	 * @param primalGraph the primal graph, when the graph is a dual graph, null otherwise;
+	 */
+	private static Graph readGraph(Reader reader, HashMap<Integer, Building> buildingsMap, Graph primalGraph) throws IOException {
+
+		Graph graph = new Graph();
+		GeometryFactory factory = new GeometryFactory();
+
+		int nodesCount = reader.getInt();
+		NodeGraph[] nodes = new NodeGraph[nodesCount];
+		int[][] adjacentEntries = new int[nodesCount][];
+		for (int n = 0; n < nodesCount; n++) {
+			Coordinate coordinate = new Coordinate(reader.getDouble(), reader.getDouble());
+			NodeGraph node = graph.getNode(coordinate);
+			node.nodeID = reader.getInt();
+			node.region = reader.getInt();
+			node.gateway = reader.getBoolean();
+			node.centrality = reader.getDouble();
+			node.centrality_sc = reader.getDouble();
+			if (reader.getBoolean()) {
+				node.masonGeometry = new MasonGeometry(factory.createPoint(coordinate));
+				node.masonGeometry.addAttributes(reader.getAttributes());
+			}
+
+			for (List<Building> landmarks : landmarkLists(node)) {
+				int size = reader.getInt();
+				for (int i = 0; i < size; i++) landmarks.add(buildingsMap.get(reader.getInt()));
+			}
+			int distancesCount = reader.getInt();
+			for (int i = 0; i < distancesCount; i++) node.distances.add(reader.getDouble());
+			node.adjacentRegions.addAll(reader.getInts());
+			adjacentEntries[n] = new int[reader.getInt()];
+			for (int i = 0; i < adjacentEntries[n].length; i++) adjacentEntries[n][i] = reader.getInt();
+			if (primalGraph != null) {
+				int primalEdge = reader.getInt();
+				if (primalEdge != NULL) {
+					node.primalEdge = primalGraph.edgesGraph.get(primalEdge);
+					node.primalEdge.dualNode = node;
+				}
+			}
+			nodes[n] = node;
+		}
+		for (int n = 0; n < nodesCount; n++)
+			for (int entry : adjacentEntries[n]) nodes[n].adjacentEntries.add(entry == NULL ? null : nodes[entry]);
+
+		int edgesCount = reader.getInt();
+		for (int e = 0; e < edgesCount; e++) {
+			Coordinate[] coordinates = new Coordinate[reader.getInt()];
+			for (int i = 0; i < coordinates.length; i++) coordinates[i] = new Coordinate(reader.getDouble(), reader.getDouble());
+			LineString line = factory.createLineString(coordinates);
+			int edgeID = reader.getInt();
+			int region = reader.getInt();
+			double deflectionDegrees = reader.getDouble();
+			MasonGeometry wrappedLine = new MasonGeometry(line);
+			Map<String, AttributeValue> attributes = reader.getAttributes();
+			if (attributes != null) wrappedLine.addAttributes(attributes);
+
+			EdgeGraph edge = graph.addLineString(wrappedLine);
+			if (edge == null) throw new IOException("Invalid line of edge " + edgeID);
+			edge.edgeID = edgeID;
+			edge.region = region;
+			edge.deflectionDegrees = deflectionDegrees;
+			edge.setBarriers(IntSets.of(reader.getInts()), IntSets.of(reader.getInts()), IntSets.of(reader.getInts()),
+					IntSets.of(reader.getInts()));
+			int densitiesCount = reader.getInt();
+			for (int i = 0; i < densitiesCount; i++) edge.densities.put(reader.getString(), 0);
+			if (primalGraph != null) {
+				int junction = reader.getInt();
+				if (junction != NULL) edge.commonPrimalJunction = primalGraph.getCSR().nodes[junction];
+			}
+		}
+
+		// nodesMap, keyed by ID, in the original order
+		graph.nodesMap.clear();
+		for (NodeGraph node : nodes) graph.nodesMap.put(node.getID(), node);
+		graph.resetIndexes();
+		for (NodeGraph node : nodes) node.setNeighbouringComponents();
+		graph.junctions = new VectorLayer();
+		for (NodeGraph node : nodes) if (node.masonGeometry != null) graph.junctions.addGeometry(node.masonGeometry);
+		if (reader.getBoolean()) graph.generateCentralityMap();
+		return graph;
+	}
+
+	// through the getters, so that compacted landmarks are written too (read nodes have no store, the lists are the fields)
+	private static List<List<Building>> landmarkLists(NodeGraph node) {
+		List<List<Building>> lists = new ArrayList<List<Building>>(4);
+		lists.add(node.getVisible2d());
+		lists.add(node.getLocalLandmarks());
+		lists.add(node.getDistantLandmarks());
+		lists.add(node.getAnchors());
+		return lists;
+	}
+
+	/**
+	 * A buffered writer of little-endian values to a file channel.
+	 *
+	 */
+	private static final class Writer implements AutoCloseable {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensure(int n) throws IOException {
+			if (buffer.remaining() >= n) return;
+			flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		void putDouble(double value) throws IOException {
+			ensure(8);
+			buffer.putDouble(value);
+		}
+
+		void putBoolean(boolean value) throws IOException {
+			ensure(1);
+			buffer.put(value ? (byte) 1 : (byte) 0);
+		}
+
+		void putBytes(byte[] bytes) throws IOException {
+			if (bytes == null) {
+				putInt(NULL);
+				return;
+			}
+			putInt(bytes.length);
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensure(1);
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		/**
+		 * It writes a string: its number, when already written, otherwise -(length + 2) followed by its UTF-8 bytes.
+		 * Null strings are written as -1.
+		 *
+		 */
+		void putString(String value) throws IOException {
+			if (value == null) {
+				putInt(NULL);
+				return;
+			}
+			Integer number = strings.get(value);
+			if (number != null) {
+				putInt(number);
+				return;
+			}
+			strings.put(value, strings.size());
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(-(bytes.length + 2));
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensure(1);
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void putInts(List<Integer> values) throws IOException {
+			putInt(values.size());
+			for (Integer value : values) putInt(value);
+		}
+
+		void putInts(int[] values) throws IOException {
+			putInt(values.length);
+			for (int value : values) putInt(value);
+		}
+
+		void putAttributes(Map<String, AttributeValue> attributes) throws IOException {
+			if (attributes == null) {
+				putInt(NULL);
+				return;
+			}
+			putInt(attributes.size());
+			for (Map.Entry<String, AttributeValue> entry : attributes.entrySet()) {
+				putString(entry.getKey());
+				Object value = (entry.getValue() == null) ? null : entry.getValue().getValue();
+				if (value == null) putType(NULL_VALUE);
+				else if (value instanceof Integer) {
+					putType(INTEGER);
+					putInt((Integer) value);
+				}
+				else if (value instanceof Double) {
+					putType(DOUBLE);
+					putDouble((Double) value);
+				}
+				else if (value instanceof Boolean) {
+					putType(BOOLEAN);
+					putBoolean((Boolean) value);
+				}
+				else if (value instanceof Long) {
+					putType(LONG);
+					putLong((Long) value);
+				}
+				else {
+					putType(STRING);
+					putString(value.toString());
+				}
+			}
+		}
+
+		private void putType(byte type) throws IOException {
+			ensure(1);
+			buffer.put(type);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+	}
+
+	/**
+	 * A reader of the values written by Writer, from a mapped buffer.
+	 *
+	 */
+	private static final class Reader {
+
+		private final ByteBuffer buffer;
+		private final ArrayList<String> strings = new ArrayList<String>();
+
+		Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		int getInt() {
+			return buffer.getInt();
+		}
+
+		double getDouble() {
+			return buffer.getDouble();
+		}
+
+		boolean getBoolean() {
+			return buffer.get() != 0;
+		}
+
+		byte[] getBytes() {
+			int length = buffer.getInt();
+			if (length == NULL) return null;
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		String getString() {
+			int number = buffer.getInt();
+			if (number == NULL) return null;
+			if (number >= 0) return strings.get(number);
+			byte[] bytes = new byte[-number - 2];
+			buffer.get(bytes);
+			String value = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(value);
+			return value;
+		}
+
+		List<Integer> getInts() {
+			int size = buffer.getInt();
+			List<Integer> values = new ArrayList<Integer>(size);
+			for (int i = 0; i < size; i++) values.add(buffer.getInt());
+			return values;
+		}
+
+		Map<String, AttributeValue> getAttributes() {
+			int size = buffer.getInt();
+			if (size == NULL) return null;
+			Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>(size * 2);
+			for (int i = 0; i < size; i++) {
+				String key = getString();
+				byte type = buffer.get();
+				Object value;
+				if (type == INTEGER) value = buffer.getInt();
+				else if (type == DOUBLE) value = buffer.getDouble();
+				else if (type == BOOLEAN) value = buffer.get() != 0;
+				else if (type == LONG) value = buffer.getLong();
+				else if (type == STRING) value = getString();
+				else value = null;
+				attributes.put(key, new AttributeValue(value));
+			}
+			return attributes;
+		}
+	}
+}
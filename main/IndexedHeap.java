@@ -0,0 +1,129 @@
+package urbanmason.main;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap of node indexes, ordered by a double key, with decrease-key.
+ * Each index can be in the heap only once; positions are tracked so to update keys in place.
+ * It supports the shortest-path searches of PathFinder.
+ *
+ */
+final class IndexedHeap {
+
+	private static final int ARITY = 4;
+	private final int[] items;
+	private final double[] keys;
+	private final int[] positions;
+	private int size;
+
+	/**
+	 * It creates a heap that can hold the indexes [0, capacity).
+	 *
+	 * @param capacity the number of possible indexes;
+	 */
+	IndexedHeap(int capacity) {
+		items = new int[capacity];
+		keys = new double[capacity];
+		positions = new int[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean contains(int item) {
+		return positions[item] >= 0;
+	}
+
+	double minKey() {
+		return keys[0];
+	}
+
+	/**
+	 * It empties the heap; only the positions of the items still in the heap are reset.
+	 *
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) positions[items[i]] = -1;
+		size = 0;
+	}
+
+	/**
+	 * It adds an item to the heap or, when already contained, it lowers its key if the new key is smaller.
+	 *
+	 * @param item the index;
+	 * @param key the key;
+	 */
+	void insertOrDecrease(int item, double key) {
+		int position = positions[item];
+		if (position < 0) {
+			position = size++;
+			items[position] = item;
+			keys[position] = key;
+			positions[item] = position;
+			siftUp(position);
+		}
+		else if (key < keys[position]) {
+			keys[position] = key;
+			siftUp(position);
+		}
+	}
+
+	/**
+	 * It removes and returns the item with the smallest key.
+	 *
+	 */
+	int poll() {
+		int min = items[0];
+		positions[min] = -1;
+		size--;
+		if (size > 0) {
+			items[0] = items[size];
+			keys[0] = keys[size];
+			positions[items[0]] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	private void siftUp(int position) {
+		int item = items[position];
+		double key = keys[position];
+		while (position > 0) {
+			int parent = (position - 1) / ARITY;
+			if (keys[parent] <= key) break;
+			move(parent, position);
+			position = parent;
+		}
+		place(item, key, position);
+	}
+
+	private void siftDown(int position) {
+		int item = items[position];
+		double key = keys[position];
+		while (true) {
+			int first = position * ARITY + 1;
+			if (first >= size) break;
+			int last = Math.min(first + ARITY, size);
+			int best = first;
+			for (int child = first + 1; child < last; child++) if (keys[child] < keys[best]) best = child;
+			if (keys[best] >= key) break;
+			move(best, position);
+			position = best;
+		}
+		place(item, key, position);
+	}
+
+	private void move(int from, int to) {
+		items[to] = items[from];
+		keys[to] = keys[from];
+		positions[items[to]] = to;
+	}
+
+	private void place(int item, double key, int position) {
+		items[position] = item;
+		keys[position] = key;
+		positions[item] = position;
+	}
+}
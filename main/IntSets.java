@@ -0,0 +1,163 @@
+package urbanmason.main;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A class containing functions for sets of integers (e.g. barrier IDs) stored as sorted arrays without duplicates.
+ * Sets are small: membership is verified by binary search and unions and intersections are linear merges.
+ *
+ */
+final class IntSets {
+
+	static final int[] EMPTY = new int[0];
+
+	/**
+	 * It parses a list of integers written as a string, e.g. "[12, 15, -3]", without regular expressions.
+	 * Any character other than digits and '-' separates the values; it returns the sorted set of the values.
+	 *
+	 * @param string the string; null or "[]" for an empty set;
+	 */
+	static int[] parse(String string) {
+		if (string == null) return EMPTY;
+		int[] values = new int[8];
+		int size = 0;
+		int length = string.length();
+		int i = 0;
+		while (i < length) {
+			char c = string.charAt(i);
+			boolean negative = c == '-' && i + 1 < length && isDigit(string.charAt(i + 1));
+			if (!negative && !isDigit(c)) {
+				i++;
+				continue;
+			}
+			if (negative) i++;
+			long value = 0;
+			while (i < length && isDigit(string.charAt(i))) {
+				value = value * 10 + (string.charAt(i) - '0');
+				i++;
+			}
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = (int) (negative ? -value : value);
+		}
+		return of(values, size);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * It returns the sorted set of the first values of an array; the array is sorted in place.
+	 *
+	 * @param values the values;
+	 * @param size the number of values to consider;
+	 */
+	static int[] of(int[] values, int size) {
+		if (size == 0) return EMPTY;
+		Arrays.sort(values, 0, size);
+		int distinct = 1;
+		for (int i = 1; i < size; i++) if (values[i] != values[distinct - 1]) values[distinct++] = values[i];
+		return (distinct == values.length) ? values : Arrays.copyOf(values, distinct);
+	}
+
+	/**
+	 * It returns the sorted set of the values of a collection.
+	 *
+	 * @param values the values;
+	 */
+	static int[] of(List<Integer> values) {
+		int[] array = new int[values.size()];
+		int size = 0;
+		for (Integer value : values) array[size++] = value;
+		return of(array, size);
+	}
+
+	/**
+	 * It verifies whether a set contains a value.
+	 *
+	 * @param set the set;
+	 * @param value the value;
+	 */
+	static boolean contains(int[] set, int value) {
+		if (set.length <= 8) {
+			for (int element : set) if (element == value) return true;
+			return false;
+		}
+		return Arrays.binarySearch(set, value) >= 0;
+	}
+
+	/**
+	 * It returns the union of two sets.
+	 *
+	 * @param set a set;
+	 * @param otherSet another set;
+	 */
+	static int[] union(int[] set, int[] otherSet) {
+		if (set.length == 0) return otherSet;
+		if (otherSet.length == 0) return set;
+		int[] union = new int[set.length + otherSet.length];
+		int i = 0, j = 0, size = 0;
+		while (i < set.length && j < otherSet.length) {
+			if (set[i] < otherSet[j]) union[size++] = set[i++];
+			else if (set[i] > otherSet[j]) union[size++] = otherSet[j++];
+			else {
+				union[size++] = set[i++];
+				j++;
+			}
+		}
+		while (i < set.length) union[size++] = set[i++];
+		while (j < otherSet.length) union[size++] = otherSet[j++];
+		return (size == union.length) ? union : Arrays.copyOf(union, size);
+	}
+
+	/**
+	 * It verifies whether two sets have at least a value in common.
+	 *
+	 * @param set a set;
+	 * @param otherSet another set;
+	 */
+	static boolean intersects(int[] set, int[] otherSet) {
+		int i = 0, j = 0;
+		while (i < set.length && j < otherSet.length) {
+			if (set[i] < otherSet[j]) i++;
+			else if (set[i] > otherSet[j]) j++;
+			else return true;
+		}
+		return false;
+	}
+
+	/**
+	 * It returns an unmodifiable List view of a set, for code expecting a List of Integer.
+	 *
+	 * @param set the set;
+	 */
+	static List<Integer> asList(int[] set) {
+		return new IntListView(set);
+	}
+
+	private static final class IntListView extends AbstractList<Integer> implements RandomAccess {
+		private final int[] values;
+
+		IntListView(int[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return values[index];
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && IntSets.contains(values, (Integer) o);
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package urbanmason.main;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A compact, graph-wide storage of the landmarks of the nodes (NodeGraph.visible2d, localLandmarks, distantLandmarks, anchors
+ * and the anchors' distances), replacing the per-node ArrayLists.
+ * Landmarks are stored as positions (int) in a table of the distinct buildings and distances as float values; the lists of
+ * the node with index i (see GraphCSR) are stored in the ranges [starts[i * LISTS + list], ends[i * LISTS + list]) of the
+ * landmarks array (or of the distances array, for DISTANCES). When built from a graph the ranges are contiguous, as in a CSR
+ * layout; the store of a SubGraph shares the arrays of its parent graph's store and only has its own ranges.
+ *
+ * Once the store is assigned to the nodes (see Graph.compactLandmarks()), the nodes' getters (e.g. NodeGraph.getLocalLandmarks())
+ * return read-only views over the store, which is never modified. The nodes' lists keep their landmarks but are replaced with
+ * read-only copies (empty lists share one instance), so that writes fail instead of being silently ignored by the store.
+ */
+public class LandmarkStore {
+
+	public static final int VISIBLE_2D = 0, LOCAL = 1, DISTANT = 2, ANCHORS = 3, DISTANCES = 4;
+	static final int LISTS = 5;
+
+	private static final List<Building> EMPTY_BUILDINGS = Collections.emptyList();
+	private static final List<Double> EMPTY_DISTANCES = Collections.emptyList();
+	private static final ReadOnlyList<Object> EMPTY_LIST = new ReadOnlyList<Object>(Collections.emptyList());
+
+	final GraphCSR csr;
+	final Building[] buildings;
+	// positions in buildings (-1 for null) and distances, shared with the SubGraphs' stores
+	final int[] landmarks;
+	final float[] distances;
+	// per node and list
+	final int[] starts, ends;
+
+	/**
+	 * It builds the store from the landmarks of the nodes of a snapshot (as returned by the nodes' getters).
+	 *
+	 * @param csr the snapshot of the graph;
+	 */
+	LandmarkStore(GraphCSR csr) {
+
+		this.csr = csr;
+		int nodesCount = csr.nodesCount;
+		starts = new int[nodesCount * LISTS];
+		ends = new int[nodesCount * LISTS];
+		int landmarksCount = 0, distancesCount = 0;
+		for (int n = 0; n < nodesCount; n++) {
+			List<List<Building>> lists = buildingsLists(csr.nodes[n]);
+			for (int list = 0; list < DISTANCES; list++) {
+				starts[n * LISTS + list] = landmarksCount;
+				landmarksCount += lists.get(list).size();
+				ends[n * LISTS + list] = landmarksCount;
+			}
+			starts[n * LISTS + DISTANCES] = distancesCount;
+			distancesCount += csr.nodes[n].getDistances().size();
+			ends[n * LISTS + DISTANCES] = distancesCount;
+		}
+
+		landmarks = new int[landmarksCount];
+		distances = new float[distancesCount];
+		IdentityHashMap<Building, Integer> positions = new IdentityHashMap<Building, Integer>();
+		ArrayList<Building> distinctBuildings = new ArrayList<Building>();
+		for (int n = 0; n < nodesCount; n++) {
+			List<List<Building>> lists = buildingsLists(csr.nodes[n]);
+			for (int list = 0; list < DISTANCES; list++) {
+				int entry = starts[n * LISTS + list];
+				for (Building building : lists.get(list)) {
+					Integer position = (building == null) ? Integer.valueOf(-1) : positions.get(building);
+					if (position == null) {
+						position = distinctBuildings.size();
+						positions.put(building, position);
+						distinctBuildings.add(building);
+					}
+					landmarks[entry++] = position;
+				}
+			}
+			int entry = starts[n * LISTS + DISTANCES];
+			for (Double distance : csr.nodes[n].getDistances()) distances[entry++] = distance.floatValue();
+		}
+		buildings = distinctBuildings.toArray(new Building[distinctBuildings.size()]);
+	}
+
+	/**
+	 * It derives the store of a SubGraph from the store of its parent graph: arrays are shared and each child node gets the
+	 * ranges of its parent node.
+	 *
+	 * @param csr the snapshot of the SubGraph;
+	 * @param parentStore the store of the parent graph;
+	 * @param parentNodes the index of the parent node (in the parent store's snapshot) of each child node, -1 when not available;
+	 */
+	LandmarkStore(GraphCSR csr, LandmarkStore parentStore, int[] parentNodes) {
+
+		this.csr = csr;
+		buildings = parentStore.buildings;
+		landmarks = parentStore.landmarks;
+		distances = parentStore.distances;
+		starts = new int[csr.nodesCount * LISTS];
+		ends = new int[csr.nodesCount * LISTS];
+		for (int n = 0; n < csr.nodesCount; n++) {
+			if (parentNodes[n] < 0) continue;
+			System.arraycopy(parentStore.starts, parentNodes[n] * LISTS, starts, n * LISTS, LISTS);
+			System.arraycopy(parentStore.ends, parentNodes[n] * LISTS, ends, n * LISTS, LISTS);
+		}
+	}
+
+	private static List<List<Building>> buildingsLists(NodeGraph node) {
+		List<List<Building>> lists = new ArrayList<List<Building>>(DISTANCES);
+		lists.add(node.getVisible2d());
+		lists.add(node.getLocalLandmarks());
+		lists.add(node.getDistantLandmarks());
+		lists.add(node.getAnchors());
+		return lists;
+	}
+
+	/**
+	 * It assigns the store to all the nodes of its snapshot (see assignTo()), replacing their lists with read-only copies (see
+	 * freeze()).
+	 *
+	 */
+	void assignToNodes() {
+		for (int n = 0; n < csr.nodesCount; n++) {
+			freeze(csr.nodes[n]);
+			assignTo(csr.nodes[n], n);
+		}
+	}
+
+	/**
+	 * It assigns the store to a node, so that the node's getters read its landmarks from the store.
+	 *
+	 * @param node the node;
+	 * @param nodeIndex the index of the node in the store (see GraphCSR);
+	 */
+	void assignTo(NodeGraph node, int nodeIndex) {
+		node.landmarkStore = this;
+		node.landmarkIndex = nodeIndex;
+	}
+
+	/**
+	 * It replaces the lists of a node with read-only copies, with the same landmarks. The lists that are already read-only
+	 * are kept, so that the lists shared by SubGraphs' nodes and their parent nodes stay shared.
+	 *
+	 * @param node the node;
+	 */
+	static void freeze(NodeGraph node) {
+		node.visible2d = readOnly(node.visible2d);
+		node.localLandmarks = readOnly(node.localLandmarks);
+		node.distantLandmarks = readOnly(node.distantLandmarks);
+		node.anchors = readOnly(node.anchors);
+		node.distances = readOnly(node.distances);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> ArrayList<E> readOnly(List<E> list) {
+		if (list instanceof ReadOnlyList) return (ReadOnlyList<E>) list;
+		return list.isEmpty() ? (ArrayList<E>) EMPTY_LIST : new ReadOnlyList<E>(list);
+	}
+
+	/**
+	 * It gives back modifiable lists to the nodes the store is assigned to (see assignTo()) and detaches the store from them.
+	 *
+	 */
+	void restoreToNodes() {
+		for (int n = 0; n < csr.nodesCount; n++) {
+			NodeGraph node = csr.nodes[n];
+			if (node.landmarkStore != this) continue;
+			node.visible2d = new ArrayList<Building>(node.visible2d);
+			node.localLandmarks = new ArrayList<Building>(node.localLandmarks);
+			node.distantLandmarks = new ArrayList<Building>(node.distantLandmarks);
+			node.anchors = new ArrayList<Building>(node.anchors);
+			node.distances = new ArrayList<Double>(node.distances);
+			node.landmarkStore = null;
+			node.landmarkIndex = -1;
+		}
+	}
+
+	/**
+	 * It returns the number of landmarks in a list of a node.
+	 *
+	 * @param nodeIndex the index of the node (see GraphCSR);
+	 * @param list the list (VISIBLE_2D, LOCAL, DISTANT, ANCHORS, or DISTANCES);
+	 */
+	public int size(int nodeIndex, int list) {
+		return ends[nodeIndex * LISTS + list] - starts[nodeIndex * LISTS + list];
+	}
+
+	/**
+	 * It returns a landmark of a list of a node.
+	 *
+	 * @param nodeIndex the index of the node (see GraphCSR);
+	 * @param list the list (VISIBLE_2D, LOCAL, DISTANT, or ANCHORS);
+	 * @param i the position of the landmark in the list;
+	 */
+	public Building getLandmark(int nodeIndex, int list, int i) {
+		int position = landmarks[starts[nodeIndex * LISTS + list] + i];
+		return (position < 0) ? null : buildings[position];
+	}
+
+	/**
+	 * It returns the distance of an anchor of a node.
+	 *
+	 * @param nodeIndex the index of the node (see GraphCSR);
+	 * @param i the position of the anchor in the list;
+	 */
+	public float getDistance(int nodeIndex, int i) {
+		return distances[starts[nodeIndex * LISTS + DISTANCES] + i];
+	}
+
+	/**
+	 * It returns a read-only view of a list of landmarks of a node.
+	 *
+	 * @param nodeIndex the index of the node (see GraphCSR);
+	 * @param list the list (VISIBLE_2D, LOCAL, DISTANT, or ANCHORS);
+	 */
+	public List<Building> getLandmarks(int nodeIndex, int list) {
+		int start = starts[nodeIndex * LISTS + list], end = ends[nodeIndex * LISTS + list];
+		return (start == end) ? EMPTY_BUILDINGS : new BuildingsView(start, end);
+	}
+
+	/**
+	 * It returns a read-only view of the anchors' distances of a node.
+	 *
+	 * @param nodeIndex the index of the node (see GraphCSR);
+	 */
+	public List<Double> getDistances(int nodeIndex) {
+		int start = starts[nodeIndex * LISTS + DISTANCES], end = ends[nodeIndex * LISTS + DISTANCES];
+		return (start == end) ? EMPTY_DISTANCES : new DistancesView(start, end);
+	}
+
+	private final class BuildingsView extends AbstractList<Building> implements RandomAccess {
+		private final int start, end;
+
+		BuildingsView(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Building get(int index) {
+			if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("Index: " + index);
+			int position = landmarks[start + index];
+			return (position < 0) ? null : buildings[position];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	private final class DistancesView extends AbstractList<Double> implements RandomAccess {
+		private final int start, end;
+
+		DistancesView(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Double get(int index) {
+			if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("Index: " + index);
+			return (double) distances[start + index];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * An ArrayList whose content cannot be changed: the nodes' lists once the store is assigned to them. Every modification,
+	 * also through iterators and sub-lists, throws an UnsupportedOperationException.
+	 *
+	 */
+	static final class ReadOnlyList<E> extends ArrayList<E> {
+		private static final long serialVersionUID = 1L;
+
+		ReadOnlyList(Collection<? extends E> elements) {
+			super(elements);
+		}
+
+		private static UnsupportedOperationException readOnly() {
+			return new UnsupportedOperationException("The landmarks have been compacted, see Graph.restoreLandmarks()");
+		}
+
+		@Override
+		public boolean add(E element) {
+			throw readOnly();
+		}
+
+		@Override
+		public void add(int index, E element) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends E> elements) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends E> elements) {
+			throw readOnly();
+		}
+
+		@Override
+		public E set(int index, E element) {
+			throw readOnly();
+		}
+
+		@Override
+		public E remove(int index) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean remove(Object element) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> elements) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> elements) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean removeIf(Predicate<? super E> filter) {
+			throw readOnly();
+		}
+
+		@Override
+		public void replaceAll(UnaryOperator<E> operator) {
+			throw readOnly();
+		}
+
+		@Override
+		public void sort(Comparator<? super E> comparator) {
+			throw readOnly();
+		}
+
+		@Override
+		public void clear() {
+			throw readOnly();
+		}
+
+		@Override
+		protected void removeRange(int fromIndex, int toIndex) {
+			throw readOnly();
+		}
+
+		@Override
+		public List<E> subList(int fromIndex, int toIndex) {
+			return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+		}
+	}
+}
@@ -28,6 +28,7 @@ public class NodeGraph extends Node
 	public NodeGraph(Coordinate pt) {super(pt);}
 
 	public int nodeID;
+	public int nodeIndex = -1;
 	public int region = 999999;
 	public boolean gateway;
 
@@ -35,11 +36,14 @@ public class NodeGraph extends Node
 	public EdgeGraph primalEdge;
 	public double centrality, centrality_sc;
 
+	// read-only once the landmarks are compacted in the graph's LandmarkStore (see Graph.compactLandmarks() and the getters)
 	public ArrayList<Building> visible2d = new ArrayList<Building>();
 	public ArrayList<Building> localLandmarks = new ArrayList<Building>();
 	public ArrayList<Building> distantLandmarks  = new ArrayList<Building>();
 	public ArrayList<Building> anchors = new ArrayList<Building>();
 	public List<Double> distances = new ArrayList<Double>();
+	LandmarkStore landmarkStore;
+	int landmarkIndex = -1;
 
 	public List<Integer> adjacentRegions = new ArrayList<Integer>();
 	public ArrayList<NodeGraph> adjacentEntries = new ArrayList<NodeGraph>();
@@ -63,6 +67,48 @@ public class NodeGraph extends Node
 		return this.nodeID;
 	}
 
+	/**
+	 * It returns the landmarks visible from the node (2d).
+	 * When the landmarks have been compacted (see Graph.compactLandmarks()), the list is a read-only view over the graph's
+	 * LandmarkStore; otherwise it is the node's list (visible2d). The same holds for the other landmarks' getters.
+	 *
+	 */
+	public List<Building> getVisible2d() {
+		return (landmarkStore == null) ? visible2d : landmarkStore.getLandmarks(landmarkIndex, LandmarkStore.VISIBLE_2D);
+	}
+
+	/**
+	 * It returns the local landmarks of the node.
+	 *
+	 */
+	public List<Building> getLocalLandmarks() {
+		return (landmarkStore == null) ? localLandmarks : landmarkStore.getLandmarks(landmarkIndex, LandmarkStore.LOCAL);
+	}
+
+	/**
+	 * It returns the distant landmarks visible from the node.
+	 *
+	 */
+	public List<Building> getDistantLandmarks() {
+		return (landmarkStore == null) ? distantLandmarks : landmarkStore.getLandmarks(landmarkIndex, LandmarkStore.DISTANT);
+	}
+
+	/**
+	 * It returns the anchors of the node.
+	 *
+	 */
+	public List<Building> getAnchors() {
+		return (landmarkStore == null) ? anchors : landmarkStore.getLandmarks(landmarkIndex, LandmarkStore.ANCHORS);
+	}
+
+	/**
+	 * It returns the distances between the node and its anchors, in the order of the anchors.
+	 *
+	 */
+	public List<Double> getDistances() {
+		return (landmarkStore == null) ? distances : landmarkStore.getDistances(landmarkIndex);
+	}
+
 	/**
 	 * It returns the list of the EdgeGraphs that depart from the node;
 	 *
@@ -0,0 +1,247 @@
+package urbanmason.main;
+
+import java.util.Arrays;
+
+/**
+ * A static KD-tree over the coordinates of the nodes of a GraphCSR, supporting annulus (distance band) queries.
+ * The tree is implicit: node indexes are permuted so that every subtree covers a contiguous range of positions, tree nodes
+ * are stored in heap order and only their bounding boxes are kept.
+ * An annulus query returns the positions of the contained nodes as a list of ranges; subtrees lying entirely within the band
+ * are added as a single range, so that a node at a given distance can be drawn uniformly with one random number.
+ *
+ */
+final class NodesKDTree {
+
+	private static final int LEAF_SIZE = 8;
+
+	final GraphCSR csr;
+	// node indexes, in tree order, and position of each node index in the tree order
+	private final int[] order;
+	private final int[] positions;
+	// bounding boxes of the tree nodes (heap order: children of i are 2i+1, 2i+2)
+	private final double[] minX, minY, maxX, maxY;
+
+	/**
+	 * It builds the tree over the nodes of a snapshot.
+	 *
+	 * @param csr the snapshot;
+	 */
+	NodesKDTree(GraphCSR csr) {
+
+		this.csr = csr;
+		int size = csr.nodesCount;
+		order = new int[size];
+		for (int i = 0; i < size; i++) order[i] = i;
+
+		int depth = 0;
+		while ((size + (1 << depth) - 1) >> depth > LEAF_SIZE) depth++;
+		int treeSize = (1 << (depth + 1)) - 1;
+		minX = new double[treeSize];
+		minY = new double[treeSize];
+		maxX = new double[treeSize];
+		maxY = new double[treeSize];
+		if (size > 0) build(0, 0, size);
+
+		positions = new int[size];
+		for (int i = 0; i < size; i++) positions[order[i]] = i;
+	}
+
+	private void build(int treeNode, int lo, int hi) {
+
+		double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+		for (int i = lo; i < hi; i++) {
+			double x = csr.nodeX[order[i]], y = csr.nodeY[order[i]];
+			if (x < x0) x0 = x;
+			if (x > x1) x1 = x;
+			if (y < y0) y0 = y;
+			if (y > y1) y1 = y;
+		}
+		minX[treeNode] = x0;
+		minY[treeNode] = y0;
+		maxX[treeNode] = x1;
+		maxY[treeNode] = y1;
+		if (hi - lo <= LEAF_SIZE) return;
+
+		int mid = (lo + hi) >>> 1;
+		select((x1 - x0 >= y1 - y0) ? csr.nodeX : csr.nodeY, lo, hi, mid);
+		build(2 * treeNode + 1, lo, mid);
+		build(2 * treeNode + 2, mid, hi);
+	}
+
+	/**
+	 * It partially sorts order[lo, hi) by coordinate, so that the node at position k is the one of the sorted sequence
+	 * (quickselect).
+	 *
+	 */
+	private void select(double[] coordinates, int lo, int hi, int k) {
+
+		int left = lo, right = hi - 1;
+		while (left < right) {
+			double pivot = coordinates[order[(left + right) >>> 1]];
+			int i = left, j = right;
+			while (i <= j) {
+				while (coordinates[order[i]] < pivot) i++;
+				while (coordinates[order[j]] > pivot) j--;
+				if (i <= j) {
+					int tmp = order[i];
+					order[i++] = order[j];
+					order[j--] = tmp;
+				}
+			}
+			if (k <= j) right = j;
+			else if (k >= i) left = i;
+			else return;
+		}
+	}
+
+	/**
+	 * It returns the largest distance between a point and the nodes of the tree (an upper bound, based on the bounding box).
+	 *
+	 * @param x the x coordinate of the point;
+	 * @param y the y coordinate of the point;
+	 */
+	double maxDistance(double x, double y) {
+		if (order.length == 0) return 0.0;
+		return Math.sqrt(maxDistanceSq(0, x, y));
+	}
+
+	/**
+	 * It returns the nodes whose distance from a point is within the given limits (both included).
+	 *
+	 * @param x the x coordinate of the point;
+	 * @param y the y coordinate of the point;
+	 * @param lowerLimit the minimum distance;
+	 * @param upperLimit the maximum distance;
+	 * @param excluded the indexes of the nodes to leave out of the result (e.g. the origin and its neighbours);
+	 */
+	Annulus annulus(double x, double y, double lowerLimit, double upperLimit, int[] excluded) {
+
+		Annulus annulus = new Annulus();
+		annulus.excludedRanks = new int[0];
+		if (order.length == 0 || upperLimit < lowerLimit) return annulus;
+		double lowerSq = lowerLimit <= 0.0 ? -1.0 : lowerLimit * lowerLimit;
+		double upperSq = upperLimit * upperLimit;
+		collect(annulus, 0, 0, order.length, x, y, lowerSq, upperSq);
+
+		int[] ranks = new int[excluded.length];
+		int count = 0;
+		for (int node : excluded) {
+			if (node < 0) continue;
+			double distanceSq = distanceSq(node, x, y);
+			if (distanceSq < lowerSq || distanceSq > upperSq) continue;
+			ranks[count++] = annulus.rankOf(positions[node]);
+		}
+		Arrays.sort(ranks, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) if (distinct == 0 || ranks[i] != ranks[distinct - 1]) ranks[distinct++] = ranks[i];
+		annulus.excludedRanks = Arrays.copyOf(ranks, distinct);
+		return annulus;
+	}
+
+	private void collect(Annulus annulus, int treeNode, int lo, int hi, double x, double y, double lowerSq, double upperSq) {
+
+		double minSq = minDistanceSq(treeNode, x, y);
+		double maxSq = maxDistanceSq(treeNode, x, y);
+		if (minSq > upperSq || maxSq < lowerSq) return;
+		if (minSq >= lowerSq && maxSq <= upperSq) {
+			annulus.add(lo, hi);
+			return;
+		}
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				double distanceSq = distanceSq(order[i], x, y);
+				if (distanceSq >= lowerSq && distanceSq <= upperSq) annulus.add(i, i + 1);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		collect(annulus, 2 * treeNode + 1, lo, mid, x, y, lowerSq, upperSq);
+		collect(annulus, 2 * treeNode + 2, mid, hi, x, y, lowerSq, upperSq);
+	}
+
+	private double distanceSq(int node, double x, double y) {
+		double dx = csr.nodeX[node] - x;
+		double dy = csr.nodeY[node] - y;
+		return dx * dx + dy * dy;
+	}
+
+	private double minDistanceSq(int treeNode, double x, double y) {
+		double dx = Math.max(0.0, Math.max(minX[treeNode] - x, x - maxX[treeNode]));
+		double dy = Math.max(0.0, Math.max(minY[treeNode] - y, y - maxY[treeNode]));
+		return dx * dx + dy * dy;
+	}
+
+	private double maxDistanceSq(int treeNode, double x, double y) {
+		double dx = Math.max(x - minX[treeNode], maxX[treeNode] - x);
+		double dy = Math.max(y - minY[treeNode], maxY[treeNode] - y);
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * The result of an annulus query: ranges of positions in the tree order, in ascending order, minus the excluded nodes.
+	 * Its nodes can be accessed by rank, so to draw one of them with a single random number.
+	 *
+	 */
+	final class Annulus {
+
+		private int[] starts = new int[16];
+		// number of nodes in the ranges preceding each range, and in all the ranges
+		private int[] cumulative = new int[17];
+		private int ranges;
+		private int[] excludedRanks;
+
+		private void add(int lo, int hi) {
+			// contiguous ranges are merged
+			if (ranges > 0 && starts[ranges - 1] + cumulative[ranges] - cumulative[ranges - 1] == lo) {
+				cumulative[ranges] += hi - lo;
+				return;
+			}
+			if (ranges == starts.length) {
+				starts = Arrays.copyOf(starts, ranges * 2);
+				cumulative = Arrays.copyOf(cumulative, ranges * 2 + 1);
+			}
+			starts[ranges] = lo;
+			cumulative[ranges + 1] = cumulative[ranges] + hi - lo;
+			ranges++;
+		}
+
+		private int rankOf(int position) {
+			int range = Arrays.binarySearch(starts, 0, ranges, position);
+			if (range < 0) range = -range - 2;
+			return cumulative[range] + position - starts[range];
+		}
+
+		/**
+		 * It returns the number of nodes in the annulus.
+		 *
+		 */
+		int size() {
+			return cumulative[ranges] - excludedRanks.length;
+		}
+
+		/**
+		 * It returns the index of the node of a given rank (between 0 and size() - 1).
+		 *
+		 * @param rank the rank;
+		 */
+		int get(int rank) {
+			for (int excludedRank : excludedRanks) {
+				if (excludedRank <= rank) rank++;
+				else break;
+			}
+			int range = Arrays.binarySearch(cumulative, 0, ranges + 1, rank);
+			if (range < 0) range = -range - 2;
+			return order[starts[range] + rank - cumulative[range]];
+		}
+
+		/**
+		 * It returns the node of a given rank (between 0 and size() - 1).
+		 *
+		 * @param rank the rank;
+		 */
+		NodeGraph getNode(int rank) {
+			return csr.nodes[get(rank)];
+		}
+	}
+}
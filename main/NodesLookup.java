@@ -2,9 +2,17 @@ package urbanmason.main;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
-import sim.util.Bag;
 import sim.util.geo.MasonGeometry;
 
 
@@ -15,16 +23,40 @@ import sim.util.geo.MasonGeometry;
  */
 public class NodesLookup {
 
+	// number of OD pairs generated by each task of a batch; fixed, so that results do not depend on the number of cores
+	private static final int OD_CHUNK_SIZE = 1024;
+	// number of draws of an origin, or of a destination in a region, before giving up or scanning the candidates
+	private static final int MAX_ATTEMPTS = 32;
+
+	/**
+	 * The constraint on the region of the destination node, with respect to the origin node's region.
+	 */
+	public enum RegionConstraint {ANY, SAME_REGION, OTHER_REGION}
+
+	/**
+	 * A batch of origin-destination pairs, as nodes' IDs: the i-th pair is (originIDs[i], destinationIDs[i]).
+	 * Both IDs are -1 for pairs that could not be generated.
+	 */
+	public static class ODPairs {
+		public final int[] originIDs;
+		public final int[] destinationIDs;
+
+		ODPairs(int count) {
+			originIDs = new int[count];
+			destinationIDs = new int[count];
+		}
+	}
+
 	/**
 	 * Given a graph, it returns a random node within it.
+	 * The node is drawn uniformly among the nodes of the graph (getNodes(), as in its snapshot, see Graph.getCSR()), no longer
+	 * among the values of nodesMap: nodes missing from nodesMap can be returned, entries of nodesMap not in the graph cannot.
 	 *
 	 * @param network a graph;
 	 */
 	public static NodeGraph randomNode(Graph network) {
-		Random random = new Random();
-		Integer c = random.nextInt(network.nodesMap.values().size());
-		ArrayList<NodeGraph> nodes = new ArrayList<NodeGraph>(network.nodesMap.values());
-		return nodes.get(c);
+		GraphCSR csr = network.getCSR();
+		return csr.nodes[ThreadLocalRandom.current().nextInt(csr.nodesCount)];
 	}
 
 	/**
@@ -42,6 +74,8 @@ public class NodesLookup {
 
 	/**
 	 * Given a graph, the function returns a random node, within a certain radius from a given origin node and outside the given node's region.
+	 * When no such node exists, the radius is expanded by 10% at a time, up to twice the initial radius; the node is drawn
+	 * uniformly among the nodes within the smallest radius containing any. It returns null when no node is found.
 	 *
 	 * @param network a graph;
 	 * @param originNode a node;
@@ -49,46 +83,46 @@ public class NodesLookup {
 	 */
 	public static NodeGraph randomNodeOtherRegion(Graph network, NodeGraph originNode, double radius) {
 
-		VectorLayer junctionsWithin = new VectorLayer();
-		MasonGeometry nodeGeometry = originNode.masonGeometry;
-		Random random = new Random();
-
-		Bag filterSpatial = null;
-		Bag filterByDistrict = null;
-		NodeGraph n = null;
-		double expanding_radius = radius;
-		while (n == null) {
-			if (expanding_radius >= radius * 2.00) return null;
-			filterSpatial = network.junctions.featuresWithinDistance(nodeGeometry.geometry, expanding_radius);
-
-			if (filterSpatial.size() < 1) {
-				expanding_radius = expanding_radius *1.10;
-				continue;
-			}
-			for (Object o : filterSpatial) junctionsWithin.addGeometry((MasonGeometry) o);
+		// the radii that would be tried by expanding the initial one
+		ArrayList<Double> radii = new ArrayList<Double>();
+		for (double expandingRadius = radius; expandingRadius < radius * 2.00; expandingRadius = expandingRadius * 1.10)
+			radii.add(expandingRadius);
+		if (radii.isEmpty()) return null;
+		double maxRadius = radii.get(radii.size() - 1);
 
-			if (junctionsWithin.getGeometries().size() == 0) {
-				expanding_radius = expanding_radius *1.10;
-				continue;
-			}
+		Coordinate origin = originNode.getCoordinate();
+		Envelope envelope = new Envelope(origin);
+		envelope.expandBy(maxRadius);
 
-			filterByDistrict = junctionsWithin.filterFeatures("district", originNode.region, false);
-			if (filterByDistrict.size() == 0) {
-				expanding_radius = expanding_radius *1.10;
-				continue;
+		ArrayList<NodeGraph> candidates = new ArrayList<NodeGraph>();
+		int step = radii.size();
+		for (Map.Entry<Integer, STRtree> entry : network.getRegionsNodesIndexes().entrySet()) {
+			if (entry.getKey() == originNode.region) continue;
+			for (Object o : entry.getValue().query(envelope)) {
+				NodeGraph node = (NodeGraph) o;
+				if (node.region == originNode.region) continue;
+				double distance = origin.distance(node.getCoordinate());
+				// the smallest expansion step at which the node is within the radius
+				int nodeStep = 0;
+				while (nodeStep < radii.size() && distance > radii.get(nodeStep)) nodeStep++;
+				if (nodeStep > step || nodeStep == radii.size()) continue;
+				if (nodeStep < step) {
+					step = nodeStep;
+					candidates.clear();
+				}
+				candidates.add(node);
 			}
-
-			Integer c = random.nextInt(filterByDistrict.size());
-			MasonGeometry geoNode = (MasonGeometry) filterByDistrict.objs[c];
-			n = network.findNode(geoNode.geometry.getCoordinate());
-			expanding_radius = expanding_radius *1.10;
 		}
-		return n;
+		if (candidates.isEmpty()) return null;
+		return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
 	}
 
 	/**
 	 * Given a graph, the function returns a random node that is approximately as far away from a given origin node,
 	 * as a distance extracted from a list of distances.
+	 * The node is drawn uniformly among the nodes whose distance from the origin is within a tolerance of 50 units from the
+	 * extracted distance (widened by 50 units until at least a node is found); the origin and its adjacent nodes are excluded.
+	 * It returns null when no such node exists.
 	 *
 	 * @param network a graph;
 	 * @param originNode a node;
@@ -100,27 +134,169 @@ public class NodesLookup {
 		int pD = random.nextInt(distances.size());
 		double distance = distances.get(pD);
 		if (distance < 100) distance = 100;
-		NodeGraph node = null;
-		ArrayList<NodeGraph> candidates = new ArrayList<NodeGraph>();
-		double tolerance = 50;
 
-		while(true) {
+		NodesKDTree tree = network.getNodesKDTree();
+		int origin = tree.csr.indexOf(originNode);
+		if (origin == -1) return null;
+		int node = nodeAtDistance(tree, origin, distance, RegionConstraint.ANY, random::nextInt);
+		return (node == -1) ? null : tree.csr.nodes[node];
+	}
+
+	/**
+	 * It generates a batch of random origin-destination pairs, in parallel. Origins are drawn uniformly among the nodes of the
+	 * graph (getNodes(), as in randomNode(Graph)); when a list of distances is passed, each destination is drawn as in randomNodeFromDistancesSet, at a distance
+	 * extracted from the list, otherwise uniformly among the other nodes. Destinations are subject to the region constraint.
+	 * The pairs are reproducible: they only depend on the graph and on the seed, not on the number of threads.
+	 *
+	 * @param network a graph;
+	 * @param count the number of pairs;
+	 * @param distances the list of possible distances between origin and destination, or null;
+	 * @param regionConstraint the constraint on the destination's region;
+	 * @param seed the seed of the random generator;
+	 */
+	public static ODPairs randomODPairs(Graph network, int count, List<Float> distances, RegionConstraint regionConstraint, long seed) {
+		return randomODPairs(network, count, distances, regionConstraint, null, seed);
+	}
+
+	/**
+	 * It generates a batch of random origin-destination pairs, in parallel, as randomODPairs above, drawing the origins with a
+	 * weighted sampler (e.g. by population) rather than uniformly.
+	 *
+	 * @param network a graph;
+	 * @param count the number of pairs;
+	 * @param distances the list of possible distances between origin and destination, or null;
+	 * @param regionConstraint the constraint on the destination's region;
+	 * @param originsSampler the sampler of the origin nodes, built on the same graph; null to draw origins uniformly;
+	 * @param seed the seed of the random generator;
+	 */
+	public static ODPairs randomODPairs(Graph network, int count, List<Float> distances, RegionConstraint regionConstraint,
+			NodesSampler originsSampler, long seed) {
+
+		NodesKDTree tree = network.getNodesKDTree();
+		ODPairs pairs = new ODPairs(count);
+		int chunks = (count + OD_CHUNK_SIZE - 1) / OD_CHUNK_SIZE;
+
+		// one generator per chunk, split in order from the seeded one
+		SplittableRandom seedRandom = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[chunks];
+		for (int chunk = 0; chunk < chunks; chunk++) randoms[chunk] = seedRandom.split();
+
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			SplittableRandom random = randoms[chunk];
+			int end = Math.min(count, (chunk + 1) * OD_CHUNK_SIZE);
+			for (int i = chunk * OD_CHUNK_SIZE; i < end; i++) {
+				pairs.originIDs[i] = -1;
+				pairs.destinationIDs[i] = -1;
+				if (tree.csr.nodesCount == 0) continue;
+				for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+					int origin = (originsSampler == null) ? random.nextInt(tree.csr.nodesCount) : tree.csr.indexOf(originsSampler.sample(random));
+					if (origin == -1) continue;
+					int destination;
+					if (distances == null || distances.isEmpty()) destination = randomNode(tree, origin, regionConstraint, random::nextInt);
+					else {
+						double distance = Math.max(100, distances.get(random.nextInt(distances.size())));
+						destination = nodeAtDistance(tree, origin, distance, regionConstraint, random::nextInt);
+					}
+					if (destination == -1) continue;
+					pairs.originIDs[i] = tree.csr.nodes[origin].getID();
+					pairs.destinationIDs[i] = tree.csr.nodes[destination].getID();
+					break;
+				}
+			}
+		});
+		return pairs;
+	}
+
+	/**
+	 * It returns the index of a random node approximately as far away from an origin node as a given distance, excluding the
+	 * origin and its adjacent nodes; the tolerance of 50 units is widened by 50 units until a node is found.
+	 * It returns -1 when no such node exists.
+	 *
+	 * @param tree the nodes' KD-tree of the graph;
+	 * @param origin the index of the origin node;
+	 * @param distance the distance;
+	 * @param regionConstraint the constraint on the node's region;
+	 * @param nextInt the random generator, returning an integer between 0 (included) and a given bound (excluded);
+	 */
+	private static int nodeAtDistance(NodesKDTree tree, int origin, double distance, RegionConstraint regionConstraint,
+			IntUnaryOperator nextInt) {
+
+		GraphCSR csr = tree.csr;
+		double x = csr.nodeX[origin];
+		double y = csr.nodeY[origin];
+
+		// the origin and its adjacent nodes
+		int[] excluded = new int[csr.offsets[origin + 1] - csr.offsets[origin] + 1];
+		excluded[0] = origin;
+		for (int arc = csr.offsets[origin]; arc < csr.offsets[origin + 1]; arc++) excluded[arc - csr.offsets[origin] + 1] = csr.targets[arc];
+
+		double maxDistance = tree.maxDistance(x, y);
+		double tolerance = 50;
+		while (true) {
 			double lowerLimit = distance - tolerance;
 			double upperLimit = distance + tolerance;
-			candidates = network.getNodesBetweenLimits(originNode, lowerLimit, upperLimit);
-			if (candidates.size() > 1) break;
-			else tolerance += 50;
+			int node = randomCandidate(tree.annulus(x, y, lowerLimit, upperLimit, excluded), csr.nodes[origin].region,
+					regionConstraint, nextInt);
+			if (node != -1) return node;
+			if (lowerLimit <= 0 && upperLimit >= maxDistance) return -1;
+			tolerance += 50;
+		}
+	}
+
+	/**
+	 * It returns the index of a random node other than the origin node, or -1 when no such node exists.
+	 *
+	 * @param tree the nodes' KD-tree of the graph;
+	 * @param origin the index of the origin node;
+	 * @param regionConstraint the constraint on the node's region;
+	 * @param nextInt the random generator, returning an integer between 0 (included) and a given bound (excluded);
+	 */
+	private static int randomNode(NodesKDTree tree, int origin, RegionConstraint regionConstraint, IntUnaryOperator nextInt) {
+		GraphCSR csr = tree.csr;
+		double x = csr.nodeX[origin];
+		double y = csr.nodeY[origin];
+		NodesKDTree.Annulus candidates = tree.annulus(x, y, 0.0, tree.maxDistance(x, y), new int[] {origin});
+		return randomCandidate(candidates, csr.nodes[origin].region, regionConstraint, nextInt);
+	}
+
+	/**
+	 * It returns the index of a random node of an annulus satisfying a region constraint, or -1 when no such node exists.
+	 * Nodes are drawn at random a few times; if none satisfies the constraint, the annulus is scanned.
+	 *
+	 * @param candidates the nodes of the annulus;
+	 * @param region the region of the origin node;
+	 * @param regionConstraint the constraint on the node's region;
+	 * @param nextInt the random generator, returning an integer between 0 (included) and a given bound (excluded);
+	 */
+	private static int randomCandidate(NodesKDTree.Annulus candidates, int region, RegionConstraint regionConstraint,
+			IntUnaryOperator nextInt) {
+
+		int size = candidates.size();
+		if (size == 0) return -1;
+		if (regionConstraint == RegionConstraint.ANY) return candidates.get(nextInt.applyAsInt(size));
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			NodeGraph node = candidates.getNode(nextInt.applyAsInt(size));
+			if (satisfies(node.region, region, regionConstraint)) return node.nodeIndex;
 		}
-		while (node == null || (node.getID() == originNode.getID())) {
-			Integer c = random.nextInt(candidates.size());
-			node = candidates.get(c);
-			if (originNode.getEdgeWith(node) != null) node = null;
+		int[] valid = new int[size];
+		int count = 0;
+		for (int rank = 0; rank < size; rank++) {
+			NodeGraph node = candidates.getNode(rank);
+			if (satisfies(node.region, region, regionConstraint)) valid[count++] = node.nodeIndex;
 		}
-		return node;
+		return (count == 0) ? -1 : valid[nextInt.applyAsInt(count)];
+	}
+
+	private static boolean satisfies(int region, int originRegion, RegionConstraint regionConstraint) {
+		if (regionConstraint == RegionConstraint.SAME_REGION) return region == originRegion;
+		if (regionConstraint == RegionConstraint.OTHER_REGION) return region != originRegion;
+		return true;
 	}
 
 	/**
 	 * Given a graph, the function returns a random node whose distance from a passed origin node is within certain limits.
+	 * It returns null when no such node exists.
 	 *
 	 * @param network a graph;
 	 * @param originNode a node;
@@ -129,10 +305,12 @@ public class NodesLookup {
 	 */
 	public static NodeGraph randomNodeBetweenLimits(Graph network, NodeGraph originNode, double lowerLimit, double upperLimit) {
 		Random random = new Random();
-		ArrayList <NodeGraph> candidates = network.getNodesBetweenLimits(originNode, lowerLimit, upperLimit);
-		int c = random.nextInt(candidates.size());
-		NodeGraph node = candidates.get(c);
-		return node;
+		NodesKDTree tree = network.getNodesKDTree();
+		int origin = tree.csr.indexOf(originNode);
+		if (origin == -1) return null;
+		NodesKDTree.Annulus candidates = tree.annulus(tree.csr.nodeX[origin], tree.csr.nodeY[origin], lowerLimit, upperLimit, new int[0]);
+		if (candidates.size() == 0) return null;
+		return candidates.getNode(random.nextInt(candidates.size()));
 	}
 
 	/**
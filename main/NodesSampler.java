@@ -0,0 +1,127 @@
+package urbanmason.main;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A sampler of the nodes of a graph, with probability proportional to a weight assigned to each node (e.g. centrality,
+ * population, number of buildings with a certain land use). It is built once, over the node array of the graph's snapshot,
+ * and each draw takes constant time (see AliasTable).
+ * The sampler reflects the graph and the weights at the moment of its creation; it should be rebuilt when they change.
+ *
+ */
+public class NodesSampler {
+
+	private final GraphCSR csr;
+	private final AliasTable table;
+
+	private NodesSampler(GraphCSR csr, double[] weights) {
+		this.csr = csr;
+		this.table = new AliasTable(weights);
+	}
+
+	/**
+	 * It returns a sampler of the nodes of a graph, weighted by a given function of the nodes.
+	 * It returns null when all the weights are 0 (or negative).
+	 *
+	 * @param graph the graph;
+	 * @param weight the function assigning the weight to a node;
+	 */
+	public static NodesSampler weighted(Graph graph, ToDoubleFunction<NodeGraph> weight) {
+		GraphCSR csr = graph.getCSR();
+		double[] weights = new double[csr.nodesCount];
+		for (int i = 0; i < csr.nodesCount; i++) weights[i] = weight.applyAsDouble(csr.nodes[i]);
+		return create(csr, weights);
+	}
+
+	/**
+	 * It returns a sampler of the nodes of a graph, weighted by the given values (e.g. population).
+	 * Nodes not contained in the map have weight 0. It returns null when all the weights are 0.
+	 *
+	 * @param graph the graph;
+	 * @param weights the weight of each node;
+	 */
+	public static NodesSampler weighted(Graph graph, Map<NodeGraph, Double> weights) {
+		return weighted(graph, node -> weights.getOrDefault(node, 0.0));
+	}
+
+	/**
+	 * It returns a sampler of the nodes of a graph, weighted by their centrality.
+	 * It returns null when all the centrality values are 0.
+	 *
+	 * @param graph the graph;
+	 */
+	public static NodesSampler byCentrality(Graph graph) {
+		return weighted(graph, node -> node.centrality);
+	}
+
+	/**
+	 * It returns a sampler of the nodes of a graph, weighted by the number of buildings assigned to them (Building.node).
+	 * It returns null when no building is assigned to the nodes of the graph.
+	 *
+	 * @param graph the graph;
+	 * @param buildings the buildings;
+	 */
+	public static NodesSampler byBuildingsDensity(Graph graph, Collection<Building> buildings) {
+		return byLandUse(graph, buildings, null);
+	}
+
+	/**
+	 * It returns a sampler of the nodes of a graph, weighted by the number of buildings with certain land uses assigned to
+	 * them (Building.node). It returns null when no such building is assigned to the nodes of the graph.
+	 *
+	 * @param graph the graph;
+	 * @param buildings the buildings;
+	 * @param landUses the land uses to consider; null to consider all the buildings;
+	 */
+	public static NodesSampler byLandUse(Graph graph, Collection<Building> buildings, Set<String> landUses) {
+		GraphCSR csr = graph.getCSR();
+		double[] weights = new double[csr.nodesCount];
+		for (Building building : buildings) {
+			if (building.node == null || (landUses != null && !landUses.contains(building.landUse))) continue;
+			int node = csr.indexOf(building.node);
+			if (node != -1) weights[node] += 1.0;
+		}
+		return create(csr, weights);
+	}
+
+	private static NodesSampler create(GraphCSR csr, double[] weights) {
+		NodesSampler sampler = new NodesSampler(csr, weights);
+		return sampler.table.isEmpty() ? null : sampler;
+	}
+
+	/**
+	 * It returns a random node.
+	 *
+	 * @param random the random generator;
+	 */
+	public NodeGraph sample(Random random) {
+		return csr.nodes[table.sample(random.nextInt(table.size()), random.nextDouble())];
+	}
+
+	/**
+	 * It returns a random node; suitable for parallel, reproducible draws (see SplittableRandom.split()).
+	 *
+	 * @param random the random generator;
+	 */
+	public NodeGraph sample(SplittableRandom random) {
+		return csr.nodes[table.sample(random.nextInt(table.size()), random.nextDouble())];
+	}
+
+	/**
+	 * It returns the IDs of a given number of random nodes.
+	 *
+	 * @param count the number of nodes;
+	 * @param seed the seed of the random generator;
+	 */
+	public int[] sampleIDs(int count, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		int[] nodesIDs = new int[count];
+		for (int i = 0; i < count; i++) nodesIDs[i] = sample(random).getID();
+		return nodesIDs;
+	}
+}
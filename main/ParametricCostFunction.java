@@ -0,0 +1,64 @@
+package urbanmason.main;
+
+/**
+ * A static cost function of a given kind and parameter (see EdgeCostFunction.landmarkness() and barriers()).
+ * Its costs depend on the nodes' landmarks and the edges' barriers: the graph discards them when these are set (see
+ * Graph.clearCosts()).
+ * Two instances are equal when they have the same kind and parameter, so that they share the costs precomputed in a
+ * GraphCSR (see GraphCSR.costs()) however many times they are created.
+ */
+final class ParametricCostFunction implements EdgeCostFunction {
+
+	static final int LANDMARKNESS = 0, BARRIERS = 1;
+
+	final int kind;
+	final double parameter;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param kind the kind of function (LANDMARKNESS or BARRIERS);
+	 * @param parameter the weight of the landmarkness or the discount of the barriers, between 0.0 and 1.0;
+	 * @throws IllegalArgumentException when the parameter is not between 0.0 and 1.0, as the costs would be negative;
+	 */
+	ParametricCostFunction(int kind, double parameter) {
+		if (!(parameter >= 0.0 && parameter <= 1.0))
+			throw new IllegalArgumentException("Invalid " + (kind == LANDMARKNESS ? "weight: " : "discount: ") + parameter);
+		this.kind = kind;
+		this.parameter = parameter;
+	}
+
+	@Override
+	public double cost(EdgeGraph edge) {
+		switch (kind) {
+		case LANDMARKNESS:
+			double landmarkness = 0.0;
+			for (Building building : edge.u.getLocalLandmarks()) landmarkness = Math.max(landmarkness, building.localLandmarkness);
+			for (Building building : edge.v.getLocalLandmarks()) landmarkness = Math.max(landmarkness, building.localLandmarkness);
+			return edge.getLength() * (1.0 - parameter * landmarkness);
+		case BARRIERS:
+			if (edge.positiveBarrierIDs.length == 0) return edge.getLength();
+			return edge.getLength() * (1.0 - parameter);
+		default:
+			throw new IllegalStateException("Unknown cost function: " + kind);
+		}
+	}
+
+	@Override
+	public boolean isStatic() {
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof ParametricCostFunction)) return false;
+		ParametricCostFunction other = (ParametricCostFunction) o;
+		return kind == other.kind && Double.compare(parameter, other.parameter) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * kind + Double.hashCode(parameter);
+	}
+}
@@ -0,0 +1,246 @@
+package urbanmason.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * A shortest-path engine (Dijkstra and A*) for Graph and SubGraph, returning Path objects.
+ * Searches run on the graph's CSR snapshot with a 4-ary heap supporting decrease-key. The search state is allocated
+ * once per thread and reused across queries, so a PathFinder can be shared by agents routing in parallel.
+ * Costs of static EdgeCostFunctions are read from arrays precomputed per snapshot.
+ *
+ * When the graph is a SubGraph, origin and destination can be either child or parent nodes; the path is made of child directed edges.
+ */
+public class PathFinder {
+
+	private final Graph graph;
+	private final ThreadLocal<SearchState> searchStates = new ThreadLocal<SearchState>();
+	private final ThreadLocal<SearchState> angularStates = new ThreadLocal<SearchState>();
+
+	/**
+	 * It creates a PathFinder for a given graph.
+	 *
+	 * @param graph the graph (or SubGraph);
+	 */
+	public PathFinder(Graph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * It returns the least cost path between two nodes (Dijkstra), given a cost function.
+	 * It returns null when the destination cannot be reached.
+	 *
+	 * @param originNode the origin node;
+	 * @param destinationNode the destination node;
+	 * @param costFunction the cost function (e.g. EdgeCostFunction.LENGTH);
+	 */
+	public Path dijkstraPath(NodeGraph originNode, NodeGraph destinationNode, EdgeCostFunction costFunction) {
+		return path(originNode, destinationNode, costFunction, false);
+	}
+
+	/**
+	 * It returns the shortest path (metric length) between two nodes, using A* with the Euclidean distance as heuristic.
+	 * It returns null when the destination cannot be reached.
+	 *
+	 * @param originNode the origin node;
+	 * @param destinationNode the destination node;
+	 */
+	public Path astarPath(NodeGraph originNode, NodeGraph destinationNode) {
+		return path(originNode, destinationNode, EdgeCostFunction.LENGTH, true);
+	}
+
+	private Path path(NodeGraph originNode, NodeGraph destinationNode, EdgeCostFunction costFunction, boolean heuristic) {
+
+		if (graph instanceof SubGraph) {
+			SubGraph subGraph = (SubGraph) graph;
+			if (subGraph.getParentNode(originNode) == null) originNode = subGraph.getChildNode(originNode);
+			if (subGraph.getParentNode(destinationNode) == null) destinationNode = subGraph.getChildNode(destinationNode);
+			if (originNode == null || destinationNode == null) return null;
+		}
+
+		SearchState state = searchState(searchStates, 1);
+		GraphCSR csr = state.csr;
+		int origin = csr.indexOf(originNode);
+		int destination = csr.indexOf(destinationNode);
+		if (origin == -1 || destination == -1) return null;
+
+		if (!search(state, origin, destination, costFunction, heuristic)) return null;
+		return buildPath(state, origin, destination);
+	}
+
+	/**
+	 * It returns the search state of the current thread, regenerating it when the graph's snapshot has changed.
+	 *
+	 * @param states the thread-local states;
+	 * @param statesPerNode the number of search states per node;
+	 */
+	private SearchState searchState(ThreadLocal<SearchState> states, int statesPerNode) {
+		GraphCSR csr = graph.getCSR();
+		SearchState state = states.get();
+		if (state == null || state.csr != csr) {
+			state = new SearchState(csr, csr.nodesCount * statesPerNode);
+			states.set(state);
+		}
+		return state;
+	}
+
+	/**
+	 * It runs the search from the origin until the destination is settled.
+	 * It returns false when the destination cannot be reached.
+	 *
+	 */
+	private static boolean search(SearchState state, int origin, int destination, EdgeCostFunction costFunction, boolean heuristic) {
+
+		GraphCSR csr = state.csr;
+		IndexedHeap heap = state.heap;
+		double[] costs = costFunction.isStatic() ? csr.costs(costFunction) : null;
+		state.reset();
+		state.reach(origin, 0.0, -1);
+		heap.insertOrDecrease(origin, heuristic ? csr.nodesDistance(origin, destination) : 0.0);
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			if (node == destination) return true;
+			double gx = state.gx[node];
+
+			for (int arc = csr.offsets[node]; arc < csr.offsets[node + 1]; arc++) {
+				int edge = csr.arcEdges[arc];
+				double cost = costs != null ? costs[edge] : costFunction.cost(csr.edges[edge]);
+				if (Double.isInfinite(cost)) continue;
+				int target = csr.targets[arc];
+				double tentative = gx + cost;
+				if (state.isReached(target) && tentative >= state.gx[target]) continue;
+				state.reach(target, tentative, arc);
+				double hx = heuristic ? csr.nodesDistance(target, destination) : 0.0;
+				heap.insertOrDecrease(target, tentative + hx);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * It retraces the path from the destination back to the origin, filling the sequence of directed edges and
+	 * the NodeWrappers of the traversed nodes.
+	 *
+	 */
+	private static Path buildPath(SearchState state, int origin, int destination) {
+
+		GraphCSR csr = state.csr;
+		Path path = new Path();
+		ArrayList<GeomPlanarGraphDirectedEdge> edges = new ArrayList<GeomPlanarGraphDirectedEdge>();
+		int node = destination;
+
+		while (true) {
+			NodeWrapper wrapper = new NodeWrapper(csr.nodes[node]);
+			wrapper.gx = state.gx[node];
+			wrapper.fx = state.gx[node];
+			path.mapWrappers.put(wrapper.node, wrapper);
+			if (node == origin) break;
+
+			GeomPlanarGraphDirectedEdge edgeFrom = csr.directedEdges[state.from[node]];
+			wrapper.edgeFrom = edgeFrom;
+			wrapper.nodeFrom = (NodeGraph) edgeFrom.getFromNode();
+			edges.add(edgeFrom);
+			node = wrapper.nodeFrom.nodeIndex;
+		}
+		Collections.reverse(edges);
+		path.edges = edges;
+		return path;
+	}
+
+	/**
+	 * It returns the path with the least cumulative angular change between two nodes of the primal graph, computed on this
+	 * PathFinder's graph, which has to be the dual graph of the primal one (see DualGraphBuilder) or a SubGraph of it.
+	 * The returned Path contains the primal directed edges, whilst its mapWrappers contains the traversed dual nodes, each with
+	 * the junction (commonPrimalJunction) through which its street segment is entered.
+	 * Segments are traversed consistently: after entering a segment at a junction the route continues from the opposite
+	 * junction, so that no (dual) shortcut through already traversed junctions is possible, through the dual edges
+	 * measured at that junction (EdgeGraph.commonPrimalJunction; dual edges without it, e.g. loaded from a layer, are
+	 * taken at either junction of the two segments).
+	 * It returns null when the destination cannot be reached.
+	 *
+	 * @param originNode the origin node, in the primal graph;
+	 * @param destinationNode the destination node, in the primal graph;
+	 */
+	public Path angularPath(NodeGraph originNode, NodeGraph destinationNode) {
+
+		if (originNode == destinationNode) return new Path();
+		SearchState state = searchState(angularStates, 2);
+		GraphCSR csr = state.csr;
+		IndexedHeap heap = state.heap;
+		double[] costs = csr.costs(EdgeCostFunction.DEFLECTION);
+		state.reset();
+
+		// search states: dualIndex * 2 when the segment is entered from its node u, dualIndex * 2 + 1 from v
+		for (Object o : originNode.getOutEdges().getEdges()) {
+			EdgeGraph edge = (EdgeGraph) ((GeomPlanarGraphDirectedEdge) o).getEdge();
+			NodeGraph dualNode = edge.getDual();
+			if (edge.u == edge.v || dualNode == null) continue;
+			if (graph instanceof SubGraph) dualNode = ((SubGraph) graph).getChildNode(dualNode);
+			int dual = (dualNode == null) ? -1 : csr.indexOf(dualNode);
+			if (dual == -1) continue;
+			int item = dual * 2 + (edge.u == originNode ? 0 : 1);
+			state.reach(item, 0.0, -1);
+			heap.insertOrDecrease(item, 0.0);
+		}
+
+		int last = -1;
+		while (!heap.isEmpty()) {
+			int item = heap.poll();
+			EdgeGraph primalEdge = csr.nodes[item / 2].primalEdge;
+			NodeGraph exitJunction = (item % 2 == 0) ? primalEdge.v : primalEdge.u;
+			if (exitJunction == destinationNode) {
+				last = item;
+				break;
+			}
+			double gx = state.gx[item];
+
+			int dual = item / 2;
+			for (int arc = csr.offsets[dual]; arc < csr.offsets[dual + 1]; arc++) {
+				// segments meeting at both ends are linked once per junction
+				NodeGraph junction = csr.edges[csr.arcEdges[arc]].commonPrimalJunction;
+				if (junction != null && junction != exitJunction) continue;
+				EdgeGraph nextEdge = csr.nodes[csr.targets[arc]].primalEdge;
+				int next;
+				if (nextEdge.u == exitJunction) next = csr.targets[arc] * 2;
+				else if (nextEdge.v == exitJunction) next = csr.targets[arc] * 2 + 1;
+				else continue;
+				double tentative = gx + costs[csr.arcEdges[arc]];
+				if (state.isReached(next) && tentative >= state.gx[next]) continue;
+				state.reach(next, tentative, arc);
+				heap.insertOrDecrease(next, tentative);
+			}
+		}
+		if (last == -1) return null;
+
+		// predecessors are the dual arcs: the previous segment is left at the junction through which the next one is entered
+		Path path = new Path();
+		ArrayList<GeomPlanarGraphDirectedEdge> edges = new ArrayList<GeomPlanarGraphDirectedEdge>();
+		int item = last;
+		while (true) {
+			NodeGraph dualNode = csr.nodes[item / 2];
+			EdgeGraph primalEdge = dualNode.primalEdge;
+			NodeGraph entryJunction = (item % 2 == 0) ? primalEdge.u : primalEdge.v;
+			edges.add((GeomPlanarGraphDirectedEdge) primalEdge.getDirEdge(entryJunction));
+
+			NodeWrapper wrapper = new NodeWrapper(dualNode);
+			wrapper.gx = state.gx[item];
+			wrapper.fx = state.gx[item];
+			wrapper.commonPrimalJunction = entryJunction;
+			path.mapWrappers.put(dualNode, wrapper);
+			int arc = state.from[item];
+			if (arc == -1) break;
+
+			GeomPlanarGraphDirectedEdge dualEdge = csr.directedEdges[arc];
+			NodeGraph previousNode = (NodeGraph) dualEdge.getFromNode();
+			wrapper.nodeFrom = previousNode;
+			wrapper.edgeFrom = dualEdge;
+			item = csr.indexOf(previousNode) * 2 + (previousNode.primalEdge.v == entryJunction ? 0 : 1);
+		}
+		Collections.reverse(edges);
+		path.edges = edges;
+		return path;
+	}
+}
@@ -0,0 +1,69 @@
+package urbanmason.main;
+
+import java.util.Arrays;
+
+/**
+ * The reusable state of a shortest-path search over a GraphCSR: costs so far, predecessors and the open list.
+ * Search states are nodes of the snapshot or, for angular searches, (dual node, direction) pairs.
+ * Arrays are allocated once per snapshot and thread; labels of previous searches are invalidated through a search stamp
+ * rather than by clearing the arrays.
+ *
+ */
+final class SearchState {
+
+	final GraphCSR csr;
+	final double[] gx;
+	final int[] from;
+	final IndexedHeap heap;
+	private final int[] stamps;
+	private int stamp;
+
+	/**
+	 * It creates the state for searches over a snapshot.
+	 *
+	 * @param csr the snapshot;
+	 * @param size the number of possible search states;
+	 */
+	SearchState(GraphCSR csr, int size) {
+		this.csr = csr;
+		gx = new double[size];
+		from = new int[size];
+		stamps = new int[size];
+		heap = new IndexedHeap(size);
+	}
+
+	/**
+	 * It prepares the state for a new search.
+	 *
+	 */
+	void reset() {
+		heap.clear();
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * It verifies whether a search state has been reached during the current search.
+	 *
+	 * @param item the search state (e.g. index of the node);
+	 */
+	boolean isReached(int item) {
+		return stamps[item] == stamp;
+	}
+
+	/**
+	 * It labels a search state as reached during the current search.
+	 *
+	 * @param item the search state (e.g. index of the node);
+	 * @param cost the cost from the origin;
+	 * @param predecessor the arc or state through which the item is reached (-1 for the origin);
+	 */
+	void reach(int item, double cost, int predecessor) {
+		stamps[item] = stamp;
+		gx[item] = cost;
+		from[item] = predecessor;
+	}
+}
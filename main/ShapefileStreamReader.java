@@ -0,0 +1,240 @@
+package urbanmason.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * A reader of street segments from an ESRI shapefile (.shp and .dbf), streaming one record at a time into a Graph
+ * (see Graph.addLineString()), without materialising the layer as a VectorLayer.
+ * Both files are read sequentially through NIO channels with fixed-size buffers; only the requested attribute columns
+ * are decoded and attached to the MasonGeometry of each segment.
+ *
+ * Supported shape types are PolyLine, PolyLineZ and PolyLineM (Z and M values are ignored). As in Graph.fromGeomField(),
+ * only single-part lines become edges: multi-part and null shapes are skipped.
+ * The attributes' encoding is read from the .cpg file, when present, otherwise ISO-8859-1 is assumed.
+ */
+public class ShapefileStreamReader {
+
+	private static final int SHP_HEADER_LENGTH = 100;
+	private static final int NULL_SHAPE = 0;
+	private static final int POLYLINE = 3, POLYLINE_Z = 13, POLYLINE_M = 23;
+
+	/**
+	 * It adds the street segments of a shapefile to a graph.
+	 * It returns the number of segments read and added as edges.
+	 *
+	 * @param graph the graph;
+	 * @param shapefilePath the path of the .shp file (the .dbf file is expected next to it, with the same name);
+	 * @param attributes the names of the attribute columns to keep; null to keep all the columns;
+	 */
+	public static int readStreets(Graph graph, String shapefilePath, Collection<String> attributes) throws IOException {
+
+		Path shpPath = Paths.get(shapefilePath);
+		String baseName = shapefilePath.substring(0, shapefilePath.length() - 4);
+		Path dbfPath = Paths.get(baseName + ".dbf");
+		Path cpgPath = Paths.get(baseName + ".cpg");
+		Charset charset = StandardCharsets.ISO_8859_1;
+		if (Files.exists(cpgPath)) {
+			String charsetName = new String(Files.readAllBytes(cpgPath), StandardCharsets.US_ASCII).trim();
+			if (Charset.isSupported(charsetName)) charset = Charset.forName(charsetName);
+		}
+
+		GeometryFactory factory = new GeometryFactory();
+		int added = 0;
+		try (ChannelReader shp = new ChannelReader(FileChannel.open(shpPath, StandardOpenOption.READ));
+				ChannelReader dbf = new ChannelReader(FileChannel.open(dbfPath, StandardOpenOption.READ))) {
+
+			DbfHeader dbfHeader = new DbfHeader(dbf, attributes, charset);
+			shp.skip(SHP_HEADER_LENGTH);
+
+			for (int record = 0; record < dbfHeader.recordsCount; record++) {
+				if (!shp.fill(8)) break;
+				// record header, big-endian: record number and content length in 16-bit words
+				ByteBuffer buffer = shp.require(8);
+				buffer.order(ByteOrder.BIG_ENDIAN);
+				buffer.getInt();
+				int contentLength = buffer.getInt() * 2;
+
+				LineString line = readLine(shp, contentLength, factory);
+				ByteBuffer dbfRecord = dbf.require(dbfHeader.recordLength);
+				if (line == null) {
+					dbf.skipRequired(dbfHeader.recordLength);
+					continue;
+				}
+				// deleted records are marked by '*'
+				if (dbfRecord.get(dbfRecord.position()) == '*') {
+					dbf.skipRequired(dbfHeader.recordLength);
+					continue;
+				}
+
+				MasonGeometry wrappedLine = new MasonGeometry(line);
+				dbfHeader.readAttributes(dbfRecord, wrappedLine);
+				dbf.skipRequired(dbfHeader.recordLength);
+				if (graph.addLineString(wrappedLine) != null) added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * It reads the content of a shape record and returns its line, or null if the shape is not a single-part line.
+	 *
+	 */
+	private static LineString readLine(ChannelReader shp, int contentLength, GeometryFactory factory) throws IOException {
+
+		ByteBuffer buffer = shp.require(contentLength);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+		int shapeType = contentLength >= 4 ? buffer.getInt() : NULL_SHAPE;
+		LineString line = null;
+
+		if (shapeType == POLYLINE || shapeType == POLYLINE_Z || shapeType == POLYLINE_M) {
+			// bounding box
+			buffer.position(buffer.position() + 32);
+			int partsCount = buffer.getInt();
+			int pointsCount = buffer.getInt();
+			if (partsCount == 1 && pointsCount >= 2) {
+				buffer.getInt();
+				Coordinate[] coordinates = new Coordinate[pointsCount];
+				for (int i = 0; i < pointsCount; i++) coordinates[i] = new Coordinate(buffer.getDouble(), buffer.getDouble());
+				line = factory.createLineString(coordinates);
+			}
+		}
+		buffer.position(start);
+		shp.skipRequired(contentLength);
+		return line;
+	}
+
+	/**
+	 * The structure of the .dbf file: number and length of the records, and position, length and type of the fields to keep.
+	 *
+	 */
+	private static final class DbfHeader {
+
+		final int recordsCount;
+		final int recordLength;
+		final String[] names;
+		final char[] types;
+		final int[] offsets, lengths;
+		// numeric fields whose values all fit in an int, according to the header: their values become Integer attributes
+		final boolean[] integers;
+		final Charset charset;
+
+		DbfHeader(ChannelReader dbf, Collection<String> attributes, Charset charset) throws IOException {
+
+			this.charset = charset;
+			ByteBuffer buffer = dbf.require(32);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			int start = buffer.position();
+			recordsCount = buffer.getInt(start + 4);
+			int headerLength = buffer.getShort(start + 8) & 0xFFFF;
+			recordLength = buffer.getShort(start + 10) & 0xFFFF;
+			dbf.skipRequired(32);
+
+			int fieldsCount = (headerLength - 33) / 32;
+			String[] allNames = new String[fieldsCount];
+			char[] allTypes = new char[fieldsCount];
+			int[] allOffsets = new int[fieldsCount], allLengths = new int[fieldsCount], allDecimals = new int[fieldsCount];
+			int kept = 0;
+			// each record starts with the deletion flag
+			int offset = 1;
+			for (int field = 0; field < fieldsCount; field++) {
+				buffer = dbf.require(32);
+				int fieldStart = buffer.position();
+				int nameLength = 0;
+				while (nameLength < 11 && buffer.get(fieldStart + nameLength) != 0) nameLength++;
+				byte[] nameBytes = new byte[nameLength];
+				for (int i = 0; i < nameLength; i++) nameBytes[i] = buffer.get(fieldStart + i);
+				String name = new String(nameBytes, StandardCharsets.US_ASCII).trim();
+				int length = buffer.get(fieldStart + 16) & 0xFF;
+				if (attributes == null || attributes.contains(name)) {
+					allNames[kept] = name;
+					allTypes[kept] = (char) buffer.get(fieldStart + 11);
+					allOffsets[kept] = offset;
+					allLengths[kept] = length;
+					allDecimals[kept] = buffer.get(fieldStart + 17) & 0xFF;
+					kept++;
+				}
+				offset += length;
+				dbf.skipRequired(32);
+			}
+			// terminator and any padding before the first record
+			dbf.skip(headerLength - 32 - fieldsCount * 32);
+
+			names = Arrays.copyOf(allNames, kept);
+			types = Arrays.copyOf(allTypes, kept);
+			offsets = Arrays.copyOf(allOffsets, kept);
+			lengths = Arrays.copyOf(allLengths, kept);
+			integers = new boolean[kept];
+			// up to 9 characters, sign included, without decimals
+			for (int field = 0; field < kept; field++)
+				integers[field] = types[field] == 'N' && allDecimals[field] == 0 && lengths[field] < 10;
+		}
+
+		/**
+		 * It decodes the fields to keep of a record and adds them to the geometry's attributes.
+		 * The type of each attribute depends on its field only: numeric fields without decimals and shorter than 10
+		 * characters become Integer attributes, the other numeric fields Double attributes, and the remaining fields String
+		 * attributes. Numeric values are read leniently (e.g. "12." or "+5"); empty values, and values that are not numbers
+		 * or, for Integer attributes, not whole numbers, are skipped.
+		 *
+		 */
+		void readAttributes(ByteBuffer record, MasonGeometry wrappedLine) {
+
+			int start = record.position();
+			for (int field = 0; field < names.length; field++) {
+				byte[] bytes = new byte[lengths[field]];
+				for (int i = 0; i < bytes.length; i++) bytes[i] = record.get(start + offsets[field] + i);
+				String value = new String(bytes, charset).trim();
+				char type = types[field];
+
+				if (type == 'N' || type == 'F') {
+					double number = parseNumber(value);
+					if (Double.isNaN(number)) continue;
+					if (!integers[field]) wrappedLine.addDoubleAttribute(names[field], number);
+					else if (number == Math.rint(number) && Math.abs(number) <= Integer.MAX_VALUE)
+						wrappedLine.addIntegerAttribute(names[field], (int) number);
+				}
+				else wrappedLine.addStringAttribute(names[field], value);
+			}
+		}
+
+		/**
+		 * It returns the value of a numeric field, or NaN when the value is empty, filled with '*' (overflow), or not a
+		 * finite decimal number (e.g. out of the double range).
+		 *
+		 * @param value the trimmed value;
+		 */
+		private static double parseNumber(String value) {
+			if (value.isEmpty() || value.startsWith("*")) return Double.NaN;
+			// no hexadecimal values, type suffixes (e.g. "1d"), "NaN" or "Infinity"
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (!(c >= '0' && c <= '9') && c != '.' && c != '+' && c != '-' && c != 'e' && c != 'E') return Double.NaN;
+			}
+			try {
+				double number = Double.parseDouble(value);
+				return Double.isInfinite(number) ? Double.NaN : number;
+			}
+			catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+	}
+}
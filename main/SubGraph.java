@@ -3,14 +3,11 @@ package urbanmason.main;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.CoordinateArrays;
 import com.vividsolutions.jts.geom.LineString;
 
 import sim.util.geo.GeomPlanarGraphDirectedEdge;
@@ -27,7 +24,6 @@ public class SubGraph extends Graph
 	private SubGraphNodesMap subGraphNodesMap = new SubGraphNodesMap();
 	private SubGraphEdgesMap subGraphEdgesMap = new SubGraphEdgesMap();
 	private ArrayList<Integer> graphBarriers = new ArrayList<Integer>();
-	LinkedHashMap<NodeGraph, Double> centralityMap = new LinkedHashMap<NodeGraph, Double>();
 	Graph parentGraph = new Graph();
 
 	/**
@@ -38,7 +34,7 @@ public class SubGraph extends Graph
 	 * @param edges the list of edges to include.
 	 */
 	public SubGraph(Graph parentGraph, ArrayList<EdgeGraph> edges) {
-		//		this.parentGraph = parentGraph;
+		this.parentGraph = parentGraph;
 		for (EdgeGraph edge: edges) addFromOtherGraph(parentGraph, edge);
 		for (NodeGraph node : this.getNodesList()) {
 			node.setNeighbouringComponents();
@@ -48,6 +44,32 @@ public class SubGraph extends Graph
 	public SubGraph() {
 	}
 
+	/**
+	 * It builds one SubGraph per region of a graph, on the basis of the edges' region (EdgeGraph.region); edges that do not
+	 * belong to any region (999999) are excluded.
+	 * SubGraphs are built concurrently on the common fork-join pool, and barriers and landmarks are propagated
+	 * to each of them (see setSubGraphBarriers and setSubGraphLandmarks).
+	 *
+	 * @param graph the parent graph;
+	 */
+	public static HashMap<Integer, SubGraph> regionalSubGraphs(Graph graph) {
+
+		HashMap<Integer, ArrayList<EdgeGraph>> regionsEdges = new HashMap<Integer, ArrayList<EdgeGraph>>();
+		for (EdgeGraph edge : graph.edgesGraph) {
+			if (edge.region == 999999) continue;
+			regionsEdges.computeIfAbsent(edge.region, region -> new ArrayList<EdgeGraph>()).add(edge);
+		}
+
+		Map<Integer, SubGraph> subGraphs = regionsEdges.entrySet().parallelStream()
+				.collect(Collectors.toConcurrentMap(entry -> entry.getKey(), entry -> {
+					SubGraph subGraph = new SubGraph(graph, entry.getValue());
+					subGraph.setSubGraphBarriers();
+					subGraph.setSubGraphLandmarks();
+					return subGraph;
+				}));
+		return new HashMap<Integer, SubGraph>(subGraphs);
+	}
+
 	/**
 	 * It adds an EdgeGraph and the corresponding nodes to the SubGraph, with all the necessary attributes.
 	 *
@@ -64,50 +86,65 @@ public class SubGraph extends Graph
 		NodeGraph childU = this.getNode(uCoord);
 		NodeGraph childV = this.getNode(vCoord);
 		LineString line = parentEdge.getLine();
-		Coordinate[] coords = CoordinateArrays.removeRepeatedPoints(line.getCoordinates());
 		EdgeGraph childEdge = new EdgeGraph(line);
 
-		GeomPlanarGraphDirectedEdge de0 = new GeomPlanarGraphDirectedEdge(childU, childV, coords[1], true);
-		GeomPlanarGraphDirectedEdge de1 = new GeomPlanarGraphDirectedEdge(childV, childU, coords[coords.length - 2], false);
+		// the direction points of the parent's directed edges avoid copying the line's coordinates
+		Coordinate uDirectionPt = parentEdge.getDirEdge(0).getDirectionPt();
+		Coordinate vDirectionPt = parentEdge.getDirEdge(1).getDirectionPt();
+		GeomPlanarGraphDirectedEdge de0 = new GeomPlanarGraphDirectedEdge(childU, childV, uDirectionPt, true);
+		GeomPlanarGraphDirectedEdge de1 = new GeomPlanarGraphDirectedEdge(childV, childU, vDirectionPt, false);
 		childEdge.setDirectedEdges(de0, de1);
 		this.setAttributesChildEdge(childEdge, parentEdge);
 		childEdge.setNodes(childU, childV);
 
+		childU.setID(u.getID());
+		childV.setID(v.getID());
+		nodesMap.put(childU.getID(), childU);
+		nodesMap.put(childV.getID(), childV);
 		subGraphNodesMap.add(childU, u);
 		subGraphNodesMap.add(childV, v);
 		subGraphEdgesMap.add(childEdge, parentEdge);
 		childU.primalEdge = u.primalEdge;
 		childV.primalEdge = v.primalEdge;
+		childU.masonGeometry = u.masonGeometry;
+		childV.masonGeometry = v.masonGeometry;
+		childU.region = u.region;
+		childV.region = v.region;
 		add(childEdge);
 		this.edgesGraph.add(childEdge);
+		resetIndexes();
 	}
 
 	/**
-	 * It maps the nodes of the SubGraph with its parent graph's nodes.
+	 * It maps the nodes of the SubGraph with its parent graph's nodes, in both directions.
 	 *
 	 */
 	private class SubGraphNodesMap 		{
 		public HashMap<NodeGraph, NodeGraph> map = new HashMap<NodeGraph, NodeGraph>();
+		private HashMap<NodeGraph, NodeGraph> inverseMap = new HashMap<NodeGraph, NodeGraph>();
 		private void add(NodeGraph node, NodeGraph parentNode) 	{
 			map.put(node, parentNode);
+			inverseMap.put(parentNode, node);
 		}
 		private NodeGraph findParent(NodeGraph nodeSubGraph) {return map.get(nodeSubGraph);}
-		private NodeGraph findChild(NodeGraph nodeGraph) {return Utilities.getKeyFromValue(map, nodeGraph);}
+		private NodeGraph findChild(NodeGraph nodeGraph) {return inverseMap.get(nodeGraph);}
 	}
 
 	/**
-	 * It maps the edges of the SubGraph with its parent graph's edges.
+	 * It maps the edges of the SubGraph with its parent graph's edges, in both directions.
 	 *
 	 */
 	private class SubGraphEdgesMap {
 
 		private HashMap<EdgeGraph, EdgeGraph> map = new HashMap<EdgeGraph, EdgeGraph>();
+		private HashMap<EdgeGraph, EdgeGraph> inverseMap = new HashMap<EdgeGraph, EdgeGraph>();
 		public void add(EdgeGraph edge, EdgeGraph parentEdge) {
 			map.put(edge, parentEdge);
+			inverseMap.put(parentEdge, edge);
 		}
 
 		private EdgeGraph findParent(EdgeGraph edgeSubGraph) {return map.get(edgeSubGraph);}
-		private EdgeGraph findChild(EdgeGraph edgeSubGraph) {return Utilities.getKeyFromValue(map, edgeSubGraph);}
+		private EdgeGraph findChild(EdgeGraph edgeGraph) {return inverseMap.get(edgeGraph);}
 	}
 
 	/**
@@ -144,6 +181,15 @@ public class SubGraph extends Graph
 		return parentNodes;
 	}
 
+	/**
+	 * It returns the child node of a parent node, if any;
+	 *
+	 * @param parentNode a node in the parent graph;
+	 */
+	public NodeGraph getChildNode(NodeGraph parentNode) {
+		return subGraphNodesMap.findChild(parentNode);
+	}
+
 	/**
 	 * It returns all the child nodes associated with the parent nodes contained in the list passed;
 	 *
@@ -172,6 +218,71 @@ public class SubGraph extends Graph
 		return childEdges;
 	}
 
+	/**
+	 * It returns the child edge of a parent edge, if any;
+	 *
+	 * @param parentEdge an edge in the parent graph;
+	 */
+	public EdgeGraph getChildEdge(EdgeGraph parentEdge) {
+		return subGraphEdgesMap.findChild(parentEdge);
+	}
+
+	/**
+	 * It returns the indexes (see GraphCSR) of the child nodes associated with the parent nodes passed, in the same order;
+	 * -1 is returned for parent nodes that are not in the SubGraph.
+	 *
+	 * @param parentNodes a collection of parent nodes;
+	 */
+	public int[] getChildNodesIndexes(Collection<NodeGraph> parentNodes) {
+		GraphCSR csr = this.getCSR();
+		int[] indexes = new int[parentNodes.size()];
+		int i = 0;
+		for (NodeGraph parent : parentNodes) {
+			NodeGraph child = this.subGraphNodesMap.findChild(parent);
+			indexes[i++] = (child == null) ? -1 : csr.indexOf(child);
+		}
+		return indexes;
+	}
+
+	/**
+	 * It returns the indexes (see GraphCSR) of the child edges associated with the parent edges passed, in the same order;
+	 * -1 is returned for parent edges that are not in the SubGraph.
+	 *
+	 * @param parentEdges a collection of parent edges;
+	 */
+	public int[] getChildEdgesIndexes(Collection<EdgeGraph> parentEdges) {
+		GraphCSR csr = this.getCSR();
+		int[] indexes = new int[parentEdges.size()];
+		int i = 0;
+		for (EdgeGraph parent : parentEdges) {
+			EdgeGraph child = this.subGraphEdgesMap.findChild(parent);
+			indexes[i++] = (child == null) ? -1 : csr.indexOf(child);
+		}
+		return indexes;
+	}
+
+	/**
+	 * It returns the IDs of the parent nodes, keyed by child node index (see GraphCSR).
+	 *
+	 */
+	public int[] getParentNodesIDs() {
+		GraphCSR csr = this.getCSR();
+		int[] IDs = new int[csr.nodesCount];
+		for (int i = 0; i < csr.nodesCount; i++) IDs[i] = this.getParentNode(csr.nodes[i]).getID();
+		return IDs;
+	}
+
+	/**
+	 * It returns the IDs of the parent edges, keyed by child edge index (see GraphCSR).
+	 *
+	 */
+	public int[] getParentEdgesIDs() {
+		GraphCSR csr = this.getCSR();
+		int[] IDs = new int[csr.edgesCount];
+		for (int i = 0; i < csr.edgesCount; i++) IDs[i] = this.getParentEdge(csr.edges[i]).getID();
+		return IDs;
+	}
+
 	/**
 	 * It returns the parent edge of a child edge;
 	 *
@@ -213,45 +324,104 @@ public class SubGraph extends Graph
 	 */
 	public void setAttributesChildEdge(EdgeGraph childEdge, EdgeGraph parentEdge) {
 		childEdge.setID(parentEdge.getID());
+		childEdge.region = parentEdge.region;
+		childEdge.masonGeometry = parentEdge.masonGeometry;
+		childEdge.setAttributes(parentEdge.attributes);
 		childEdge.dualNode = parentEdge.getDual();
 		// for dual edges:
 		childEdge.deflectionDegrees = parentEdge.deflectionDegrees;
+		childEdge.commonPrimalJunction = parentEdge.commonPrimalJunction;
+		// the barriers' sets are shared, not copied
+		childEdge.setBarriers(parentEdge);
 	}
 
 	/**
 	 * It stores information about the barriers within this SubGraph.
+	 * The child edges share again the barriers of their parent edges (e.g. after these have been set again) and the
+	 * SubGraph's barrier index is discarded; the list of the SubGraph's barriers (positive and negative barriers, as
+	 * EdgeGraph.barriers, without water bodies and parks) is taken from the new index, derived from the parent graph's one. The parent graph's barrier index should be reset after setting the parent edges' barriers
+	 * (see Graph.resetBarrierIndex()).
 	 *
 	 */
 	public void setSubGraphBarriers() {
-
-		ArrayList<Integer> graphBarriers = new ArrayList<Integer>();
 		for (EdgeGraph childEdge : this.edgesGraph) {
-			childEdge.barriers = this.getParentEdge(childEdge).barriers;
-			childEdge.positiveBarriers = this.getParentEdge(childEdge).positiveBarriers;
-			childEdge.negativeBarriers = this.getParentEdge(childEdge).negativeBarriers;
-			childEdge.waterBodies = this.getParentEdge(childEdge).waterBodies;
-			childEdge.parks = this.getParentEdge(childEdge).parks;
-			graphBarriers.addAll(childEdge.barriers);
+			EdgeGraph parentEdge = this.getParentEdge(childEdge);
+			if (parentEdge != null) childEdge.setBarriers(parentEdge);
 		}
-		Set<Integer> setBarriers = new HashSet<Integer>(graphBarriers);
-		this.graphBarriers = new ArrayList<Integer>(setBarriers);
+		this.resetBarrierIndex();
+		int[] barrierIDs = this.getBarrierIndex().getBarrierIDs(BarrierIndex.POSITIVE | BarrierIndex.NEGATIVE);
+		this.graphBarriers = new ArrayList<Integer>(IntSets.asList(barrierIDs));
+	}
+
+	/**
+	 * It builds the barrier index of the SubGraph from the parent graph's one (see BarrierIndex), mapping each child edge
+	 * to its parent edge; when some child edge does not correspond to an edge of the parent graph's snapshot, the index is
+	 * built from the child edges' barriers.
+	 *
+	 * @param csr the snapshot of the SubGraph;
+	 */
+	@Override
+	BarrierIndex buildBarrierIndex(GraphCSR csr) {
+		BarrierIndex parentIndex = parentGraph.getBarrierIndex();
+		int[] parentEdges = new int[csr.edgesCount];
+		for (int e = 0; e < csr.edgesCount; e++) {
+			EdgeGraph parentEdge = this.getParentEdge(csr.edges[e]);
+			parentEdges[e] = (parentEdge == null) ? -1 : parentIndex.csr.indexOf(parentEdge);
+			if (parentEdges[e] < 0) return super.buildBarrierIndex(csr);
+		}
+		return new BarrierIndex(csr, parentIndex, parentEdges);
 	}
 
 	/**
 	 * It stores information about landmark at nodes, within the SubGraph.
+	 * When the parent graph's landmarks have been compacted (see Graph.compactLandmarks()), the SubGraph gets its own
+	 * LandmarkStore, sharing the parent's arrays, and the child nodes' getters read their parent nodes' ranges; otherwise the
+	 * child nodes share the lists of their parent nodes. SubGraphs built before the compaction keep reading the lists they
+	 * shared with the parent nodes, which the compaction leaves untouched, until it is called again.
+	 * The SubGraph's precomputed costs are discarded.
 	 *
 	 */
 	public void setSubGraphLandmarks() 	{
-		ArrayList<NodeGraph> childNodes = this.getNodesList();
-
-		for (NodeGraph node : childNodes) {
-			NodeGraph parentNode = this.getParentNode(node);
-			node.visible2d = parentNode.visible2d;
-			node.localLandmarks = parentNode.localLandmarks;
-			node.distantLandmarks = parentNode.distantLandmarks;
-			node.anchors = parentNode.anchors;
-			node.distances = parentNode.distances;
+		this.clearCosts();
+		LandmarkStore parentStore = parentGraph.getLandmarkStore();
+		if (parentStore == null) {
+			this.landmarkStore = null;
+			ArrayList<NodeGraph> childNodes = this.getNodesList();
+			for (NodeGraph node : childNodes) setLandmarks(node, this.getParentNode(node));
+			return;
+		}
+
+		GraphCSR csr = this.getCSR();
+		int[] parentNodes = new int[csr.nodesCount];
+		for (int n = 0; n < csr.nodesCount; n++) {
+			NodeGraph parentNode = this.getParentNode(csr.nodes[n]);
+			parentNodes[n] = (parentNode == null) ? -1 : parentStore.csr.indexOf(parentNode);
 		}
+		LandmarkStore store = new LandmarkStore(csr, parentStore, parentNodes);
+		this.landmarkStore = store;
+		for (int n = 0; n < csr.nodesCount; n++) {
+			NodeGraph node = csr.nodes[n];
+			if (parentNodes[n] < 0) {
+				// nodes added to the parent graph after the compaction keep their own lists
+				NodeGraph parentNode = this.getParentNode(node);
+				if (parentNode != null) setLandmarks(node, parentNode);
+				continue;
+			}
+			// the parent node's read-only lists are shared
+			setLandmarks(node, this.getParentNode(node));
+			LandmarkStore.freeze(node);
+			store.assignTo(node, n);
+		}
+	}
+
+	private static void setLandmarks(NodeGraph node, NodeGraph parentNode) {
+		node.visible2d = parentNode.visible2d;
+		node.localLandmarks = parentNode.localLandmarks;
+		node.distantLandmarks = parentNode.distantLandmarks;
+		node.anchors = parentNode.anchors;
+		node.distances = parentNode.distances;
+		node.landmarkStore = parentNode.landmarkStore;
+		node.landmarkIndex = parentNode.landmarkIndex;
 	}
 
 	/**
@@ -263,7 +433,8 @@ public class SubGraph extends Graph
 	}
 
 	/**
-	 * It generates the centrality map of the SubGraph.
+	 * It generates the centrality map of the SubGraph, on the basis of the centrality of the parent nodes.
+	 * The map is Graph's centralityMap, also used by the methods inherited from Graph (e.g. salientNodesWithinSpace).
 	 *
 	 */
 	public void generateSubGraphCentralityMap() {
@@ -87,6 +87,39 @@ public class Utilities {
 		return null;
 	}
 
+	/**
+	 * It returns the k-th smallest value (k = 0 for the minimum) among the first values of an array, by selection
+	 * (Hoare's quickselect), in linear expected time. The array is partially reordered.
+	 *
+	 * @param values the array of values;
+	 * @param length the number of values to consider, from the beginning of the array;
+	 * @param k the position of the desired value in the ascending order;
+	 */
+	public static double kthSmallest(double[] values, int length, int k) {
+		int left = 0;
+		int right = length - 1;
+		while (left < right) {
+			double pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) i++;
+				while (values[j] > pivot) j--;
+				if (i <= j) {
+					double tmp = values[i];
+					values[i] = values[j];
+					values[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) right = j;
+			else if (k >= i) left = i;
+			else break;
+		}
+		return values[k];
+	}
+
 	/**
 	 * It returns a random value from a distribution with a given mean and a standard deviation.
 	 * If a direction is provided, only values higher or lower than the mean are returned.
@@ -2,14 +2,25 @@ package urbanmason.main;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.vividsolutions.jts.algorithm.ConvexHull;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.SpatialIndex;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.Boundable;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 import sim.field.geo.GeomVectorField;
 import sim.util.Bag;
@@ -18,6 +29,9 @@ import sim.util.geo.MasonGeometry;
 /**
  * This class extends GeomVectorField and provides further geometric, selection and filter functions.
  *
+ * Geometries are indexed by a Quadtree, which supports insertions at any time. Static layers (e.g. buildings, junctions,
+ * sight lines) can switch to a packed, bulk-loaded STRtree (see packSpatialIndex()), which is faster to query; the STRtree
+ * is rebuilt, on the next query, after geometries are added. Nearest-neighbour queries always use the STRtree.
  */
 
 public class VectorLayer extends GeomVectorField {
@@ -25,7 +39,13 @@ public class VectorLayer extends GeomVectorField {
 	private static final long serialVersionUID = 1L;
 	public ArrayList<MasonGeometry> geometriesList = new ArrayList<MasonGeometry>();
 	private Quadtree layerSpatialIndex = new Quadtree();
+	private STRtree packedSpatialIndex;
+	private boolean packed = false;
 	private GeometryFactory layerGeomFactory = new GeometryFactory();
+	private AttributeStore attributeStore;
+	// fields to index when the attribute store is (re)generated
+	private final HashSet<String> intIndexedFields = new HashSet<String>();
+	private final HashSet<String> stringIndexedFields = new HashSet<String>();
 
 	public VectorLayer() {
 		super();
@@ -40,12 +60,7 @@ public class VectorLayer extends GeomVectorField {
 	public VectorLayer(Bag geometries) {
 		super();
 
-		for (Object o : geometries) {
-			MasonGeometry mg = (MasonGeometry) o;
-			super.addGeometry(mg);
-			Envelope e = mg.getGeometry().getEnvelopeInternal();
-			layerSpatialIndex.insert(e, mg);
-		}
+		for (Object o : geometries) super.addGeometry((MasonGeometry) o);
 		generateGeometriesList();
 	}
 
@@ -53,8 +68,120 @@ public class VectorLayer extends GeomVectorField {
 	public void addGeometry(MasonGeometry mg)
 	{
 		super.addGeometry(mg);
-		Envelope e = mg.getGeometry().getEnvelopeInternal();
-		layerSpatialIndex.insert(e, mg);
+		packedSpatialIndex = null;
+		attributeStore = null;
+		if (!packed) {
+			Envelope e = mg.getGeometry().getEnvelopeInternal();
+			layerSpatialIndex.insert(e, mg);
+		}
+	}
+
+	/**
+	 * It replaces the Quadtree of the layer with a packed STRtree, bulk-loaded with all the geometries.
+	 * It is meant for layers that are not modified after loading; geometries can still be added, but the STRtree is then
+	 * rebuilt from scratch when next queried.
+	 *
+	 */
+	public void packSpatialIndex() {
+		packed = true;
+		layerSpatialIndex = null;
+		packedSpatialIndex = null;
+	}
+
+	/**
+	 * It returns the spatial index currently used for range queries.
+	 *
+	 */
+	private SpatialIndex spatialIndex() {
+		if (packed) return getPackedSpatialIndex();
+		return layerSpatialIndex;
+	}
+
+	/**
+	 * It returns the packed STRtree of the layer, bulk-loading it when not built yet or after geometries have been added.
+	 *
+	 */
+	private synchronized STRtree getPackedSpatialIndex() {
+		if (packedSpatialIndex == null) {
+			STRtree index = new STRtree();
+			for (Object o : this.getGeometries()) {
+				MasonGeometry mg = (MasonGeometry) o;
+				index.insert(mg.getGeometry().getEnvelopeInternal(), mg);
+			}
+			index.build();
+			packedSpatialIndex = index;
+		}
+		return packedSpatialIndex;
+	}
+
+	/**
+	 * It returns the k geometries in the VectorLayer nearest to a given Geometry, sorted by distance (closest first).
+	 * Fewer geometries are returned when the layer contains less than k geometries.
+	 * The packed STRtree is traversed best-first: tree nodes are visited in order of distance from their envelope, so that
+	 * only the nodes that can contain one of the k nearest geometries are opened.
+	 *
+	 * @param inputGeometry the geometry from which distances are computed;
+	 * @param k the number of geometries;
+	 */
+	public Bag nearestFeatures(Geometry inputGeometry, int k) {
+
+		Bag nearestObjects = new Bag();
+		STRtree index = getPackedSpatialIndex();
+		if (k <= 0 || index.isEmpty()) return nearestObjects;
+
+		Envelope e = inputGeometry.getEnvelopeInternal();
+		PriorityQueue<NearestCandidate> queue = new PriorityQueue<NearestCandidate>();
+		queue.add(new NearestCandidate(index.getRoot(), 0.0));
+
+		while (!queue.isEmpty() && nearestObjects.size() < k) {
+			NearestCandidate candidate = queue.poll();
+			if (candidate.item instanceof MasonGeometry) nearestObjects.add(candidate.item);
+			else if (candidate.item instanceof AbstractNode) {
+				for (Object o : ((AbstractNode) candidate.item).getChildBoundables()) {
+					Boundable child = (Boundable) o;
+					if (child instanceof ItemBoundable) {
+						MasonGeometry mg = (MasonGeometry) ((ItemBoundable) child).getItem();
+						queue.add(new NearestCandidate(mg, inputGeometry.distance(mg.geometry)));
+					}
+					else queue.add(new NearestCandidate(child, e.distance((Envelope) child.getBounds())));
+				}
+			}
+		}
+		return nearestObjects;
+	}
+
+	/**
+	 * It returns the geometry in the VectorLayer nearest to a given Geometry, or null if the layer is empty.
+	 *
+	 * @param inputGeometry the geometry from which distances are computed;
+	 */
+	public MasonGeometry nearestFeature(Geometry inputGeometry) {
+		Bag nearestObjects = nearestFeatures(inputGeometry, 1);
+		if (nearestObjects.isEmpty()) return null;
+		return (MasonGeometry) nearestObjects.get(0);
+	}
+
+	/**
+	 * An entry of the best-first search of nearestFeatures: a tree node with the distance from its envelope, or a geometry
+	 * with its exact distance.
+	 *
+	 */
+	private static class NearestCandidate implements Comparable<NearestCandidate> {
+		final Object item;
+		final double distance;
+
+		NearestCandidate(Object item, double distance) {
+			this.item = item;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(NearestCandidate other) {
+			int comparison = Double.compare(distance, other.distance);
+			// at equal distance geometries come first, so that they are returned before opening further nodes
+			if (comparison == 0) return Boolean.compare(other.item instanceof MasonGeometry, item instanceof MasonGeometry);
+			return comparison;
+		}
 	}
 
 	/**
@@ -63,11 +190,19 @@ public class VectorLayer extends GeomVectorField {
 	 * @param inputGeometry the geometry on which the intersection should be based;
 	 */
 	public final Bag intersectingFeatures(Geometry inputGeometry) {
+		return intersectingFeatures(PreparedGeometryFactory.prepare(inputGeometry));
+	}
+
+	/**
+	 * It returns all the geometries in the VectorLayer that intersect a given prepared Geometry.
+	 * Prepared geometries can be cached by the caller for inputs that are used repeatedly (e.g. regions, view fields).
+	 *
+	 * @param inputGeometry the prepared geometry on which the intersection should be based;
+	 */
+	public final Bag intersectingFeatures(PreparedGeometry inputGeometry) {
 
 		Bag intersectingObjects = new Bag();
-		Envelope e = inputGeometry.getEnvelopeInternal();
-		e.expandBy(java.lang.Math.max(e.getHeight(),e.getWidth()) * 0.01 );
-		List<?> gList = layerSpatialIndex.query(e);
+		List<?> gList = spatialIndex().query(queryEnvelope(inputGeometry.getGeometry()));
 
 		for (Object o: gList) {
 			MasonGeometry mg = (MasonGeometry) o;
@@ -82,10 +217,18 @@ public class VectorLayer extends GeomVectorField {
 	 * @param inputGeometry the geometry on which the containment relationship should be based;
 	 */
 	public final Bag containedFeatures(Geometry inputGeometry) {
+		return containedFeatures(PreparedGeometryFactory.prepare(inputGeometry));
+	}
+
+	/**
+	 * It returns all the geometries in the VectorLayer that are contained by a given prepared Geometry.
+	 * Prepared geometries can be cached by the caller for inputs that are used repeatedly (e.g. regions, view fields).
+	 *
+	 * @param inputGeometry the prepared geometry on which the containment relationship should be based;
+	 */
+	public final Bag containedFeatures(PreparedGeometry inputGeometry) {
 		Bag containedObjects = new Bag();
-		Envelope e = inputGeometry.getEnvelopeInternal();
-		e.expandBy(java.lang.Math.max(e.getHeight(),e.getWidth()) * 0.01 );
-		List<?> gList = layerSpatialIndex.query(e);
+		List<?> gList = spatialIndex().query(queryEnvelope(inputGeometry.getGeometry()));
 
 		for (Object o: gList) {
 			MasonGeometry mg = (MasonGeometry) o;
@@ -103,15 +246,14 @@ public class VectorLayer extends GeomVectorField {
 	 */
 	public Bag featuresBetweenLimits(Geometry inputGeometry, double lowerLimit, double upperLimit) {
 		Bag objects = new Bag();
-		Envelope e = inputGeometry.getEnvelopeInternal();
+		Envelope e = new Envelope(inputGeometry.getEnvelopeInternal());
 		e.expandBy(upperLimit);
-		List<?> gList = layerSpatialIndex.query(e);
+		List<?> gList = spatialIndex().query(e);
 
 		for (Object o: gList) {
 			MasonGeometry mg = (MasonGeometry) o;
-			if ((inputGeometry.distance(mg.geometry) >= lowerLimit) & (inputGeometry.distance(mg.getGeometry()) <= upperLimit))
-				objects.add(mg);
-			else continue;
+			double distance = inputGeometry.distance(mg.geometry);
+			if (distance >= lowerLimit && distance <= upperLimit) objects.add(mg);
 		}
 		return objects;
 	}
@@ -124,10 +266,10 @@ public class VectorLayer extends GeomVectorField {
 	 */
 	public Bag featuresWithinDistance(Geometry inputGeometry, double radius) {
 		Bag nearbyObjects = new Bag();
-		Envelope e = inputGeometry.getEnvelopeInternal();
+		Envelope e = new Envelope(inputGeometry.getEnvelopeInternal());
 		e.expandBy(radius);
 
-		List<?> gList = layerSpatialIndex.query(e);
+		List<?> gList = spatialIndex().query(e);
 
 		for (Object o: gList) {
 			MasonGeometry mg = (MasonGeometry) o;
@@ -137,99 +279,205 @@ public class VectorLayer extends GeomVectorField {
 		return nearbyObjects;
 	}
 
+	/**
+	 * It returns all the geometries in the VectorLayer that are contained within a certain radius from a given Geometry,
+	 * as featuresWithinDistance(), and it adds their distances from the Geometry to a list, in the same order.
+	 * Each distance is computed once, for both the filter and the list.
+	 *
+	 * @param inputGeometry the geometry on which the containment relationship should be based;
+	 * @param radius the distance from the input geometry;
+	 * @param distances the list to which the distances are added;
+	 */
+	Bag featuresWithinDistance(Geometry inputGeometry, double radius, List<Double> distances) {
+		Bag nearbyObjects = new Bag();
+		Envelope e = new Envelope(inputGeometry.getEnvelopeInternal());
+		e.expandBy(radius);
+
+		List<?> gList = spatialIndex().query(e);
+		for (Object o: gList) {
+			MasonGeometry mg = (MasonGeometry) o;
+			double distance = inputGeometry.distance(mg.geometry);
+			if (distance > radius) continue;
+			nearbyObjects.add(mg);
+			distances.add(distance);
+		}
+		return nearbyObjects;
+	}
+
+	/**
+	 * It returns all the geometries in the VectorLayer that are contained within a certain radius from a given prepared
+	 * Geometry. Geometries intersecting the input one are identified through the prepared predicate, without computing
+	 * distances; this pays off when the input is a polygon (e.g. a region) and many geometries lie within it.
+	 *
+	 * @param inputGeometry the prepared geometry on which the containment relationship should be based;
+	 * @param radius the distance from the input geometry;
+	 */
+	public Bag featuresWithinDistance(PreparedGeometry inputGeometry, double radius) {
+		Bag nearbyObjects = new Bag();
+		Geometry geometry = inputGeometry.getGeometry();
+		Envelope e = new Envelope(geometry.getEnvelopeInternal());
+		e.expandBy(radius);
+
+		List<?> gList = spatialIndex().query(e);
+
+		for (Object o: gList) {
+			MasonGeometry mg = (MasonGeometry) o;
+			if (inputGeometry.intersects(mg.geometry) || geometry.isWithinDistance(mg.geometry, radius)) nearbyObjects.add(mg);
+		}
+
+		return nearbyObjects;
+	}
+
+	/**
+	 * It returns the envelope used to query the spatial index for intersection and containment relationships: the envelope
+	 * of the geometry, slightly expanded. The geometry's own envelope is not modified.
+	 *
+	 * @param inputGeometry the geometry;
+	 */
+	private static Envelope queryEnvelope(Geometry inputGeometry) {
+		Envelope e = new Envelope(inputGeometry.getEnvelopeInternal());
+		e.expandBy(java.lang.Math.max(e.getHeight(),e.getWidth()) * 0.01 );
+		return e;
+	}
+
+	/**
+	 * It returns the columnar store of the layer's attributes, generating it when not available or after geometries have
+	 * been added.
+	 *
+	 */
+	private synchronized AttributeStore attributeStore() {
+		if (attributeStore == null) {
+			attributeStore = new AttributeStore(this.getGeometries());
+			for (String attributeName : intIndexedFields) attributeStore.indexInt(attributeName);
+			for (String attributeName : stringIndexedFields) attributeStore.indexString(attributeName);
+		}
+		return attributeStore;
+	}
+
+	/**
+	 * It discards the columnar copy of the layer's attributes used by the filters (e.g. filterFeatures(), selectFeatures(),
+	 * getIntArray()), which is generated again, with its indexes, when next needed.
+	 * The copy is discarded automatically when geometries are added; it should be called after changing the attributes of
+	 * geometries already in the layer, otherwise the filters keep reading the previous values.
+	 *
+	 */
+	public synchronized void invalidateAttributes() {
+		attributeStore = null;
+	}
+
+	/**
+	 * It builds a hash index on an Integer attribute, so that filters on its values become index lookups.
+	 * The index is kept when geometries are added to the layer (it is rebuilt when next needed).
+	 *
+	 * @param attributeName the field's name;
+	 */
+	public synchronized void createIntegerIndex(String attributeName) {
+		intIndexedFields.add(attributeName);
+		if (attributeStore != null) attributeStore.indexInt(attributeName);
+	}
+
+	/**
+	 * It builds a hash index on a String attribute, so that filters on its values become index lookups.
+	 * The index is kept when geometries are added to the layer (it is rebuilt when next needed).
+	 *
+	 * @param attributeName the field's name;
+	 */
+	public synchronized void createStringIndex(String attributeName) {
+		stringIndexedFields.add(attributeName);
+		if (attributeStore != null) attributeStore.indexString(attributeName);
+	}
+
 	/**
 	 * It returns all the geometries in the VectorLayer whose (Integer) attribute's value is equal or different to the provided.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
 	 *
 	 * @param attributeName the field's name on which the equality is verified;
 	 * @param attributeValue the desired (or not) value;
 	 * @param equal if true, features with values equal to the input attributeValue are kept; if false, all the other ones.
 	 */
 	public Bag filterFeatures(String attributeName, int attributeValue, boolean equal) {
-
-		Bag objects = new Bag();
-
-		for (Object o : this.getGeometries()) {
-			MasonGeometry mg = (MasonGeometry) o;
-			Integer attribute = mg.getIntegerAttribute(attributeName);
-			if (!equal && !attribute.equals(attributeValue)) objects.add(mg);
-			else if (attribute.equals(attributeValue)) objects.add(mg);
-		}
-		return objects;
+		AttributeStore store = attributeStore();
+		BitSet matching = store.matchingIntRows(attributeName, Collections.singleton(attributeValue));
+		return store.geometries(matching, !equal);
 	}
 
 	/**
 	 * It returns all the geometries in the VectorLayer whose (String) attribute's value is equal or different to the provided.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
 	 *
 	 * @param attributeName the field's name on which the equality is verified;
 	 * @param attributeValue the desired (or not) value;
 	 * @param equal if true, features with values equal to the input attributeValue are returned; if false, all the other ones.
 	 */
 	public Bag filterFeatures(String attributeName, String attributeValue, boolean equal) {
-		Bag objects = new Bag();
-
-		for (Object o : this.getGeometries()) {
-			MasonGeometry mg = (MasonGeometry) o;
-			String attribute = mg.getStringAttribute(attributeName);
-			if (!equal && !attribute.equals(attributeValue)) objects.add(mg);
-			else if (attribute.equals(attributeValue)) objects.add(mg);
-		}
-		return objects;
+		AttributeStore store = attributeStore();
+		BitSet matching = store.matchingStringRows(attributeName, Collections.singleton(attributeValue));
+		return store.geometries(matching, !equal);
 	}
 
 	/**
 	 * It returns all the geometries in the VectorLayer whose (String) attribute's value is contained in a provided list of values.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
 	 *
 	 * @param attributeName the field's name on which the equality is verified;
 	 * @param listValues the list of desired (or not) values;
 	 * @param equal if true, features with values contained in the input listValues are kept; if false, all the other ones.
 	 */
 	public Bag filterFeatures(String attributeName, List<String> listValues, boolean equal) {
-		Bag objects = new Bag();
-
-		for (Object o : this.getGeometries()) {
-			MasonGeometry mg = (MasonGeometry) o;
-			String attribute = mg.getStringAttribute(attributeName);
-			if (!equal && !listValues.contains(attribute)) objects.add(mg);
-			else if (listValues.contains(attribute)) objects.add(mg);
-		}
-		return null;
+		AttributeStore store = attributeStore();
+		BitSet matching = store.matchingStringRows(attributeName, listValues);
+		return store.geometries(matching, !equal);
 	}
 
 	/**
 	 * Given a field name in the VectorLayer, it returns the list of values.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
 	 *
 	 * @param attributeName the field's name;
 	 */
 	public List<Integer> getIntColumn(String attributeName) {
-		List<Integer> values = new ArrayList<Integer>();
-
-		for (Object o : this.getGeometries()) {
-			MasonGeometry mg = (MasonGeometry) o;
-			Integer attribute = mg.getIntegerAttribute(attributeName);
-			values.add(attribute);
-		}
+		AttributeStore.IntColumn column = attributeStore().intColumn(attributeName);
+		List<Integer> values = new ArrayList<Integer>(column.values.length);
+		for (int row = 0; row < column.values.length; row++) values.add(column.isMissing(row) ? null : column.values[row]);
 		return values;
 	}
 
+	/**
+	 * Given a field name in the VectorLayer, it returns its values as an array, following the order of the geometries
+	 * (getGeometries()); missing values are 0. The array should not be modified.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
+	 *
+	 * @param attributeName the field's name;
+	 */
+	public int[] getIntArray(String attributeName) {
+		return attributeStore().intColumn(attributeName).values;
+	}
+
+	/**
+	 * Given a field name in the VectorLayer, it returns its values as an array, following the order of the geometries
+	 * (getGeometries()); missing values are NaN. The array should not be modified.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
+	 *
+	 * @param attributeName the field's name;
+	 */
+	public double[] getDoubleArray(String attributeName) {
+		return attributeStore().doubleColumn(attributeName);
+	}
+
 	/**
 	 * Given a field name in the VectorLayer, and a list of values, it return a new VectorLayer only containing
 	 * features with values contained in the list (when equal == True), or the complementary ones (equal == false).
 	 * it returns the list of values.
+	 * Attribute values are read from a cached copy (see invalidateAttributes()).
 	 *
 	 * @param attributeName the field's name;
 	 * @param listValues the list of desired (or not) values;
 	 * @param equal if true, features with values contained in the input listValues are kept; if false, all the other ones.
 	 */
 	public VectorLayer selectFeatures(String attributeName, List<Integer> listValues, boolean equal) {
-		Bag objects = new Bag();
-
-		for (Object o : this.getGeometries()) {
-			MasonGeometry mg = (MasonGeometry) o;
-			Integer attribute = mg.getIntegerAttribute(attributeName);
-			if (!equal && !listValues.contains(attribute)) objects.add(mg);
-			else if (equal && listValues.contains(attribute)) objects.add(mg);
-		}
-		VectorLayer newLayer = new VectorLayer(objects);
+		AttributeStore store = attributeStore();
+		BitSet matching = store.matchingIntRows(attributeName, listValues);
+		VectorLayer newLayer = new VectorLayer(store.geometries(matching, !equal));
 		return newLayer;
 	}
 
@@ -293,10 +541,17 @@ public class VectorLayer extends GeomVectorField {
 	 * @param inputGeometry the input geometry on which the intersection is verified;
 	 */
 	public boolean isIntersected(Geometry inputGeometry) {
+		return isIntersected(PreparedGeometryFactory.prepare(inputGeometry));
+	}
 
-		Envelope e = inputGeometry.getEnvelopeInternal();
-		e.expandBy(java.lang.Math.max(e.getHeight(),e.getWidth()) * 0.01 );
-		List<?> gList = layerSpatialIndex.query(e);
+	/**
+	 * It verifies if any of the features of this VectorLayer intersect a given prepared geometry.
+	 *
+	 * @param inputGeometry the prepared input geometry on which the intersection is verified;
+	 */
+	public boolean isIntersected(PreparedGeometry inputGeometry) {
+
+		List<?> gList = spatialIndex().query(queryEnvelope(inputGeometry.getGeometry()));
 
 		for (Object o: gList) {
 			MasonGeometry mg = (MasonGeometry) o;
@@ -312,12 +567,16 @@ public class VectorLayer extends GeomVectorField {
 	public void generateGeometriesList() {
 
 		geometriesList.clear();
-		layerSpatialIndex = new Quadtree();
+		packedSpatialIndex = null;
+		attributeStore = null;
+		if (!packed) layerSpatialIndex = new Quadtree();
 		for (Object o: this.getGeometries()) {
 			MasonGeometry mg = (MasonGeometry) o;
 			geometriesList.add(mg);
-			Envelope e = mg.getGeometry().getEnvelopeInternal();
-			layerSpatialIndex.insert(e, mg);
+			if (!packed) {
+				Envelope e = mg.getGeometry().getEnvelopeInternal();
+				layerSpatialIndex.insert(e, mg);
+			}
 		}
 	}
 }
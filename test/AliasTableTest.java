@@ -0,0 +1,109 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * AliasTable and NodesSampler against the given weights.
+ *
+ */
+public class AliasTableTest {
+
+	private static final int COINS = 100000;
+
+	@Test
+	public void probabilitiesMatchWeights() {
+		Random random = new Random(31);
+		for (int run = 0; run < 50; run++) {
+			double[] weights = new double[1 + random.nextInt(40)];
+			for (int i = 0; i < weights.length; i++) {
+				int kind = random.nextInt(6);
+				weights[i] = (kind == 0) ? 0.0 : (kind == 1) ? random.nextDouble() * 1000.0 : random.nextDouble();
+			}
+			weights[random.nextInt(weights.length)] = 1.0;
+			assertProbabilities(weights);
+		}
+	}
+
+	@Test
+	public void invalidWeightsCountAsZero() {
+		double[] weights = new double[] {2.0, -1.0, Double.NaN, Double.POSITIVE_INFINITY, 0.0, 6.0};
+		AliasTable table = new AliasTable(weights);
+		assertEquals(8.0, table.totalWeight, 0.0);
+		assertProbabilities(new double[] {2.0, 0.0, 0.0, 0.0, 0.0, 6.0}, table);
+	}
+
+	@Test
+	public void emptyTables() {
+		assertTrue(new AliasTable(new double[] {0.0, 0.0, -3.0}).isEmpty());
+		assertTrue(new AliasTable(new double[0]).isEmpty());
+		assertTrue(!new AliasTable(new double[] {0.0, 1e-300}).isEmpty());
+	}
+
+	@Test
+	public void samplerFrequencies() {
+		Graph graph = TestGraphs.grid(5, 5, 10.0, 0.0, new Random(32));
+		HashMap<NodeGraph, Double> weights = new HashMap<NodeGraph, Double>();
+		double total = 0.0;
+		for (NodeGraph node : graph.nodesMap.values()) {
+			double weight = (node.getID() % 4 == 0) ? 0.0 : node.getID();
+			weights.put(node, weight);
+			total += weight;
+		}
+		NodesSampler sampler = NodesSampler.weighted(graph, weights);
+		assertNotNull(sampler);
+
+		int draws = 1000000;
+		int[] counts = new int[graph.nodesMap.size()];
+		for (int ID : sampler.sampleIDs(draws, 33L)) counts[ID]++;
+		for (NodeGraph node : graph.nodesMap.values()) {
+			double p = weights.get(node) / total;
+			if (p == 0.0) assertEquals(0, counts[node.getID()]);
+			// within 5 standard deviations
+			else assertEquals(p * draws, counts[node.getID()], 5.0 * Math.sqrt(draws * p * (1.0 - p)));
+		}
+		// reproducible
+		assertTrue(java.util.Arrays.equals(sampler.sampleIDs(100, 7L), sampler.sampleIDs(100, 7L)));
+	}
+
+	@Test
+	public void samplerWithoutWeights() {
+		Graph graph = TestGraphs.grid(3, 3, 10.0, 0.0, new Random(34));
+		assertNull(NodesSampler.byCentrality(graph));
+		assertNull(NodesSampler.weighted(graph, new HashMap<NodeGraph, Double>()));
+		assertNull(NodesSampler.weighted(graph, node -> -1.0));
+	}
+
+	private static void assertProbabilities(double[] weights) {
+		assertProbabilities(weights, new AliasTable(weights));
+	}
+
+	/**
+	 * It integrates the table over a fine grid of coins, for each column, and compares the resulting probabilities with the
+	 * normalised weights; zero weights must never be drawn.
+	 *
+	 */
+	private static void assertProbabilities(double[] weights, AliasTable table) {
+		int n = weights.length;
+		double total = 0.0;
+		for (double weight : weights) total += weight;
+		double[] probabilities = new double[n];
+		for (int column = 0; column < n; column++) {
+			for (int c = 0; c < COINS; c++) {
+				int drawn = table.sample(column, (c + 0.5) / COINS);
+				probabilities[drawn] += 1.0 / COINS / n;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (weights[i] == 0.0) assertEquals("weight 0 drawn at " + i, 0.0, probabilities[i], 0.0);
+			else assertEquals(weights[i] / total, probabilities[i], 2.0 / COINS);
+		}
+	}
+}
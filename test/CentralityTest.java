@@ -0,0 +1,150 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Centrality (Brandes' betweenness and closeness) against a brute-force computation over all the pairs of nodes.
+ *
+ */
+public class CentralityTest {
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void betweennessOnGrids() {
+		Random random = new Random(1);
+		// many shortest paths of equal length
+		for (int run = 0; run < 10; run++) {
+			Graph graph = TestGraphs.grid(5, 4, 10.0, 0.2, random);
+			assertArrayEquals(bruteForceBetweenness(graph), Centrality.betweenness(graph, EdgeCostFunction.LENGTH, 0, 0L), 1e-9);
+		}
+	}
+
+	@Test
+	public void betweennessOnRandomGraphs() {
+		Random random = new Random(2);
+		for (int run = 0; run < 10; run++) {
+			Graph graph = TestGraphs.random(25, 30, 100.0, random);
+			assertArrayEquals(bruteForceBetweenness(graph), Centrality.betweenness(graph, EdgeCostFunction.LENGTH, 0, 0L), 1e-9);
+		}
+	}
+
+	@Test
+	public void sampledBetweenness() {
+		Graph graph = TestGraphs.random(30, 40, 100.0, new Random(3));
+		int nodesCount = graph.getCSR().nodesCount;
+		// sampling all the nodes is the exact computation
+		assertArrayEquals(Centrality.betweenness(graph, EdgeCostFunction.LENGTH, 0, 0L),
+				Centrality.betweenness(graph, EdgeCostFunction.LENGTH, nodesCount, 5L), 0.0);
+		// same seed, same sample
+		assertArrayEquals(Centrality.betweenness(graph, EdgeCostFunction.LENGTH, 10, 5L),
+				Centrality.betweenness(graph, EdgeCostFunction.LENGTH, 10, 5L), 1e-9);
+	}
+
+	@Test
+	public void closeness() {
+		Random random = new Random(4);
+		for (int run = 0; run < 10; run++) {
+			// disconnected grids too
+			Graph graph = (run % 2 == 0) ? TestGraphs.grid(5, 4, 10.0, 0.4, random) : TestGraphs.random(25, 30, 100.0, random);
+			double[][] dist = distances(graph.getCSR());
+			double[] expected = new double[dist.length];
+			for (int s = 0; s < dist.length; s++) {
+				double total = 0.0;
+				int reached = 0;
+				for (int t = 0; t < dist.length; t++) {
+					if (t == s || dist[s][t] == Double.POSITIVE_INFINITY) continue;
+					total += dist[s][t];
+					reached++;
+				}
+				expected[s] = (total > 0.0) ? reached / total : 0.0;
+			}
+			assertArrayEquals(expected, Centrality.closeness(graph, EdgeCostFunction.LENGTH), 1e-9);
+		}
+	}
+
+	@Test
+	public void setBetweennessCentrality() {
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(6));
+		Centrality.setBetweennessCentrality(graph, 0, 0L);
+		double[] expected = bruteForceBetweenness(graph);
+		GraphCSR csr = graph.getCSR();
+		for (int i = 0; i < csr.nodesCount; i++) assertEquals(expected[i], csr.nodes[i].centrality, 1e-9);
+		assertEquals(csr.nodesCount, graph.getCentralityMap().size());
+	}
+
+	/**
+	 * Betweenness by definition: for each unordered pair of nodes (s, t), each other node v gets the share of the shortest
+	 * paths between s and t through v, sigma(s, v) * sigma(v, t) / sigma(s, t).
+	 *
+	 */
+	private static double[] bruteForceBetweenness(Graph graph) {
+
+		GraphCSR csr = graph.getCSR();
+		double[][] dist = distances(csr);
+		double[][] sigma = pathsCounts(csr, dist);
+		int n = csr.nodesCount;
+		double[] betweenness = new double[n];
+		for (int s = 0; s < n; s++) {
+			for (int t = s + 1; t < n; t++) {
+				if (dist[s][t] == Double.POSITIVE_INFINITY) continue;
+				for (int v = 0; v < n; v++) {
+					if (v == s || v == t) continue;
+					if (equal(dist[s][v] + dist[v][t], dist[s][t])) betweenness[v] += sigma[s][v] * sigma[v][t] / sigma[s][t];
+				}
+			}
+		}
+		return betweenness;
+	}
+
+	private static double[][] distances(GraphCSR csr) {
+		int n = csr.nodesCount;
+		double[][] dist = new double[n][n];
+		for (double[] row : dist) Arrays.fill(row, Double.POSITIVE_INFINITY);
+		for (int i = 0; i < n; i++) {
+			dist[i][i] = 0.0;
+			for (int arc = csr.offsets[i]; arc < csr.offsets[i + 1]; arc++)
+				dist[i][csr.targets[arc]] = Math.min(dist[i][csr.targets[arc]], csr.edgeLengths[csr.arcEdges[arc]]);
+		}
+		for (int k = 0; k < n; k++)
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					if (dist[i][k] + dist[k][j] < dist[i][j]) dist[i][j] = dist[i][k] + dist[k][j];
+		return dist;
+	}
+
+	/**
+	 * The number of shortest paths between each pair of nodes, counted source by source in order of distance.
+	 *
+	 */
+	private static double[][] pathsCounts(GraphCSR csr, double[][] dist) {
+		int n = csr.nodesCount;
+		double[][] sigma = new double[n][n];
+		for (int s = 0; s < n; s++) {
+			final double[] fromSource = dist[s];
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++) order[i] = i;
+			Arrays.sort(order, (a, b) -> Double.compare(fromSource[a], fromSource[b]));
+			sigma[s][s] = 1.0;
+			for (int v : order) {
+				if (v == s || fromSource[v] == Double.POSITIVE_INFINITY) continue;
+				for (int arc = csr.offsets[v]; arc < csr.offsets[v + 1]; arc++) {
+					int u = csr.targets[arc];
+					if (fromSource[u] < fromSource[v] && equal(fromSource[u] + csr.edgeLengths[csr.arcEdges[arc]], fromSource[v]))
+						sigma[s][v] += sigma[s][u];
+				}
+			}
+		}
+		return sigma;
+	}
+
+	private static boolean equal(double value, double otherValue) {
+		return Math.abs(value - otherValue) <= EPSILON * Math.max(Math.abs(value), Math.abs(otherValue));
+	}
+}
@@ -0,0 +1,112 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Graph.updateCentrality() against a full regeneration of the centrality map.
+ *
+ */
+public class CentralityUpdateTest {
+
+	@Test
+	public void incrementalUpdateEqualsRegeneration() {
+		Random random = new Random(42);
+		for (int run = 0; run < 50; run++) {
+			Graph graph = TestGraphs.grid(8, 8, 10.0, 0.1, random);
+			ArrayList<NodeGraph> nodes = new ArrayList<NodeGraph>(graph.nodesMap.values());
+			for (NodeGraph node : nodes) node.centrality = random.nextDouble();
+			graph.generateCentralityMap();
+
+			// a few rounds of changes, including new minimum and maximum values and unchanged values
+			for (int round = 0; round < 5; round++) {
+				Map<NodeGraph, Double> newValues = new HashMap<NodeGraph, Double>();
+				int changes = 1 + random.nextInt(round == 4 ? nodes.size() : 10);
+				for (int c = 0; c < changes; c++) {
+					NodeGraph node = nodes.get(random.nextInt(nodes.size()));
+					double value = random.nextDouble() * 1.2 - 0.1;
+					if (random.nextInt(10) == 0) value = node.centrality;
+					newValues.put(node, value);
+				}
+				graph.updateCentrality(newValues);
+				assertEqualsRegeneration(graph, nodes);
+			}
+		}
+	}
+
+	@Test
+	public void nodesOutsideTheMapAreIgnored() {
+		Random random = new Random(7);
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, random);
+		for (NodeGraph node : graph.nodesMap.values()) node.centrality = random.nextDouble();
+		graph.generateCentralityMap();
+		double[] values = graph.centralityValues.clone();
+
+		NodeGraph other = TestGraphs.grid(2, 2, 10.0, 0.0, random).nodesMap.get(0);
+		Map<NodeGraph, Double> newValues = new HashMap<NodeGraph, Double>();
+		newValues.put(other, 5.0);
+		graph.updateCentrality(newValues);
+		assertArrayEquals(values, graph.centralityValues, 0.0);
+		assertEquals(0.0, other.centrality, 0.0);
+	}
+
+	@Test
+	public void regenerationKeepsTheIndexes() {
+		Random random = new Random(9);
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, random);
+		for (NodeGraph node : graph.nodesMap.values()) node.centrality = random.nextDouble();
+		GraphCSR csr = graph.getCSR();
+		BarrierIndex barrierIndex = graph.getBarrierIndex();
+		graph.generateCentralityMap();
+		graph.generateCentralityMap();
+		assertSame(csr, graph.getCSR());
+		assertSame(barrierIndex, graph.getBarrierIndex());
+
+		// a node missing from the nodes map: the indexes built on the map are discarded
+		graph.nodesMap.remove(0);
+		graph.generateCentralityMap();
+		assertEquals(16, graph.nodesMap.size());
+		assertNotSame(csr, graph.getCSR());
+	}
+
+	private static void assertEqualsRegeneration(Graph graph, ArrayList<NodeGraph> nodes) {
+
+		NodeGraph[] updatedNodes = graph.centralityNodes.clone();
+		double[] updatedValues = graph.centralityValues.clone();
+		double[] updatedRescaled = new double[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) updatedRescaled[i] = nodes.get(i).centrality_sc;
+		ArrayList<NodeGraph> updatedMapKeys = new ArrayList<NodeGraph>(graph.getCentralityMap().keySet());
+		ArrayList<Double> updatedMapValues = new ArrayList<Double>(graph.getCentralityMap().values());
+
+		graph.generateCentralityMap();
+
+		assertArrayEquals(graph.centralityValues, updatedValues, 0.0);
+		double[] rescaled = new double[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) rescaled[i] = nodes.get(i).centrality_sc;
+		assertArrayEquals(rescaled, updatedRescaled, 1e-12);
+		assertEquals(new ArrayList<Double>(graph.getCentralityMap().values()), updatedMapValues);
+
+		// same nodes; same order wherever the values are distinct
+		NodeGraph[] sortedByID = updatedNodes.clone();
+		NodeGraph[] regeneratedByID = graph.centralityNodes.clone();
+		Arrays.sort(sortedByID, (a, b) -> Integer.compare(a.getID(), b.getID()));
+		Arrays.sort(regeneratedByID, (a, b) -> Integer.compare(a.getID(), b.getID()));
+		assertArrayEquals(regeneratedByID, sortedByID);
+		for (int i = 0; i < updatedNodes.length; i++) {
+			boolean tie = (i > 0 && updatedValues[i - 1] == updatedValues[i])
+					|| (i + 1 < updatedValues.length && updatedValues[i + 1] == updatedValues[i]);
+			if (!tie) assertSame(graph.centralityNodes[i], updatedNodes[i]);
+			assertSame(updatedNodes[i], updatedMapKeys.get(i));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * DensityCounters: counts incremented by concurrent threads, reset and exported to the edges.
+ *
+ */
+public class DensityCountersTest {
+
+	private static final String[] CATEGORIES = {"RD", "AC", "custom"};
+
+	@Test
+	public void concurrentIncrementsAreNotLost() throws Exception {
+		GraphCSR csr = TestGraphs.grid(6, 6, 10.0, 0.0, new Random(71)).getCSR();
+		// one stripe, a number of stripes rounded up, more stripes than threads
+		for (int stripes : new int[] {1, 3, 16}) {
+			DensityCounters counters = new DensityCounters(csr, stripes, CATEGORIES);
+			long[] expected = incrementConcurrently(counters, csr, 8, 20000);
+			assertCounts(expected, counters, csr);
+		}
+	}
+
+	@Test
+	public void resetDensities() throws Exception {
+		GraphCSR csr = TestGraphs.grid(5, 5, 10.0, 0.0, new Random(72)).getCSR();
+		DensityCounters counters = new DensityCounters(csr, 4, CATEGORIES);
+		incrementConcurrently(counters, csr, 4, 5000);
+		counters.resetDensities();
+		assertCounts(new long[csr.edgesCount * CATEGORIES.length], counters, csr);
+
+		// counting restarts from zero
+		long[] expected = incrementConcurrently(counters, csr, 4, 5000);
+		assertCounts(expected, counters, csr);
+	}
+
+	@Test
+	public void exportToEdges() {
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(73));
+		GraphCSR csr = graph.getCSR();
+		DensityCounters counters = new DensityCounters(graph, CATEGORIES);
+		assertEquals(-1, counters.categoryIndex("LL"));
+		int rd = counters.categoryIndex("RD"), ac = counters.categoryIndex("AC"), custom = counters.categoryIndex("custom");
+
+		for (int e = 0; e < csr.edgesCount; e++) {
+			for (int i = 0; i < e; i++) counters.increment(csr.edges[e], rd);
+			counters.add(e, ac, 2 * e + 1);
+		}
+		// capped to Integer.MAX_VALUE
+		counters.add(0, custom, Integer.MAX_VALUE + 10L);
+		// edges outside the snapshot are ignored
+		counters.increment(TestGraphs.addLine(new Graph(), 99, 0.0, 0.0, 1.0, 1.0), rd);
+
+		counters.exportToEdges();
+		for (int e = 0; e < csr.edgesCount; e++) {
+			EdgeGraph edge = csr.edges[e];
+			assertEquals(e, edge.RD);
+			assertEquals(2 * e + 1, edge.AC);
+			assertEquals(Integer.valueOf(e), edge.densities.get("RD"));
+			assertEquals(Integer.valueOf(2 * e + 1), edge.densities.get("AC"));
+			assertEquals(Integer.valueOf(e == 0 ? Integer.MAX_VALUE : 0), edge.densities.get("custom"));
+			// categories not counted are left untouched
+			assertEquals(0, edge.LL);
+		}
+
+		// exported again after a reset
+		counters.resetDensities();
+		counters.exportToEdges();
+		for (EdgeGraph edge : csr.edges) {
+			assertEquals(0, edge.RD);
+			assertEquals(Integer.valueOf(0), edge.densities.get("custom"));
+		}
+	}
+
+	/**
+	 * It increments the counters from several threads started together, each with its own random edges, categories and
+	 * deltas, and returns the expected counts, at [edgeIndex * number of categories + category].
+	 *
+	 */
+	private static long[] incrementConcurrently(DensityCounters counters, GraphCSR csr, int threads, int increments)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			Callable<long[]> task = () -> {
+				long[] counts = new long[csr.edgesCount * CATEGORIES.length];
+				start.await();
+				for (int i = 0; i < increments; i++) {
+					int edgeIndex = random.nextInt(csr.edgesCount), category = random.nextInt(CATEGORIES.length);
+					switch (random.nextInt(3)) {
+					case 0:
+						counters.increment(edgeIndex, category);
+						counts[edgeIndex * CATEGORIES.length + category]++;
+						break;
+					case 1:
+						counters.increment(csr.edges[edgeIndex], category);
+						counts[edgeIndex * CATEGORIES.length + category]++;
+						break;
+					default:
+						long delta = random.nextInt(5);
+						counters.add(edgeIndex, category, delta);
+						counts[edgeIndex * CATEGORIES.length + category] += delta;
+						break;
+					}
+				}
+				return counts;
+			};
+			futures.add(executor.submit(task));
+		}
+		start.countDown();
+		long[] expected = new long[csr.edgesCount * CATEGORIES.length];
+		try {
+			for (Future<long[]> future : futures) {
+				long[] counts = future.get();
+				for (int i = 0; i < expected.length; i++) expected[i] += counts[i];
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		return expected;
+	}
+
+	private static void assertCounts(long[] expected, DensityCounters counters, GraphCSR csr) {
+		assertArrayEquals(expected, counters.snapshot());
+		for (int c = 0; c < CATEGORIES.length; c++) {
+			long[] category = counters.snapshot(c);
+			for (int e = 0; e < csr.edgesCount; e++) {
+				assertEquals(expected[e * CATEGORIES.length + c], category[e]);
+				assertEquals(expected[e * CATEGORIES.length + c], counters.get(e, c));
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * DualGraphBuilder and PathFinder.angularPath() against the primal graph: dual edges are checked junction by junction and
+ * angular paths against a brute-force search over the (segment, entry junction) pairs.
+ *
+ */
+public class DualGraphBuilderTest {
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void dualEdgesOnRandomGraphs() {
+		Random random = new Random(1);
+		for (int run = 0; run < 5; run++) {
+			Graph graph = TestGraphs.random(20, 20, 100.0, random);
+			assertDualGraph(graph, DualGraphBuilder.build(graph));
+		}
+	}
+
+	@Test
+	public void parallelSegmentsAreLinkedAtBothJunctions() {
+
+		Graph graph = parallelSegments();
+		Graph dualGraph = DualGraphBuilder.build(graph);
+		assertDualGraph(graph, dualGraph);
+
+		EdgeGraph straight = graph.edgesGraph.get(1), curved = graph.edgesGraph.get(2);
+		HashSet<NodeGraph> junctions = new HashSet<NodeGraph>();
+		for (EdgeGraph dualEdge : dualGraph.edgesGraph) {
+			if (links(dualEdge, straight, curved)) assertTrue(junctions.add(dualEdge.commonPrimalJunction));
+		}
+		assertEquals(new HashSet<NodeGraph>(Arrays.asList(straight.u, straight.v)), junctions);
+	}
+
+	@Test
+	public void angularPathsOnRandomGraphs() {
+		Random random = new Random(2);
+		for (int run = 0; run < 5; run++) {
+			Graph graph = (run % 2 == 0) ? TestGraphs.random(15, 15, 100.0, random) : TestGraphs.grid(4, 4, 10.0, 0.2, random);
+			assertAllPairs(graph, DualGraphBuilder.build(graph));
+		}
+	}
+
+	@Test
+	public void angularPathChargesTheDeflectionOfTheExitJunction() {
+
+		Graph graph = parallelSegments();
+		Graph dualGraph = DualGraphBuilder.build(graph);
+		// the two links between the parallel segments get different deflections, e.g. measured along the lines' geometry:
+		// leaving a segment at a junction must not be charged the deflection measured at the other one
+		EdgeGraph straight = graph.edgesGraph.get(1), curved = graph.edgesGraph.get(2);
+		NodeGraph east = graph.getNode(new Coordinate(10.0, 0.0));
+		for (EdgeGraph dualEdge : dualGraph.edgesGraph)
+			if (links(dualEdge, straight, curved)) dualEdge.deflectionDegrees = (dualEdge.commonPrimalJunction == east) ? 180.0 : 0.0;
+
+		assertAllPairs(graph, dualGraph);
+		NodeGraph origin = graph.getNode(new Coordinate(-10.0, 0.0));
+		NodeGraph destination = graph.getNode(new Coordinate(-10.0, 1.0));
+		Path path = new PathFinder(dualGraph).angularPath(origin, destination);
+		// straight back at the western junction: through the parallel segments it would be 180 + 0
+		assertEquals(2, path.edges.size());
+	}
+
+	@Test
+	public void angularPathOnSubGraph() {
+		Graph graph = TestGraphs.grid(5, 5, 10.0, 0.0, new Random(3));
+		Graph dualGraph = DualGraphBuilder.build(graph);
+		SubGraph subGraph = new SubGraph(dualGraph, dualGraph.edgesGraph);
+		for (EdgeGraph childEdge : subGraph.edgesGraph)
+			assertSame(subGraph.getParentEdge(childEdge).commonPrimalJunction, childEdge.commonPrimalJunction);
+
+		NodeGraph origin = graph.nodesMap.get(0), destination = graph.nodesMap.get(24);
+		Path path = new PathFinder(dualGraph).angularPath(origin, destination);
+		Path subGraphPath = new PathFinder(subGraph).angularPath(origin, destination);
+		assertEquals(lastCost(path), lastCost(subGraphPath), EPSILON);
+		assertEquals(path.edges, subGraphPath.edges);
+		for (NodeGraph child : subGraphPath.mapWrappers.keySet()) assertNotNull(subGraph.getParentNode(child));
+	}
+
+	/**
+	 * Two segments between the same junctions, (0, 0) and (10, 0), one straight and one curved, with a segment towards
+	 * (-10, 0) and one towards (-10, 1) at the western junction and one towards (20, 0) at the eastern junction.
+	 *
+	 */
+	private static Graph parallelSegments() {
+		Graph graph = new Graph();
+		TestGraphs.addLine(graph, 0, -10.0, 0.0, 0.0, 0.0);
+		TestGraphs.addLine(graph, 1, 0.0, 0.0, 10.0, 0.0);
+		TestGraphs.addLine(graph, 2, 0.0, 0.0, 10.0, 0.0);
+		TestGraphs.addLine(graph, 3, 10.0, 0.0, 20.0, 0.0);
+		TestGraphs.addLine(graph, 4, 0.0, 0.0, -10.0, 1.0);
+		TestGraphs.assignNodeIDs(graph);
+		return graph;
+	}
+
+	private static boolean links(EdgeGraph dualEdge, EdgeGraph edge, EdgeGraph otherEdge) {
+		EdgeGraph edgeU = dualEdge.u.primalEdge, edgeV = dualEdge.v.primalEdge;
+		return (edgeU == edge && edgeV == otherEdge) || (edgeU == otherEdge && edgeV == edge);
+	}
+
+	/**
+	 * It checks that every pair of distinct segments meeting at a junction is linked by one dual edge at that junction,
+	 * with the deflection measured there, and that the dual nodes are linked to the segments.
+	 *
+	 */
+	private static void assertDualGraph(Graph graph, Graph dualGraph) {
+
+		assertEquals(graph.edgesGraph.size(), dualGraph.nodesMap.size());
+		for (EdgeGraph edge : graph.edgesGraph) {
+			assertNotNull(edge.dualNode);
+			assertSame(edge, edge.dualNode.primalEdge);
+			assertSame(edge.dualNode, dualGraph.nodesMap.get(edge.getID()));
+		}
+
+		int expected = 0;
+		for (NodeGraph junction : graph.nodesMap.values()) {
+			int segments = segmentsAt(junction).size();
+			expected += segments * (segments - 1) / 2;
+		}
+		assertEquals(expected, dualGraph.edgesGraph.size());
+
+		HashSet<List<Object>> links = new HashSet<List<Object>>();
+		for (EdgeGraph dualEdge : dualGraph.edgesGraph) {
+			NodeGraph junction = dualEdge.commonPrimalJunction;
+			EdgeGraph edge = dualEdge.u.primalEdge, otherEdge = dualEdge.v.primalEdge;
+			assertNotNull(junction);
+			assertTrue(edge.u == junction || edge.v == junction);
+			assertTrue(otherEdge.u == junction || otherEdge.v == junction);
+			assertEquals(DualGraphBuilder.deflection(junction, edge, otherEdge), dualEdge.deflectionDegrees, EPSILON);
+			// one link per pair of segments and junction
+			assertTrue(links.add(Arrays.asList(junction, edge, otherEdge)));
+			assertTrue(links.add(Arrays.asList(junction, otherEdge, edge)));
+		}
+	}
+
+	private static ArrayList<EdgeGraph> segmentsAt(NodeGraph junction) {
+		ArrayList<EdgeGraph> edges = new ArrayList<EdgeGraph>();
+		for (Object o : junction.getOutEdges().getEdges()) {
+			EdgeGraph edge = (EdgeGraph) ((GeomPlanarGraphDirectedEdge) o).getEdge();
+			if (edge.u != edge.v && !edges.contains(edge)) edges.add(edge);
+		}
+		return edges;
+	}
+
+	/**
+	 * It checks the angular paths between all the pairs of junctions against a Bellman-Ford search over the pairs (segment,
+	 * entry junction), with the deflections read from the dual edges at the exit junction.
+	 *
+	 */
+	private static void assertAllPairs(Graph graph, Graph dualGraph) {
+
+		ArrayList<EdgeGraph> edges = graph.edgesGraph;
+		int statesCount = edges.size() * 2;
+		PathFinder pathFinder = new PathFinder(dualGraph);
+		for (NodeGraph origin : graph.nodesMap.values()) {
+			// state 2 * e: segment e entered from u; 2 * e + 1: entered from v
+			double[] dist = new double[statesCount];
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			for (int e = 0; e < edges.size(); e++) {
+				if (edges.get(e).u == origin) dist[2 * e] = 0.0;
+				if (edges.get(e).v == origin) dist[2 * e + 1] = 0.0;
+			}
+			for (int iteration = 0; iteration < statesCount; iteration++) {
+				for (EdgeGraph dualEdge : dualGraph.edgesGraph) {
+					relax(dist, edges, dualEdge.u.primalEdge, dualEdge.v.primalEdge, dualEdge);
+					relax(dist, edges, dualEdge.v.primalEdge, dualEdge.u.primalEdge, dualEdge);
+				}
+			}
+
+			for (NodeGraph destination : graph.nodesMap.values()) {
+				if (destination == origin) continue;
+				double expected = Double.POSITIVE_INFINITY;
+				for (int e = 0; e < edges.size(); e++) {
+					if (edges.get(e).v == destination) expected = Math.min(expected, dist[2 * e]);
+					if (edges.get(e).u == destination) expected = Math.min(expected, dist[2 * e + 1]);
+				}
+				Path path = pathFinder.angularPath(origin, destination);
+				if (expected == Double.POSITIVE_INFINITY) {
+					assertNull(path);
+					continue;
+				}
+				assertNotNull(path);
+				assertPath(path, origin, destination);
+				assertEquals(expected, lastCost(path), EPSILON);
+			}
+		}
+	}
+
+	private static void relax(double[] dist, ArrayList<EdgeGraph> edges, EdgeGraph edge, EdgeGraph nextEdge, EdgeGraph dualEdge) {
+		NodeGraph junction = dualEdge.commonPrimalJunction;
+		int e = edges.indexOf(edge), next = edges.indexOf(nextEdge);
+		// edge left at the junction, nextEdge entered there
+		double exiting = (edge.v == junction) ? dist[2 * e] : dist[2 * e + 1];
+		int entering = (nextEdge.u == junction) ? 2 * next : 2 * next + 1;
+		dist[entering] = Math.min(dist[entering], exiting + dualEdge.deflectionDegrees);
+	}
+
+	/**
+	 * It checks that the primal directed edges are contiguous from the origin to the destination and that each dual node is
+	 * reached through a dual edge measured at the junction where its segment is entered.
+	 *
+	 */
+	private static void assertPath(Path path, NodeGraph origin, NodeGraph destination) {
+		NodeGraph node = origin;
+		for (GeomPlanarGraphDirectedEdge edge : path.edges) {
+			assertSame(node, edge.getFromNode());
+			node = (NodeGraph) edge.getToNode();
+		}
+		assertSame(destination, node);
+
+		double cost = 0.0;
+		for (GeomPlanarGraphDirectedEdge edge : path.edges) {
+			NodeWrapper wrapper = path.mapWrappers.get(((EdgeGraph) edge.getEdge()).dualNode);
+			assertSame(edge.getFromNode(), wrapper.commonPrimalJunction);
+			if (wrapper.edgeFrom == null) continue;
+			EdgeGraph dualEdge = (EdgeGraph) wrapper.edgeFrom.getEdge();
+			assertSame(wrapper.commonPrimalJunction, dualEdge.commonPrimalJunction);
+			assertSame(wrapper.nodeFrom, wrapper.edgeFrom.getFromNode());
+			cost += dualEdge.deflectionDegrees;
+			assertEquals(cost, wrapper.gx, EPSILON);
+		}
+	}
+
+	// the cost of the last segment, the highest one
+	private static double lastCost(Path path) {
+		double cost = 0.0;
+		for (NodeWrapper wrapper : path.mapWrappers.values()) cost = Math.max(cost, wrapper.gx);
+		return cost;
+	}
+}
@@ -0,0 +1,84 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The landmarkness and barriers cost functions: parameters and precomputed costs.
+ *
+ */
+public class EdgeCostFunctionTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeWeight() {
+		EdgeCostFunction.landmarkness(-0.1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void weightAboveOne() {
+		EdgeCostFunction.landmarkness(1.5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void discountAboveOne() {
+		EdgeCostFunction.barriers(2.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void undefinedDiscount() {
+		EdgeCostFunction.barriers(Double.NaN);
+	}
+
+	@Test
+	public void barriersCostsFollowTheBarriers() {
+
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(1));
+		GraphCSR csr = graph.getCSR();
+		EdgeCostFunction costFunction = EdgeCostFunction.barriers(0.5);
+		for (int e = 0; e < csr.edgesCount; e++) assertEquals(csr.edgeLengths[e], csr.costs(costFunction)[e], 0.0);
+
+		EdgeGraph edge = graph.edgesGraph.get(3);
+		edge.setBarriers(new int[] {7}, IntSets.EMPTY, IntSets.EMPTY, IntSets.EMPTY);
+		graph.resetBarrierIndex();
+		assertSame(csr, graph.getCSR());
+		double[] costs = csr.costs(costFunction);
+		for (int e = 0; e < csr.edgesCount; e++)
+			assertEquals(csr.edges[e] == edge ? csr.edgeLengths[e] * 0.5 : csr.edgeLengths[e], costs[e], 1e-12);
+	}
+
+	@Test
+	public void landmarknessCostsFollowTheLandmarks() {
+
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(2));
+		GraphCSR csr = graph.getCSR();
+		EdgeCostFunction costFunction = EdgeCostFunction.landmarkness(1.0);
+		for (int e = 0; e < csr.edgesCount; e++) assertEquals(csr.edgeLengths[e], csr.costs(costFunction)[e], 0.0);
+
+		// a landmark at node 5 only
+		NodeGraph node = graph.nodesMap.get(5);
+		Building building = new Building();
+		building.buildingID = 1;
+		building.localLandmarkness = 0.25;
+		building.geometry = new MasonGeometry(node.masonGeometry.geometry);
+		building.geometry.setUserData(building.buildingID);
+		HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+		buildingsMap.put(building.buildingID, building);
+		VectorLayer layer = new VectorLayer();
+		layer.addGeometry(building.geometry);
+		graph.setLocalLandmarkness(layer, buildingsMap, 1.0);
+
+		double[] costs = csr.costs(costFunction);
+		for (int e = 0; e < csr.edgesCount; e++) {
+			EdgeGraph edge = csr.edges[e];
+			boolean atNode = edge.u == node || edge.v == node;
+			assertEquals(atNode ? csr.edgeLengths[e] * 0.75 : csr.edgeLengths[e], costs[e], 1e-12);
+		}
+	}
+}
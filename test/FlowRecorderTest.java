@@ -0,0 +1,118 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * FlowRecorder: counts written per time window and exported to CSV.
+ *
+ */
+public class FlowRecorderTest {
+
+	@Test
+	public void recordAndExport() throws IOException {
+		GraphCSR csr = TestGraphs.grid(3, 3, 10.0, 0.0, new Random(61)).getCSR();
+		File file = File.createTempFile("flows", ".bin"), csv = File.createTempFile("flows", ".csv");
+		file.deleteOnExit();
+		csv.deleteOnExit();
+
+		try (FlowRecorder recorder = new FlowRecorder(csr, new String[] {"RD", "AC"}, 10L, 16, file.getPath())) {
+			recorder.record(0, 0);
+			recorder.record(0, 0);
+			recorder.record(csr.edges[3], 1);
+			recorder.advance(5L);
+			recorder.record(1, 1);
+			// windows without records in between are skipped
+			recorder.advance(37L);
+			recorder.record(2, 0);
+			assertEquals(0L, recorder.getDroppedBuckets());
+		}
+		assertTrue(FlowRecorder.exportCSV(file.getPath(), csv.getPath()));
+
+		List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+		assertEquals("start,edgeID,category,count", lines.get(0));
+		HashSet<String> expected = new HashSet<String>(Arrays.asList(
+				"0," + csr.edgeIDs[0] + ",RD,2", "0," + csr.edgeIDs[3] + ",AC,1", "0," + csr.edgeIDs[1] + ",AC,1",
+				"30," + csr.edgeIDs[2] + ",RD,1"));
+		assertEquals(expected, new HashSet<String>(lines.subList(1, lines.size())));
+	}
+
+	@Test
+	public void exportStreamsLargeFiles() throws IOException {
+		// 40 windows of 3 columns of about 760 counts: several times the reading window
+		GraphCSR csr = TestGraphs.grid(20, 20, 10.0, 0.0, new Random(63)).getCSR();
+		String[] categories = {"RD", "AC", "a category with a long name, " + new String(new char[200]).replace('\0', 'x')};
+		File file = File.createTempFile("flows", ".bin"), csv = File.createTempFile("flows", ".csv");
+		file.deleteOnExit();
+		csv.deleteOnExit();
+
+		Random random = new Random(64);
+		HashMap<String, Integer> expected = new HashMap<String, Integer>();
+		try (FlowRecorder recorder = new FlowRecorder(csr, categories, 10L, 64, file.getPath())) {
+			for (long time = 0; time < 400; time++) {
+				recorder.advance(time);
+				for (int i = 0; i < 20; i++) {
+					int edgeIndex = random.nextInt(csr.edgesCount), category = random.nextInt(categories.length);
+					recorder.record(edgeIndex, category);
+					String key = (time - time % 10) + "," + csr.edgeIDs[edgeIndex] + "," + categories[category];
+					expected.merge(key, 1, Integer::sum);
+				}
+			}
+			assertEquals(0L, recorder.getDroppedBuckets());
+		}
+		assertTrue(file.length() > 4 * (1 << 16));
+		assertTrue(FlowRecorder.exportCSV(file.getPath(), csv.getPath()));
+
+		List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+		HashMap<String, Integer> exported = new HashMap<String, Integer>();
+		for (String line : lines.subList(1, lines.size())) {
+			int separator = line.lastIndexOf(',');
+			exported.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1)));
+		}
+		assertEquals(expected, exported);
+	}
+
+	@Test
+	public void exportRejectsOtherFiles() throws IOException {
+		File file = File.createTempFile("flows", ".bin"), csv = File.createTempFile("flows", ".csv");
+		file.deleteOnExit();
+		csv.deleteOnExit();
+		Files.write(file.toPath(), "start,edgeID,category,count".getBytes(StandardCharsets.UTF_8));
+		assertFalse(FlowRecorder.exportCSV(file.getPath(), csv.getPath()));
+	}
+
+	@Test
+	public void invalidArguments() throws IOException {
+		GraphCSR csr = TestGraphs.grid(2, 2, 10.0, 0.0, new Random(62)).getCSR();
+		File file = new File(Files.createTempDirectory("flows").toFile(), "flows.bin");
+		assertInvalid(csr, new String[] {"RD"}, 0L, 4, file);
+		assertInvalid(csr, new String[] {"RD"}, -5L, 4, file);
+		assertInvalid(csr, new String[0], 10L, 4, file);
+		assertInvalid(csr, new String[] {"RD"}, 10L, 1, file);
+		// the file is not created
+		assertFalse(file.exists());
+	}
+
+	private static void assertInvalid(GraphCSR csr, String[] categories, long bucketLength, int ringSize, File file)
+			throws IOException {
+		try (FlowRecorder recorder = new FlowRecorder(csr, categories, bucketLength, ringSize, file.getPath())) {
+			throw new AssertionError("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
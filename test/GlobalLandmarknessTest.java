@@ -0,0 +1,174 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * Graph.setGlobalLandmarkness() against the selection by sorted scores it replaced: the anchors are the landmarks whose
+ * score is not lower than the nrAnchors-th highest one.
+ *
+ */
+public class GlobalLandmarknessTest {
+
+	private static final double EPSILON = 1e-9;
+	private static final double RADIUS = 15.0;
+	// few distinct scores, for ties at the threshold
+	private static final double[] SCORES = {0.2, 0.4, 0.6, 0.8, 1.0};
+
+	@Test
+	public void anchorsAsBySortedScores() {
+
+		Random random = new Random(91);
+		// a dense and a sparse layer: nodes with more and with fewer candidates than nrAnchors, or none
+		for (int buildingsCount : new int[] {80, 12}) {
+			HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+			VectorLayer layer = randomLayer(buildingsCount, buildingsMap, random);
+			boolean ties = false, fewer = false;
+			for (int nrAnchors : new int[] {1, 3, 8, 40, 999999}) {
+				Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, new Random(92));
+				graph.setGlobalLandmarkness(layer, buildingsMap, RADIUS, new VectorLayer(), nrAnchors);
+				for (NodeGraph node : graph.nodesMap.values()) {
+					List<MasonGeometry> candidates = candidates(layer, node);
+					List<MasonGeometry> expected = expectedAnchors(candidates, nrAnchors);
+					assertAnchors(expected, node);
+					if (nrAnchors == 999999) continue;
+					ties |= expected.size() > nrAnchors;
+					fewer |= candidates.size() > 0 && candidates.size() < nrAnchors;
+				}
+			}
+			// the cases are actually covered
+			assertTrue(ties);
+			assertTrue(fewer);
+		}
+	}
+
+	@Test
+	public void noAnchorsWhenNoneRequested() {
+
+		Random random = new Random(93);
+		HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+		VectorLayer layer = randomLayer(80, buildingsMap, random);
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, new Random(94));
+		graph.setGlobalLandmarkness(layer, buildingsMap, RADIUS, new VectorLayer(), 0);
+		for (NodeGraph node : graph.nodesMap.values()) {
+			assertTrue(node.anchors.isEmpty());
+			assertTrue(node.distances.isEmpty());
+		}
+	}
+
+	@Test
+	public void sightLinesAddDistantLandmarks() {
+
+		Random random = new Random(95);
+		HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+		VectorLayer layer = randomLayer(20, buildingsMap, random);
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(96));
+
+		GeometryFactory factory = new GeometryFactory();
+		VectorLayer sightLines = new VectorLayer();
+		HashMap<NodeGraph, List<Integer>> expected = new HashMap<NodeGraph, List<Integer>>();
+		for (NodeGraph node : graph.nodesMap.values()) expected.put(node, new ArrayList<Integer>());
+		for (int i = 0; i < 30; i++) {
+			NodeGraph node = graph.nodesMap.get(random.nextInt(graph.nodesMap.size()));
+			Building building = buildingsMap.get(random.nextInt(buildingsMap.size()));
+			MasonGeometry sightLine = new MasonGeometry(factory.createLineString(new Coordinate[] {
+					node.masonGeometry.geometry.getCoordinate(), building.geometry.geometry.getCoordinate()}));
+			sightLine.addIntegerAttribute("buildingID", building.buildingID);
+			sightLine.addIntegerAttribute("nodeID", node.getID());
+			sightLines.addGeometry(sightLine);
+			expected.get(node).add(building.buildingID);
+		}
+		// as for the layers read from file, the sight lines are iterated from the geometries list
+		sightLines.generateGeometriesList();
+
+		graph.setGlobalLandmarkness(layer, buildingsMap, RADIUS, sightLines, 3);
+		for (NodeGraph node : graph.nodesMap.values()) assertEquals(expected.get(node), ids(node.distantLandmarks));
+	}
+
+	/**
+	 * It returns a layer of point buildings within the grids' extent, with IDs from 0 and scores drawn from SCORES, and
+	 * adds the buildings to the map.
+	 *
+	 */
+	private static VectorLayer randomLayer(int buildingsCount, HashMap<Integer, Building> buildingsMap, Random random) {
+		GeometryFactory factory = new GeometryFactory();
+		VectorLayer layer = new VectorLayer();
+		for (int i = 0; i < buildingsCount; i++) {
+			Building building = new Building();
+			building.buildingID = i;
+			building.geometry = new MasonGeometry(factory.createPoint(new Coordinate(random.nextDouble() * 50.0,
+					random.nextDouble() * 50.0)));
+			building.geometry.setUserData(building.buildingID);
+			building.geometry.addDoubleAttribute("gScore_sc", SCORES[random.nextInt(SCORES.length)]);
+			buildingsMap.put(building.buildingID, building);
+			layer.addGeometry(building.geometry);
+		}
+		return layer;
+	}
+
+	// the landmarks within the radius, by a scan of the layer
+	private static List<MasonGeometry> candidates(VectorLayer layer, NodeGraph node) {
+		List<MasonGeometry> candidates = new ArrayList<MasonGeometry>();
+		for (Object o : layer.getGeometries()) {
+			MasonGeometry building = (MasonGeometry) o;
+			if (building.geometry.distance(node.masonGeometry.geometry) <= RADIUS) candidates.add(building);
+		}
+		return candidates;
+	}
+
+	/**
+	 * It returns the anchors as selected before quickselect: the scores of the candidates are sorted and reversed and the
+	 * candidates whose score is lower than the nrAnchors-th are skipped. With fewer candidates than nrAnchors, where that
+	 * selection failed, all of them are kept.
+	 *
+	 */
+	private static List<MasonGeometry> expectedAnchors(List<MasonGeometry> candidates, int nrAnchors) {
+		if (nrAnchors == 999999 || candidates.size() < nrAnchors) return candidates;
+		List<Double> gScores = new ArrayList<Double>();
+		for (MasonGeometry building : candidates) gScores.add(building.getDoubleAttribute("gScore_sc"));
+		Collections.sort(gScores);
+		Collections.reverse(gScores);
+
+		List<MasonGeometry> anchors = new ArrayList<MasonGeometry>();
+		for (MasonGeometry building : candidates) {
+			if (building.getDoubleAttribute("gScore_sc") < gScores.get(nrAnchors - 1)) continue;
+			anchors.add(building);
+		}
+		return anchors;
+	}
+
+	// anchors and distances, compared by buildingID
+	private static void assertAnchors(List<MasonGeometry> expected, NodeGraph node) {
+		assertEquals(node.anchors.size(), node.distances.size());
+		HashMap<Integer, Double> distances = new HashMap<Integer, Double>();
+		for (int i = 0; i < node.anchors.size(); i++) distances.put(node.anchors.get(i).buildingID, node.distances.get(i));
+
+		List<Integer> expectedIDs = new ArrayList<Integer>();
+		for (MasonGeometry building : expected) expectedIDs.add((int) building.getUserData());
+		Collections.sort(expectedIDs);
+		List<Integer> anchorIDs = ids(node.anchors);
+		Collections.sort(anchorIDs);
+		assertEquals(expectedIDs, anchorIDs);
+		for (MasonGeometry building : expected) assertEquals(building.geometry.distance(node.masonGeometry.geometry),
+				distances.get((int) building.getUserData()), EPSILON);
+	}
+
+	private static List<Integer> ids(List<Building> buildings) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Building building : buildings) ids.add(building.buildingID);
+		return ids;
+	}
+}
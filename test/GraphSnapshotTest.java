@@ -0,0 +1,247 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * GraphSnapshot: a graph written and read back must be identical to the original one.
+ *
+ */
+public class GraphSnapshotTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+
+		Random random = new Random(41);
+		Graph graph = TestGraphs.grid(6, 5, 10.0, 0.15, random);
+		HashMap<Integer, Building> buildingsMap = prepare(graph, random);
+		Graph dualGraph = DualGraphBuilder.build(graph);
+
+		File file = File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		GraphSnapshot.write(file.getPath(), graph, dualGraph, buildingsMap);
+		GraphSnapshot snapshot = GraphSnapshot.read(file.getPath());
+
+		assertNotNull(snapshot);
+		assertGraphs(graph, snapshot.graph);
+		assertGraphs(dualGraph, snapshot.dualGraph);
+
+		// links between dual nodes and primal edges
+		for (NodeGraph dualNode : dualGraph.nodesMap.values()) {
+			NodeGraph readDualNode = snapshot.dualGraph.nodesMap.get(dualNode.getID());
+			int position = graph.edgesGraph.indexOf(dualNode.primalEdge);
+			assertSame(snapshot.graph.edgesGraph.get(position), readDualNode.primalEdge);
+			assertSame(readDualNode, readDualNode.primalEdge.dualNode);
+		}
+		// junctions of the dual edges
+		for (int e = 0; e < dualGraph.edgesGraph.size(); e++) {
+			NodeGraph junction = dualGraph.edgesGraph.get(e).commonPrimalJunction;
+			NodeGraph readJunction = snapshot.dualGraph.edgesGraph.get(e).commonPrimalJunction;
+			assertSame(snapshot.graph.nodesMap.get(junction.getID()), readJunction);
+		}
+
+		assertEquals(buildingsMap.keySet(), snapshot.buildingsMap.keySet());
+		for (Building building : buildingsMap.values()) {
+			Building readBuilding = snapshot.buildingsMap.get(building.buildingID);
+			assertEquals(building.landUse, readBuilding.landUse);
+			assertEquals(building.DMA, readBuilding.DMA);
+			assertEquals(building.localLandmarkness, readBuilding.localLandmarkness, 0.0);
+			assertEquals(building.globalLandmarkness, readBuilding.globalLandmarkness, 0.0);
+			assertTrue(building.geometry.geometry.equalsExact(readBuilding.geometry.geometry));
+			assertEquals(building.buildingID, readBuilding.geometry.getUserData());
+			if (building.node == null) assertNull(readBuilding.node);
+			else assertSame(snapshot.graph.nodesMap.get(building.node.getID()), readBuilding.node);
+		}
+	}
+
+	@Test
+	public void dualLinksDoNotDependOnTheNodesMapOrder() throws IOException {
+
+		Random random = new Random(43);
+		Graph graph = TestGraphs.grid(6, 5, 10.0, 0.0, random);
+		// scattered IDs, so that the iteration order of the dual nodes map depends on its capacity
+		HashSet<Integer> IDs = new HashSet<Integer>();
+		for (EdgeGraph edge : graph.edgesGraph) {
+			int edgeID = random.nextInt(1 << 20);
+			while (!IDs.add(edgeID)) edgeID = random.nextInt(1 << 20);
+			edge.setID(edgeID);
+		}
+		Graph dualGraph = DualGraphBuilder.build(graph);
+		NodeGraph placeholder = dualGraph.nodesMap.values().iterator().next();
+		for (int i = 0; i < 5000; i++) if (!IDs.contains(-1 - i)) dualGraph.nodesMap.put(-1 - i, placeholder);
+		for (int i = 0; i < 5000; i++) dualGraph.nodesMap.remove(-1 - i);
+
+		File file = File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		GraphSnapshot.write(file.getPath(), graph, dualGraph, null);
+		GraphSnapshot snapshot = GraphSnapshot.read(file.getPath());
+
+		for (NodeGraph dualNode : dualGraph.nodesMap.values()) {
+			NodeGraph readDualNode = snapshot.dualGraph.nodesMap.get(dualNode.getID());
+			assertEquals(dualNode.primalEdge.getID(), readDualNode.primalEdge.getID());
+			assertSame(snapshot.graph.edgesGraph.get(graph.edgesGraph.indexOf(dualNode.primalEdge)), readDualNode.primalEdge);
+		}
+	}
+
+	@Test
+	public void roundTripWithoutDualGraphAndBuildings() throws IOException {
+		Graph graph = TestGraphs.random(20, 10, 100.0, new Random(42));
+		File file = File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		GraphSnapshot.write(file.getPath(), graph, null, null);
+		GraphSnapshot snapshot = GraphSnapshot.read(file.getPath());
+		assertGraphs(graph, snapshot.graph);
+		assertNull(snapshot.dualGraph);
+		assertTrue(snapshot.buildingsMap.isEmpty());
+	}
+
+	@Test
+	public void otherFilesAreRejected() throws IOException {
+		File file = File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+		assertNull(GraphSnapshot.read(file.getPath()));
+	}
+
+	/**
+	 * It sets regions, centrality, junctions' attributes, landmarks, adjacent regions and entries, edges' attributes,
+	 * barriers and densities, and returns the buildings.
+	 *
+	 */
+	private static HashMap<Integer, Building> prepare(Graph graph, Random random) {
+
+		HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+		ArrayList<NodeGraph> nodes = new ArrayList<NodeGraph>(graph.nodesMap.values());
+		for (int b = 0; b < 15; b++) {
+			Building building = new Building();
+			building.buildingID = 100 + b;
+			building.landUse = (b % 3 == 0) ? "residential" : (b % 3 == 1) ? "commercial" : null;
+			building.DMA = "dma" + (b % 2);
+			building.localLandmarkness = random.nextDouble();
+			building.globalLandmarkness = random.nextDouble();
+			building.geometry = new MasonGeometry(nodes.get(b).masonGeometry.geometry.buffer(2.0));
+			building.geometry.setUserData(building.buildingID);
+			if (b % 4 != 0) building.node = nodes.get(random.nextInt(nodes.size()));
+			buildingsMap.put(building.buildingID, building);
+		}
+		ArrayList<Building> buildings = new ArrayList<Building>(buildingsMap.values());
+
+		for (NodeGraph node : nodes) {
+			node.region = random.nextInt(3);
+			node.gateway = random.nextBoolean();
+			node.centrality = random.nextDouble();
+			node.masonGeometry.addIntegerAttribute("nodeID", node.getID());
+			node.masonGeometry.addStringAttribute("name", "junction " + node.getID());
+			for (int i = random.nextInt(3); i > 0; i--) node.localLandmarks.add(buildings.get(random.nextInt(buildings.size())));
+			for (int i = random.nextInt(3); i > 0; i--) node.distantLandmarks.add(buildings.get(random.nextInt(buildings.size())));
+			for (int i = random.nextInt(3); i > 0; i--) {
+				node.anchors.add(buildings.get(random.nextInt(buildings.size())));
+				node.distances.add(random.nextDouble() * 500.0);
+			}
+			if (random.nextInt(4) == 0) node.visible2d.add(null);
+			node.adjacentRegions.add(random.nextInt(3));
+			node.adjacentEntries.add(nodes.get(random.nextInt(nodes.size())));
+		}
+		graph.generateCentralityMap();
+
+		for (EdgeGraph edge : graph.edgesGraph) {
+			edge.region = random.nextInt(3);
+			edge.deflectionDegrees = random.nextDouble() * 180.0;
+			edge.attributes.put("length", new AttributeValue(edge.getLength()));
+			edge.attributes.put("oneway", new AttributeValue(random.nextBoolean()));
+			edge.attributes.put("osmID", new AttributeValue(random.nextLong()));
+			edge.attributes.put("name", new AttributeValue(random.nextBoolean() ? "street" : null));
+			edge.setBarriers(randomSet(random), randomSet(random), randomSet(random), randomSet(random));
+			edge.densities.put("RD", 5);
+			edge.densities.put("AC", 3);
+		}
+		return buildingsMap;
+	}
+
+	private static int[] randomSet(Random random) {
+		int[] IDs = new int[random.nextInt(4)];
+		for (int i = 0; i < IDs.length; i++) IDs[i] = random.nextInt(20) - 5;
+		return IntSets.of(IDs, IDs.length);
+	}
+
+	private static void assertGraphs(Graph graph, Graph readGraph) {
+
+		assertEquals(new ArrayList<Integer>(graph.nodesMap.keySet()), new ArrayList<Integer>(readGraph.nodesMap.keySet()));
+		for (NodeGraph node : graph.nodesMap.values()) {
+			NodeGraph readNode = readGraph.nodesMap.get(node.getID());
+			assertEquals(node.getCoordinate(), readNode.getCoordinate());
+			assertEquals(node.region, readNode.region);
+			assertEquals(node.gateway, readNode.gateway);
+			assertEquals(node.centrality, readNode.centrality, 0.0);
+			assertEquals(node.centrality_sc, readNode.centrality_sc, 0.0);
+			assertEquals(values(node.masonGeometry.getAttributes()), values(readNode.masonGeometry.getAttributes()));
+			assertEquals(buildingIDs(node.visible2d), buildingIDs(readNode.visible2d));
+			assertEquals(buildingIDs(node.localLandmarks), buildingIDs(readNode.localLandmarks));
+			assertEquals(buildingIDs(node.distantLandmarks), buildingIDs(readNode.distantLandmarks));
+			assertEquals(buildingIDs(node.anchors), buildingIDs(readNode.anchors));
+			assertEquals(node.distances, readNode.distances);
+			assertEquals(node.adjacentRegions, readNode.adjacentRegions);
+			assertEquals(nodeIDs(node.adjacentEntries), nodeIDs(readNode.adjacentEntries));
+		}
+
+		assertEquals(graph.edgesGraph.size(), readGraph.edgesGraph.size());
+		for (int e = 0; e < graph.edgesGraph.size(); e++) {
+			EdgeGraph edge = graph.edgesGraph.get(e), readEdge = readGraph.edgesGraph.get(e);
+			assertArrayEquals(edge.getLine().getCoordinates(), readEdge.getLine().getCoordinates());
+			assertEquals(edge.getID(), readEdge.getID());
+			assertEquals(edge.u.getID(), readEdge.u.getID());
+			assertEquals(edge.v.getID(), readEdge.v.getID());
+			assertEquals(edge.region, readEdge.region);
+			assertEquals(edge.deflectionDegrees, readEdge.deflectionDegrees, 0.0);
+			assertEquals(values(edge.attributes), values(readEdge.attributes));
+			assertEquals(edge.positiveBarriers, readEdge.positiveBarriers);
+			assertEquals(edge.negativeBarriers, readEdge.negativeBarriers);
+			assertEquals(edge.barriers, readEdge.barriers);
+			assertEquals(edge.waterBodies, readEdge.waterBodies);
+			assertEquals(edge.parks, readEdge.parks);
+			assertEquals(edge.densities.keySet(), readEdge.densities.keySet());
+		}
+
+		assertEquals(new ArrayList<NodeGraph>(graph.getCentralityMap().keySet()).size(), readGraph.getCentralityMap().size());
+		ArrayList<Double> values = new ArrayList<Double>(graph.getCentralityMap().values());
+		assertEquals(values, new ArrayList<Double>(readGraph.getCentralityMap().values()));
+	}
+
+	private static Map<String, Object> values(Map<String, AttributeValue> attributes) {
+		if (attributes == null) return null;
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		for (Map.Entry<String, AttributeValue> entry : attributes.entrySet()) values.put(entry.getKey(), entry.getValue().getValue());
+		return values;
+	}
+
+	private static List<Integer> buildingIDs(List<Building> buildings) {
+		List<Integer> IDs = new ArrayList<Integer>();
+		for (Building building : buildings) IDs.add(building == null ? null : building.buildingID);
+		return IDs;
+	}
+
+	private static List<Integer> nodeIDs(List<NodeGraph> nodes) {
+		List<Integer> IDs = new ArrayList<Integer>();
+		for (NodeGraph node : nodes) IDs.add(node == null ? null : node.getID());
+		return IDs;
+	}
+}
@@ -0,0 +1,129 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import sim.util.geo.AttributeValue;
+
+/**
+ * IntSets, and the barriers of EdgeGraph, against the parsing by regular expression and the lists used before.
+ *
+ */
+public class IntSetsTest {
+
+	@Test
+	public void parseMatchesRegexParsing() {
+		Random random = new Random(51);
+		for (int run = 0; run < 2000; run++) {
+			StringBuilder string = new StringBuilder("[");
+			int size = random.nextInt(6);
+			for (int i = 0; i < size; i++) {
+				if (i > 0) string.append(random.nextBoolean() ? ", " : ",");
+				int value = random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(200) - 50;
+				string.append(value);
+			}
+			string.append("]");
+			assertArrayEquals(string.toString(), regexSet(string.toString()), IntSets.parse(string.toString()));
+		}
+		assertArrayEquals(regexSet("[12, 15, -3, 12]"), IntSets.parse("[12, 15, -3, 12]"));
+		assertArrayEquals(regexSet("[2147483647, -2147483648]"), IntSets.parse("[2147483647, -2147483648]"));
+		assertArrayEquals(regexSet(" [ 7 ] "), IntSets.parse(" [ 7 ] "));
+		assertArrayEquals(IntSets.EMPTY, IntSets.parse("[]"));
+		assertArrayEquals(IntSets.EMPTY, IntSets.parse(null));
+	}
+
+	@Test
+	public void setOperations() {
+		Random random = new Random(52);
+		for (int run = 0; run < 1000; run++) {
+			TreeSet<Integer> set = randomSet(random), otherSet = randomSet(random);
+			int[] array = toArray(set), otherArray = toArray(otherSet);
+			assertArrayEquals(array, IntSets.of(new ArrayList<Integer>(set)));
+
+			TreeSet<Integer> union = new TreeSet<Integer>(set);
+			union.addAll(otherSet);
+			assertArrayEquals(toArray(union), IntSets.union(array, otherArray));
+
+			TreeSet<Integer> intersection = new TreeSet<Integer>(set);
+			intersection.retainAll(otherSet);
+			assertEquals(!intersection.isEmpty(), IntSets.intersects(array, otherArray));
+
+			for (int value = -25; value <= 25; value++) assertEquals(set.contains(value), IntSets.contains(array, value));
+			assertEquals(new ArrayList<Integer>(set), IntSets.asList(array));
+		}
+	}
+
+	@Test
+	public void edgeBarriers() {
+		EdgeGraph edge = TestGraphs.grid(2, 1, 10.0, 0.0, new Random(53)).edgesGraph.get(0);
+		edge.attributes.put("p_barr", new AttributeValue("[5, 3, 5]"));
+		edge.attributes.put("n_barr", new AttributeValue("[3, -1]"));
+		edge.attributes.put("a_rivers", new AttributeValue("[]"));
+		edge.attributes.put("aw_parks", new AttributeValue("[8]"));
+		edge.setBarriers();
+
+		assertEquals(Arrays.asList(3, 5), edge.positiveBarriers);
+		assertEquals(Arrays.asList(-1, 3), edge.negativeBarriers);
+		assertEquals(Arrays.asList(-1, 3, 5), edge.barriers);
+		assertTrue(edge.waterBodies.isEmpty());
+		assertEquals(Arrays.asList(8), edge.parks);
+		for (int barrierID = -2; barrierID <= 9; barrierID++) {
+			assertEquals(edge.barriers.contains(barrierID), edge.touchesBarrier(barrierID));
+			assertEquals(edge.positiveBarriers.contains(barrierID), edge.touchesPositiveBarrier(barrierID));
+			assertEquals(edge.negativeBarriers.contains(barrierID), edge.touchesNegativeBarrier(barrierID));
+		}
+
+		// the lists follow the sets, also when shared with another edge
+		EdgeGraph other = TestGraphs.grid(2, 1, 10.0, 0.0, new Random(54)).edgesGraph.get(0);
+		other.setBarriers(edge);
+		assertEquals(edge.barriers, other.barriers);
+		assertTrue(other.sharesBarrierWith(edge));
+		edge.setBarriers(IntSets.EMPTY, new int[] {4}, IntSets.EMPTY, IntSets.EMPTY);
+		assertEquals(Arrays.asList(4), edge.barriers);
+		assertTrue(edge.touchesBarrier(4));
+		assertFalse(edge.touchesBarrier(5));
+		assertFalse(other.sharesBarrierWith(edge));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void barriersListsAreReadOnly() {
+		EdgeGraph edge = TestGraphs.grid(2, 1, 10.0, 0.0, new Random(55)).edgesGraph.get(0);
+		edge.positiveBarriers.add(1);
+	}
+
+	/**
+	 * The parsing used before IntSets (EdgeGraph.setBarriers), followed by sorting and removal of duplicates.
+	 *
+	 */
+	private static int[] regexSet(String string) {
+		List<Integer> values = new ArrayList<Integer>();
+		if (!string.equals("[]")) {
+			String p = string.replaceAll("[^-?0-9]+", " ");
+			for (String t : (Arrays.asList(p.trim().split(" ")))) values.add(Integer.valueOf(t));
+		}
+		return toArray(new TreeSet<Integer>(values));
+	}
+
+	private static TreeSet<Integer> randomSet(Random random) {
+		TreeSet<Integer> set = new TreeSet<Integer>();
+		for (int i = random.nextInt(15); i > 0; i--) set.add(random.nextInt(41) - 20);
+		return set;
+	}
+
+	private static int[] toArray(TreeSet<Integer> set) {
+		int[] array = new int[set.size()];
+		int i = 0;
+		for (int value : set) array[i++] = value;
+		return array;
+	}
+}
@@ -0,0 +1,270 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * LandmarkStore: compacted landmarks must read as the nodes' lists did, and compaction must be reversible.
+ *
+ */
+public class LandmarkStoreTest {
+
+	@Test
+	public void compactionKeepsTheLandmarks() {
+
+		Random random = new Random(7);
+		Graph graph = TestGraphs.grid(5, 4, 10.0, 0.1, random);
+		HashMap<Integer, Building> buildingsMap = buildings(graph);
+		assignRandomLandmarks(graph, buildingsMap, random);
+		HashMap<NodeGraph, List<List<Object>>> expected = landmarks(graph);
+
+		LandmarkStore store = graph.compactLandmarks();
+		assertSame(store, graph.getLandmarkStore());
+		assertEquals(expected, landmarks(graph));
+		// the fields keep the landmarks
+		for (NodeGraph node : graph.nodesMap.values()) assertEquals(expected.get(node), fields(node));
+
+		// compacting again reads through the getters
+		graph.compactLandmarks();
+		assertEquals(expected, landmarks(graph));
+
+		graph.restoreLandmarks();
+		assertNull(graph.getLandmarkStore());
+		for (NodeGraph node : graph.nodesMap.values()) {
+			assertNull(node.landmarkStore);
+			assertEquals(expected.get(node), fields(node));
+		}
+		assertEquals(expected, landmarks(graph));
+	}
+
+	@Test
+	public void settersRebuildTheStore() {
+
+		Graph graph = TestGraphs.grid(5, 4, 10.0, 0.0, new Random(9));
+		Graph compactedGraph = TestGraphs.grid(5, 4, 10.0, 0.0, new Random(9));
+		HashMap<Integer, Building> buildingsMap = buildings(graph);
+		VectorLayer layer = new VectorLayer();
+		for (Building building : buildingsMap.values()) layer.addGeometry(building.geometry);
+		VectorLayer sightLines = new VectorLayer();
+
+		graph.setLocalLandmarkness(layer, buildingsMap, 12.0);
+		graph.setGlobalLandmarkness(layer, buildingsMap, 25.0, sightLines, 999999);
+
+		LandmarkStore store = compactedGraph.compactLandmarks();
+		compactedGraph.setLocalLandmarkness(layer, buildingsMap, 12.0);
+		assertNotNull(compactedGraph.getLandmarkStore());
+		assertNotSame(store, compactedGraph.getLandmarkStore());
+		compactedGraph.setGlobalLandmarkness(layer, buildingsMap, 25.0, sightLines, 999999);
+		assertNotNull(compactedGraph.getLandmarkStore());
+
+		for (NodeGraph node : graph.nodesMap.values()) {
+			NodeGraph compactedNode = compactedGraph.nodesMap.get(node.getID());
+			assertEquals(sortedIDs(node.localLandmarks), sortedIDs(compactedNode.localLandmarks));
+			assertEquals(sortedIDs(node.anchors), sortedIDs(compactedNode.anchors));
+			assertEquals(sortedIDs(node.localLandmarks), sortedIDs(compactedNode.getLocalLandmarks()));
+			assertEquals(sortedIDs(node.anchors), sortedIDs(compactedNode.getAnchors()));
+			// the store keeps distances as floats
+			assertEquals(sorted(asFloats(node.distances)), sorted(compactedNode.getDistances()));
+		}
+	}
+
+	@Test
+	public void subGraphsShareTheParentStore() {
+
+		Random random = new Random(13);
+		Graph graph = TestGraphs.grid(6, 5, 10.0, 0.0, random);
+		HashMap<Integer, Building> buildingsMap = buildings(graph);
+		assignRandomLandmarks(graph, buildingsMap, random);
+		HashMap<NodeGraph, List<List<Object>>> expected = landmarks(graph);
+
+		// built before the compaction: the child nodes share the parent nodes' lists until setSubGraphLandmarks() is called again
+		SubGraph subGraph = new SubGraph(graph, new ArrayList<EdgeGraph>(graph.edgesGraph.subList(0, 25)));
+		subGraph.setSubGraphLandmarks();
+		graph.compactLandmarks();
+		for (NodeGraph child : subGraph.getNodesList()) {
+			assertNull(child.landmarkStore);
+			assertEquals(expected.get(subGraph.getParentNode(child)), fields(child));
+			assertEquals(expected.get(subGraph.getParentNode(child)), getters(child));
+		}
+		subGraph.setSubGraphLandmarks();
+
+		LandmarkStore store = subGraph.getLandmarkStore();
+		assertNotNull(store);
+		assertSame(graph.getLandmarkStore().landmarks, store.landmarks);
+		assertEquals(expected, landmarks(graph));
+		for (NodeGraph child : subGraph.getNodesList()) {
+			assertSame(store, child.landmarkStore);
+			assertSame(subGraph.getParentNode(child).localLandmarks, child.localLandmarks);
+			assertEquals(expected.get(subGraph.getParentNode(child)), fields(child));
+			assertEquals(expected.get(subGraph.getParentNode(child)), getters(child));
+		}
+
+		// restoring the parent graph leaves the SubGraph's views untouched
+		graph.restoreLandmarks();
+		for (NodeGraph child : subGraph.getNodesList()) {
+			NodeGraph parentNode = subGraph.getParentNode(child);
+			assertEquals(expected.get(parentNode), fields(parentNode));
+			assertEquals(expected.get(parentNode), getters(child));
+		}
+	}
+
+	@Test
+	public void compactedListsAreReadOnly() {
+
+		Random random = new Random(11);
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, random);
+		HashMap<Integer, Building> buildingsMap = buildings(graph);
+		assignRandomLandmarks(graph, buildingsMap, random);
+		NodeGraph node = graph.nodesMap.get(0);
+		node.localLandmarks.add(buildingsMap.values().iterator().next());
+		graph.compactLandmarks();
+
+		Building building = buildingsMap.values().iterator().next();
+		assertUnsupported(() -> node.localLandmarks.add(building));
+		assertUnsupported(() -> node.localLandmarks.clear());
+		assertUnsupported(() -> node.localLandmarks.set(0, building));
+		assertUnsupported(() -> {
+			Iterator<Building> iterator = node.localLandmarks.iterator();
+			iterator.next();
+			iterator.remove();
+		});
+		assertUnsupported(() -> node.localLandmarks.subList(0, 1).set(0, null));
+		assertUnsupported(() -> node.anchors.addAll(buildingsMap.values()));
+		assertUnsupported(() -> node.distances.add(1.0));
+		assertUnsupported(() -> node.visible2d.removeIf(b -> true));
+
+		// writable again once restored
+		graph.restoreLandmarks();
+		node.localLandmarks.add(building);
+		node.distances.add(1.0);
+	}
+
+	private static void assertUnsupported(Runnable write) {
+		try {
+			write.run();
+		}
+		catch (UnsupportedOperationException e) {
+			return;
+		}
+		fail("The list can be modified");
+	}
+
+	@Test
+	public void compactedLandmarksAreWrittenToSnapshots() throws IOException {
+
+		Random random = new Random(17);
+		Graph graph = TestGraphs.grid(5, 5, 10.0, 0.1, random);
+		HashMap<Integer, Building> buildingsMap = buildings(graph);
+		assignRandomLandmarks(graph, buildingsMap, random);
+		HashMap<NodeGraph, List<List<Object>>> expected = landmarks(graph);
+		graph.compactLandmarks();
+
+		File file = File.createTempFile("snapshot", ".bin");
+		file.deleteOnExit();
+		GraphSnapshot.write(file.getPath(), graph, null, buildingsMap);
+		GraphSnapshot snapshot = GraphSnapshot.read(file.getPath());
+
+		for (NodeGraph node : graph.nodesMap.values()) {
+			NodeGraph readNode = snapshot.graph.nodesMap.get(node.getID());
+			assertEquals(expected.get(node), fields(readNode));
+		}
+	}
+
+	/**
+	 * It returns one building per node, a point at the node, with its ID as user data.
+	 *
+	 */
+	private static HashMap<Integer, Building> buildings(Graph graph) {
+		HashMap<Integer, Building> buildingsMap = new HashMap<Integer, Building>();
+		for (NodeGraph node : graph.nodesMap.values()) {
+			Building building = new Building();
+			building.buildingID = 100 + node.getID();
+			building.geometry = new MasonGeometry(node.masonGeometry.geometry);
+			building.geometry.setUserData(building.buildingID);
+			buildingsMap.put(building.buildingID, building);
+		}
+		return buildingsMap;
+	}
+
+	private static void assignRandomLandmarks(Graph graph, HashMap<Integer, Building> buildingsMap, Random random) {
+		ArrayList<Building> buildings = new ArrayList<Building>(buildingsMap.values());
+		for (NodeGraph node : graph.nodesMap.values()) {
+			for (int i = random.nextInt(3); i > 0; i--) node.localLandmarks.add(buildings.get(random.nextInt(buildings.size())));
+			for (int i = random.nextInt(3); i > 0; i--) node.distantLandmarks.add(buildings.get(random.nextInt(buildings.size())));
+			for (int i = random.nextInt(3); i > 0; i--) {
+				node.anchors.add(buildings.get(random.nextInt(buildings.size())));
+				node.distances.add((double) random.nextInt(500));
+			}
+			if (random.nextInt(4) == 0) node.visible2d.add(null);
+		}
+	}
+
+	private static HashMap<NodeGraph, List<List<Object>>> landmarks(Graph graph) {
+		HashMap<NodeGraph, List<List<Object>>> landmarks = new HashMap<NodeGraph, List<List<Object>>>();
+		for (NodeGraph node : graph.nodesMap.values()) landmarks.put(node, getters(node));
+		return landmarks;
+	}
+
+	private static List<List<Object>> getters(NodeGraph node) {
+		return lists(node.getVisible2d(), node.getLocalLandmarks(), node.getDistantLandmarks(), node.getAnchors(),
+				node.getDistances());
+	}
+
+	private static List<List<Object>> fields(NodeGraph node) {
+		return lists(node.visible2d, node.localLandmarks, node.distantLandmarks, node.anchors, node.distances);
+	}
+
+	private static List<List<Object>> lists(List<Building> visible2d, List<Building> localLandmarks,
+			List<Building> distantLandmarks, List<Building> anchors, List<Double> distances) {
+		List<List<Object>> lists = new ArrayList<List<Object>>();
+		lists.add(IDs(visible2d));
+		lists.add(IDs(localLandmarks));
+		lists.add(IDs(distantLandmarks));
+		lists.add(IDs(anchors));
+		lists.add(new ArrayList<Object>(distances));
+		return lists;
+	}
+
+	// buildings by ID, so that lists read from a snapshot compare equal
+	private static List<Object> IDs(List<Building> buildings) {
+		List<Object> IDs = new ArrayList<Object>();
+		for (Building building : buildings) IDs.add(building == null ? null : building.buildingID);
+		return IDs;
+	}
+
+	private static List<Integer> sortedIDs(List<Building> buildings) {
+		List<Integer> IDs = new ArrayList<Integer>();
+		for (Building building : buildings) IDs.add(building.buildingID);
+		Collections.sort(IDs);
+		return IDs;
+	}
+
+	private static List<Double> asFloats(List<Double> values) {
+		List<Double> floats = new ArrayList<Double>();
+		for (Double value : values) floats.add((double) value.floatValue());
+		return floats;
+	}
+
+	private static List<Double> sorted(List<Double> values) {
+		List<Double> sorted = new ArrayList<Double>(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+}
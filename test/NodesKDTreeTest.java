@@ -0,0 +1,89 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * NodesKDTree annulus queries against a scan of all the nodes.
+ *
+ */
+public class NodesKDTreeTest {
+
+	@Test
+	public void annulusMatchesScan() {
+		Random random = new Random(21);
+		for (int run = 0; run < 20; run++) {
+			Graph graph = (run % 2 == 0) ? TestGraphs.random(300, 0, 1000.0, random) : TestGraphs.grid(20, 15, 10.0, 0.0, random);
+			GraphCSR csr = graph.getCSR();
+			NodesKDTree tree = new NodesKDTree(csr);
+
+			for (int query = 0; query < 50; query++) {
+				int origin = random.nextInt(csr.nodesCount);
+				double x = csr.nodeX[origin], y = csr.nodeY[origin];
+				double lowerLimit = (query % 5 == 0) ? 0.0 : random.nextDouble() * 300.0;
+				double upperLimit = lowerLimit + random.nextDouble() * 300.0;
+				if (query % 7 == 0) upperLimit = tree.maxDistance(x, y);
+				// the origin, some random nodes (inside or outside the band), a repeated node and a missing one
+				int[] excluded = new int[] {origin, random.nextInt(csr.nodesCount), random.nextInt(csr.nodesCount), origin, -1};
+				assertAnnulus(csr, tree, x, y, lowerLimit, upperLimit, excluded);
+			}
+			// limits falling exactly on the distance of some nodes (grid)
+			assertAnnulus(csr, tree, csr.nodeX[0], csr.nodeY[0], 10.0, 20.0, new int[0]);
+		}
+	}
+
+	@Test
+	public void emptyAnnulus() {
+		Graph graph = TestGraphs.random(50, 0, 100.0, new Random(22));
+		NodesKDTree tree = new NodesKDTree(graph.getCSR());
+		assertEquals(0, tree.annulus(50.0, 50.0, 30.0, 20.0, new int[0]).size());
+		assertEquals(0, tree.annulus(5000.0, 5000.0, 0.0, 10.0, new int[0]).size());
+	}
+
+	@Test
+	public void maxDistanceIsAnUpperBound() {
+		Random random = new Random(23);
+		Graph graph = TestGraphs.random(200, 0, 1000.0, random);
+		GraphCSR csr = graph.getCSR();
+		NodesKDTree tree = new NodesKDTree(csr);
+		for (int query = 0; query < 20; query++) {
+			double x = random.nextDouble() * 2000.0 - 500.0, y = random.nextDouble() * 2000.0 - 500.0;
+			double maxDistance = tree.maxDistance(x, y);
+			for (int n = 0; n < csr.nodesCount; n++) assertTrue(Math.hypot(csr.nodeX[n] - x, csr.nodeY[n] - y) <= maxDistance);
+		}
+	}
+
+	private static void assertAnnulus(GraphCSR csr, NodesKDTree tree, double x, double y, double lowerLimit, double upperLimit,
+			int[] excluded) {
+
+		boolean[] expected = new boolean[csr.nodesCount];
+		int expectedSize = 0;
+		for (int n = 0; n < csr.nodesCount; n++) {
+			double dx = csr.nodeX[n] - x, dy = csr.nodeY[n] - y;
+			double distanceSq = dx * dx + dy * dy;
+			boolean isExcluded = false;
+			for (int node : excluded) isExcluded |= node == n;
+			if (!isExcluded && distanceSq >= lowerLimit * lowerLimit && distanceSq <= upperLimit * upperLimit) {
+				expected[n] = true;
+				expectedSize++;
+			}
+		}
+
+		NodesKDTree.Annulus annulus = tree.annulus(x, y, lowerLimit, upperLimit, excluded);
+		assertEquals(expectedSize, annulus.size());
+		boolean[] found = new boolean[csr.nodesCount];
+		for (int rank = 0; rank < annulus.size(); rank++) {
+			int node = annulus.get(rank);
+			assertTrue("unexpected node " + node, expected[node]);
+			assertTrue("repeated node " + node, !found[node]);
+			found[node] = true;
+			assertEquals(csr.nodes[node], annulus.getNode(rank));
+		}
+		assertTrue(Arrays.equals(expected, found));
+	}
+}
@@ -0,0 +1,116 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * NodesLookup.randomODPairs(): the pairs only depend on the graph and on the seed.
+ *
+ */
+public class NodesLookupTest {
+
+	// several chunks of pairs
+	private static final int COUNT = 5000;
+
+	@Test
+	public void sameSeedSamePairsWhateverTheScheduling() throws Exception {
+
+		Random random = new Random(81);
+		Graph graph = TestGraphs.grid(12, 12, 10.0, 0.1, random);
+		for (NodeGraph node : graph.nodesMap.values()) node.region = random.nextInt(3);
+		List<Float> distances = Arrays.asList(20f, 50f, 120f);
+		NodesSampler sampler = NodesSampler.weighted(graph, node -> 1.0 + node.getID() % 4);
+
+		for (NodesLookup.RegionConstraint constraint : NodesLookup.RegionConstraint.values()) {
+			for (List<Float> distancesList : Arrays.asList(null, distances)) {
+				for (NodesSampler originsSampler : new NodesSampler[] {null, sampler}) {
+					Callable<NodesLookup.ODPairs> generation = () -> NodesLookup.randomODPairs(graph, COUNT, distancesList,
+							constraint, originsSampler, 42L);
+					NodesLookup.ODPairs expected = generation.call();
+					assertValid(graph, expected, constraint);
+					// one worker, several workers, several batches at the same time on the common pool
+					assertSamePairs(expected, inPool(1, generation));
+					assertSamePairs(expected, inPool(7, generation));
+					for (NodesLookup.ODPairs pairs : concurrently(4, generation)) assertSamePairs(expected, pairs);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void otherSeedOtherPairs() {
+		Graph graph = TestGraphs.grid(12, 12, 10.0, 0.0, new Random(82));
+		NodesLookup.ODPairs pairs = NodesLookup.randomODPairs(graph, COUNT, null, NodesLookup.RegionConstraint.ANY, 1L);
+		NodesLookup.ODPairs otherPairs = NodesLookup.randomODPairs(graph, COUNT, null, NodesLookup.RegionConstraint.ANY, 2L);
+		assertFalse(Arrays.equals(pairs.originIDs, otherPairs.originIDs));
+	}
+
+	@Test
+	public void randomNodeDrawsFromTheGraphNodes() {
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(83));
+		HashSet<NodeGraph> nodes = new HashSet<NodeGraph>(Arrays.asList(graph.getCSR().nodes));
+		// an entry of nodesMap that is not a node of the graph is never drawn
+		NodeGraph foreign = TestGraphs.grid(2, 2, 10.0, 0.0, new Random(84)).nodesMap.get(0);
+		graph.nodesMap.put(-1, foreign);
+		for (int i = 0; i < 500; i++) {
+			NodeGraph node = NodesLookup.randomNode(graph);
+			assertNotNull(node);
+			assertTrue(nodes.contains(node));
+		}
+	}
+
+	private static NodesLookup.ODPairs inPool(int parallelism, Callable<NodesLookup.ODPairs> generation) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.submit(generation).get();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static List<NodesLookup.ODPairs> concurrently(int batches, Callable<NodesLookup.ODPairs> generation)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(batches);
+		try {
+			List<Future<NodesLookup.ODPairs>> futures = new ArrayList<Future<NodesLookup.ODPairs>>();
+			for (int b = 0; b < batches; b++) futures.add(executor.submit(generation));
+			List<NodesLookup.ODPairs> pairs = new ArrayList<NodesLookup.ODPairs>();
+			for (Future<NodesLookup.ODPairs> future : futures) pairs.add(future.get());
+			return pairs;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private static void assertSamePairs(NodesLookup.ODPairs expected, NodesLookup.ODPairs pairs) {
+		assertArrayEquals(expected.originIDs, pairs.originIDs);
+		assertArrayEquals(expected.destinationIDs, pairs.destinationIDs);
+	}
+
+	private static void assertValid(Graph graph, NodesLookup.ODPairs pairs, NodesLookup.RegionConstraint constraint) {
+		for (int i = 0; i < COUNT; i++) {
+			if (pairs.originIDs[i] == -1) continue;
+			NodeGraph origin = graph.nodesMap.get(pairs.originIDs[i]), destination = graph.nodesMap.get(pairs.destinationIDs[i]);
+			assertTrue(origin != destination);
+			if (constraint == NodesLookup.RegionConstraint.SAME_REGION) assertTrue(origin.region == destination.region);
+			if (constraint == NodesLookup.RegionConstraint.OTHER_REGION) assertTrue(origin.region != destination.region);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * PathFinder (Dijkstra and A*) against the shortest distances computed by brute force over all the pairs of nodes.
+ *
+ */
+public class PathFinderTest {
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void dijkstraOnGrids() {
+		Random random = new Random(1);
+		for (int run = 0; run < 5; run++) {
+			// disconnected grids too
+			Graph graph = TestGraphs.grid(5, 4, 10.0, 0.3, random);
+			assertAllPairs(graph, EdgeCostFunction.LENGTH, false);
+		}
+	}
+
+	@Test
+	public void dijkstraOnRandomGraphs() {
+		Random random = new Random(2);
+		for (int run = 0; run < 5; run++) {
+			Graph graph = TestGraphs.random(25, 30, 100.0, random);
+			assertAllPairs(graph, EdgeCostFunction.LENGTH, false);
+		}
+	}
+
+	@Test
+	public void dijkstraWithDynamicCosts() {
+		Graph graph = TestGraphs.random(25, 30, 100.0, new Random(3));
+		// not static: evaluated edge by edge during the search
+		EdgeCostFunction costFunction = edge -> edge.getLength() * (1 + edge.getID() % 3);
+		assertAllPairs(graph, costFunction, false);
+		assertAllPairs(graph, EdgeCostFunction.ofStatic(costFunction), false);
+	}
+
+	@Test
+	public void astarOnGridsAndRandomGraphs() {
+		Random random = new Random(4);
+		for (int run = 0; run < 5; run++) {
+			Graph graph = (run % 2 == 0) ? TestGraphs.grid(5, 4, 10.0, 0.3, random) : TestGraphs.random(25, 30, 100.0, random);
+			assertAllPairs(graph, EdgeCostFunction.LENGTH, true);
+		}
+	}
+
+	@Test
+	public void unreachableDestinations() {
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, new Random(5));
+		// a separate component
+		TestGraphs.addLine(graph, 100, 100.0, 100.0, 110.0, 100.0);
+		TestGraphs.assignNodeIDs(graph);
+		PathFinder pathFinder = new PathFinder(graph);
+		NodeGraph origin = graph.nodesMap.get(0);
+		NodeGraph isolated = graph.getNode(new Coordinate(100.0, 100.0));
+		assertNotNull(isolated);
+		assertNull(pathFinder.dijkstraPath(origin, isolated, EdgeCostFunction.LENGTH));
+		assertNull(pathFinder.astarPath(origin, isolated));
+		assertNull(pathFinder.dijkstraPath(isolated, origin, EdgeCostFunction.LENGTH));
+		// impassable edges
+		assertNull(pathFinder.dijkstraPath(origin, graph.nodesMap.get(15), edge -> Double.POSITIVE_INFINITY));
+		// same origin and destination
+		assertTrue(pathFinder.dijkstraPath(origin, origin, EdgeCostFunction.LENGTH).edges.isEmpty());
+	}
+
+	@Test
+	public void subGraphWithParentOrChildNodes() {
+
+		Random random = new Random(6);
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, random);
+		ArrayList<EdgeGraph> edges = new ArrayList<EdgeGraph>(graph.edgesGraph);
+		Collections.shuffle(edges, random);
+		SubGraph subGraph = new SubGraph(graph, new ArrayList<EdgeGraph>(edges.subList(0, 40)));
+		PathFinder pathFinder = new PathFinder(subGraph);
+		GraphCSR csr = subGraph.getCSR();
+		double[][] dist = distances(csr, EdgeCostFunction.LENGTH);
+
+		for (int s = 0; s < csr.nodesCount; s++) {
+			for (int t = 0; t < csr.nodesCount; t++) {
+				NodeGraph child = csr.nodes[s], otherChild = csr.nodes[t];
+				NodeGraph parent = subGraph.getParentNode(child), otherParent = subGraph.getParentNode(otherChild);
+				Path[] paths = {pathFinder.dijkstraPath(child, otherChild, EdgeCostFunction.LENGTH),
+						pathFinder.dijkstraPath(parent, otherParent, EdgeCostFunction.LENGTH),
+						pathFinder.dijkstraPath(parent, otherChild, EdgeCostFunction.LENGTH), pathFinder.astarPath(parent, otherParent)};
+				for (Path path : paths) {
+					if (dist[s][t] == Double.POSITIVE_INFINITY) {
+						assertNull(path);
+						continue;
+					}
+					assertEquals(dist[s][t], pathCost(path, child, otherChild, EdgeCostFunction.LENGTH), EPSILON);
+					// child directed edges
+					for (GeomPlanarGraphDirectedEdge edge : path.edges) assertNotNull(subGraph.getParentEdge((EdgeGraph) edge.getEdge()));
+				}
+			}
+		}
+
+		// nodes of the parent graph outside the SubGraph
+		NodeGraph inside = subGraph.getParentNode(csr.nodes[0]);
+		for (NodeGraph node : graph.nodesMap.values()) {
+			if (subGraph.getChildNode(node) != null) continue;
+			assertNull(pathFinder.dijkstraPath(inside, node, EdgeCostFunction.LENGTH));
+			assertNull(pathFinder.astarPath(node, inside));
+		}
+	}
+
+	/**
+	 * It checks the paths between all the pairs of nodes of a graph against the brute-force distances.
+	 *
+	 */
+	private static void assertAllPairs(Graph graph, EdgeCostFunction costFunction, boolean astar) {
+		GraphCSR csr = graph.getCSR();
+		double[][] dist = distances(csr, costFunction);
+		PathFinder pathFinder = new PathFinder(graph);
+		for (int s = 0; s < csr.nodesCount; s++) {
+			for (int t = 0; t < csr.nodesCount; t++) {
+				NodeGraph origin = csr.nodes[s], destination = csr.nodes[t];
+				Path path = astar ? pathFinder.astarPath(origin, destination)
+						: pathFinder.dijkstraPath(origin, destination, costFunction);
+				if (dist[s][t] == Double.POSITIVE_INFINITY) {
+					assertNull(path);
+					continue;
+				}
+				assertNotNull(path);
+				assertEquals(dist[s][t], pathCost(path, origin, destination, costFunction), EPSILON * Math.max(1.0, dist[s][t]));
+				assertEquals(dist[s][t], path.mapWrappers.get(destination).gx, EPSILON * Math.max(1.0, dist[s][t]));
+			}
+		}
+	}
+
+	/**
+	 * It returns the cost of a path, verifying that its directed edges are contiguous from the origin to the destination.
+	 *
+	 */
+	private static double pathCost(Path path, NodeGraph origin, NodeGraph destination, EdgeCostFunction costFunction) {
+		NodeGraph node = origin;
+		double cost = 0.0;
+		for (GeomPlanarGraphDirectedEdge edge : path.edges) {
+			assertSame(node, edge.getFromNode());
+			cost += costFunction.cost((EdgeGraph) edge.getEdge());
+			node = (NodeGraph) edge.getToNode();
+		}
+		assertSame(destination, node);
+		return cost;
+	}
+
+	private static double[][] distances(GraphCSR csr, EdgeCostFunction costFunction) {
+		int n = csr.nodesCount;
+		double[][] dist = new double[n][n];
+		for (double[] row : dist) Arrays.fill(row, Double.POSITIVE_INFINITY);
+		for (int i = 0; i < n; i++) {
+			dist[i][i] = 0.0;
+			for (int arc = csr.offsets[i]; arc < csr.offsets[i + 1]; arc++)
+				dist[i][csr.targets[arc]] = Math.min(dist[i][csr.targets[arc]], costFunction.cost(csr.edges[csr.arcEdges[arc]]));
+		}
+		for (int k = 0; k < n; k++)
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					if (dist[i][k] + dist[k][j] < dist[i][j]) dist[i][j] = dist[i][k] + dist[k][j];
+		return dist;
+	}
+}
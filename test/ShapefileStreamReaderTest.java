@@ -0,0 +1,193 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * ShapefileStreamReader on a small .shp/.dbf pair written by the test: shapes, deleted records and the types of the
+ * attributes.
+ *
+ */
+public class ShapefileStreamReaderTest {
+
+	// name, type, length, decimals
+	private static final Object[][] FIELDS = {{"NAME", 'C', 10, 0}, {"CODE", 'N', 9, 0}, {"BIG", 'N', 12, 0},
+			{"WIDTH", 'N', 8, 2}};
+
+	@Test
+	public void attributesAreTypedByField() throws IOException {
+
+		String path = writeShapefile();
+		Graph graph = new Graph();
+		assertEquals(5, ShapefileStreamReader.readStreets(graph, path, null));
+		// the multi-part line and the deleted record are skipped
+		assertEquals(5, graph.edgesGraph.size());
+
+		MasonGeometry first = graph.edgesGraph.get(0).masonGeometry;
+		assertEquals("a", first.getAttribute("NAME"));
+		// "12.": Integer, as the field has no decimals
+		assertEquals(Integer.valueOf(12), first.getAttribute("CODE"));
+		// a short value in a long field: Double, as every value of the field
+		assertEquals(Double.valueOf(7.0), first.getAttribute("BIG"));
+		assertEquals(Double.valueOf(3.5), first.getAttribute("WIDTH"));
+
+		MasonGeometry second = graph.edgesGraph.get(1).masonGeometry;
+		assertEquals("", second.getAttribute("NAME"));
+		assertEquals(Integer.valueOf(5), second.getAttribute("CODE"));
+		assertEquals(Double.valueOf(12345678901.0), second.getAttribute("BIG"));
+		assertFalse(second.hasAttribute("WIDTH"));
+
+		// malformed values are skipped
+		MasonGeometry third = graph.edgesGraph.get(2).masonGeometry;
+		assertFalse(third.hasAttribute("CODE"));
+		assertFalse(third.hasAttribute("BIG"));
+		assertFalse(third.hasAttribute("WIDTH"));
+
+		MasonGeometry fourth = graph.edgesGraph.get(3).masonGeometry;
+		assertFalse(fourth.hasAttribute("CODE"));
+		assertEquals(Double.valueOf(-0.25), fourth.getAttribute("WIDTH"));
+
+		MasonGeometry fifth = graph.edgesGraph.get(4).masonGeometry;
+		assertEquals(Integer.valueOf(-7), fifth.getAttribute("CODE"));
+		assertEquals(Double.valueOf(1500.0), fifth.getAttribute("BIG"));
+		assertFalse(fifth.hasAttribute("WIDTH"));
+	}
+
+	@Test
+	public void onlyTheRequestedAttributesAreKept() throws IOException {
+
+		String path = writeShapefile();
+		Graph graph = new Graph();
+		ShapefileStreamReader.readStreets(graph, path, Arrays.asList("CODE", "WIDTH"));
+		MasonGeometry first = graph.edgesGraph.get(0).masonGeometry;
+		assertEquals(2, first.getAttributes().size());
+		assertEquals(Integer.valueOf(12), first.getAttribute("CODE"));
+		assertEquals(Double.valueOf(3.5), first.getAttribute("WIDTH"));
+	}
+
+	/**
+	 * It writes a shapefile with seven records: five single-part lines, a multi-part line (third record) and a deleted
+	 * record (fifth), and returns the path of the .shp file.
+	 *
+	 */
+	private static String writeShapefile() throws IOException {
+
+		List<double[][][]> shapes = new ArrayList<double[][][]>();
+		List<String[]> records = new ArrayList<String[]>();
+		shapes.add(new double[][][] {{{0, 0}, {10, 0}}});
+		records.add(new String[] {"a", "12.", "7", "3.50"});
+		shapes.add(new double[][][] {{{10, 0}, {20, 0}}});
+		records.add(new String[] {"", "+5", "12345678901", ""});
+		shapes.add(new double[][][] {{{20, 0}, {30, 0}}, {{30, 0}, {40, 0}}});
+		records.add(new String[] {"multi", "1", "1", "1.00"});
+		shapes.add(new double[][][] {{{0, 0}, {0, 10}}});
+		records.add(new String[] {"c", "abc", "1e400", "********"});
+		shapes.add(new double[][][] {{{0, 10}, {10, 10}}});
+		records.add(new String[] {"*deleted", "3", "3", "3.00"});
+		shapes.add(new double[][][] {{{10, 10}, {20, 10}}});
+		records.add(new String[] {"d", "4.5", "", "-.25"});
+		shapes.add(new double[][][] {{{20, 10}, {20, 20}, {30, 20}}});
+		records.add(new String[] {"e", "-7", "1.5E3", "0x10"});
+
+		File shp = File.createTempFile("streets", ".shp");
+		File dbf = new File(shp.getPath().substring(0, shp.getPath().length() - 4) + ".dbf");
+		shp.deleteOnExit();
+		dbf.deleteOnExit();
+		Files.write(shp.toPath(), shp(shapes));
+		Files.write(dbf.toPath(), dbf(records));
+		return shp.getPath();
+	}
+
+	private static byte[] shp(List<double[][][]> shapes) {
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 14);
+		// the reader skips the file header
+		buffer.position(100);
+		for (int record = 0; record < shapes.size(); record++) {
+			double[][][] parts = shapes.get(record);
+			int pointsCount = 0;
+			for (double[][] part : parts) pointsCount += part.length;
+			int contentLength = 4 + 32 + 4 + 4 + 4 * parts.length + 16 * pointsCount;
+
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(record + 1);
+			buffer.putInt(contentLength / 2);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(3);
+			// bounding box, not read
+			for (int i = 0; i < 4; i++) buffer.putDouble(0.0);
+			buffer.putInt(parts.length);
+			buffer.putInt(pointsCount);
+			int start = 0;
+			for (double[][] part : parts) {
+				buffer.putInt(start);
+				start += part.length;
+			}
+			for (double[][] part : parts) {
+				for (double[] point : part) {
+					buffer.putDouble(point[0]);
+					buffer.putDouble(point[1]);
+				}
+			}
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * It returns the content of a .dbf file with the FIELDS; a NAME starting with '*' marks the record as deleted.
+	 *
+	 */
+	private static byte[] dbf(List<String[]> records) {
+
+		int headerLength = 32 + 32 * FIELDS.length + 1;
+		int recordLength = 1;
+		for (Object[] field : FIELDS) recordLength += (Integer) field[2];
+
+		ByteBuffer buffer = ByteBuffer.allocate(headerLength + recordLength * records.size() + 1);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte) 3);
+		buffer.position(4);
+		buffer.putInt(records.size());
+		buffer.putShort((short) headerLength);
+		buffer.putShort((short) recordLength);
+		buffer.position(32);
+		for (Object[] field : FIELDS) {
+			int start = buffer.position();
+			buffer.put(((String) field[0]).getBytes(StandardCharsets.US_ASCII));
+			buffer.put(start + 11, (byte) (char) (Character) field[1]);
+			buffer.put(start + 16, (byte) (int) (Integer) field[2]);
+			buffer.put(start + 17, (byte) (int) (Integer) field[3]);
+			buffer.position(start + 32);
+		}
+		buffer.put((byte) 0x0D);
+
+		for (String[] values : records) {
+			boolean deleted = values[0].startsWith("*");
+			buffer.put((byte) (deleted ? '*' : ' '));
+			for (int field = 0; field < FIELDS.length; field++) {
+				int length = (Integer) FIELDS[field][2];
+				String value = (field == 0 && deleted) ? values[0].substring(1) : values[field];
+				// characters left-aligned, numbers right-aligned
+				String padded = (FIELDS[field][1].equals('C')) ? String.format("%-" + length + "s", value)
+						: String.format("%" + length + "s", value);
+				buffer.put(padded.getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		buffer.put((byte) 0x1A);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,132 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * SubGraphs against their parent graph.
+ *
+ */
+public class SubGraphTest {
+
+	@Test
+	public void nodesMapHoldsTheChildNodes() {
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, new Random(3));
+		SubGraph subGraph = new SubGraph(graph, new ArrayList<EdgeGraph>(graph.edgesGraph.subList(0, 20)));
+
+		assertEquals(subGraph.getNodesList().size(), subGraph.nodesMap.size());
+		for (NodeGraph child : subGraph.getNodesList()) {
+			assertSame(child, subGraph.nodesMap.get(child.getID()));
+			assertEquals(subGraph.getParentNode(child).getID(), child.getID());
+		}
+	}
+
+	@Test
+	public void containedNodesMatchTheParentGraph() {
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, new Random(5));
+		SubGraph subGraph = new SubGraph(graph, graph.edgesGraph);
+		Geometry area = graph.nodesMap.get(7).masonGeometry.geometry.buffer(15.0);
+
+		HashSet<NodeGraph> expected = new HashSet<NodeGraph>(graph.getContainedNodes(area));
+		ArrayList<NodeGraph> contained = subGraph.getContainedNodes(area);
+		assertTrue(!expected.isEmpty());
+		assertEquals(expected.size(), contained.size());
+		for (NodeGraph child : contained) assertTrue(expected.contains(subGraph.getParentNode(child)));
+	}
+
+	@Test
+	public void salientNodesWithinSpaceOnSubGraph() {
+		Random random = new Random(11);
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, random);
+		for (NodeGraph node : graph.nodesMap.values()) node.centrality = random.nextDouble();
+		graph.generateCentralityMap();
+		SubGraph subGraph = new SubGraph(graph, graph.edgesGraph);
+		subGraph.generateSubGraphCentralityMap();
+		// one centrality map, read by the methods inherited from Graph as well
+		assertEquals(subGraph.getNodesList().size(), subGraph.getCentralityMap().size());
+		for (NodeGraph child : subGraph.getCentralityMap().keySet()) assertNotNull(subGraph.getParentNode(child));
+
+		NodeGraph origin = graph.nodesMap.get(0), destination = graph.nodesMap.get(35);
+		Map<NodeGraph, Double> expected = graph.salientNodesWithinSpace(origin, destination, 0.5);
+		Map<NodeGraph, Double> salient = subGraph.salientNodesWithinSpace(subGraph.getChildNode(origin),
+				subGraph.getChildNode(destination), 0.5);
+		assertNotNull(salient);
+		assertEquals(expected.size(), salient.size());
+		for (Map.Entry<NodeGraph, Double> entry : salient.entrySet())
+			assertEquals(expected.get(subGraph.getParentNode(entry.getKey())), entry.getValue());
+	}
+
+	@Test
+	public void barriersFollowTheParentGraph() {
+		Random random = new Random(13);
+		Graph graph = TestGraphs.grid(6, 6, 10.0, 0.0, random);
+		for (EdgeGraph edge : graph.edgesGraph)
+			edge.setBarriers(new int[] {random.nextInt(4)}, IntSets.EMPTY, new int[] {30 + random.nextInt(2)},
+					new int[] {10 + random.nextInt(3)});
+		ArrayList<EdgeGraph> edges = new ArrayList<EdgeGraph>(graph.edgesGraph.subList(0, 25));
+		SubGraph subGraph = new SubGraph(graph, edges);
+		subGraph.setSubGraphBarriers();
+		assertBarrierIndex(graph, subGraph);
+
+		// barriers set again on the parent graph: only its barrier index is discarded
+		GraphCSR csr = graph.getCSR();
+		for (EdgeGraph edge : edges) edge.setBarriers(IntSets.EMPTY, new int[] {20 + random.nextInt(3)}, IntSets.EMPTY, IntSets.EMPTY);
+		graph.resetBarrierIndex();
+		assertSame(csr, graph.getCSR());
+		subGraph.setSubGraphBarriers();
+		assertBarrierIndex(graph, subGraph);
+		for (EdgeGraph child : subGraph.edgesGraph) {
+			assertEquals(subGraph.getParentEdge(child).barriers, child.barriers);
+			assertTrue(child.touchesNegativeBarrier(child.barriers.get(0)));
+		}
+	}
+
+	@Test
+	public void barrierIndexOfSubGraphBuiltEdgeByEdge() {
+		Random random = new Random(17);
+		Graph graph = TestGraphs.grid(4, 4, 10.0, 0.0, random);
+		for (EdgeGraph edge : graph.edgesGraph) edge.setBarriers(new int[] {random.nextInt(3)}, IntSets.EMPTY, IntSets.EMPTY, IntSets.EMPTY);
+		SubGraph subGraph = new SubGraph();
+		for (EdgeGraph edge : graph.edgesGraph.subList(0, 10)) subGraph.addFromOtherGraph(graph, edge);
+		subGraph.setSubGraphBarriers();
+		assertBarrierIndex(graph, subGraph);
+	}
+
+	/**
+	 * The SubGraph's barrier index must hold, for each barrier, the child edges of the parent edges along the barrier.
+	 *
+	 */
+	private static void assertBarrierIndex(Graph graph, SubGraph subGraph) {
+		BarrierIndex index = subGraph.getBarrierIndex();
+		BarrierIndex parentIndex = graph.getBarrierIndex();
+		// the SubGraph's barriers are the positive and negative ones, while the index also holds water bodies and parks
+		HashSet<Integer> barriers = new HashSet<Integer>(), indexed = new HashSet<Integer>();
+		for (EdgeGraph child : subGraph.edgesGraph) {
+			for (int barrierID : child.getBarrierIDs()) barriers.add(barrierID);
+			indexed.addAll(child.waterBodies);
+			indexed.addAll(child.parks);
+		}
+		indexed.addAll(barriers);
+		assertEquals(barriers, new HashSet<Integer>(subGraph.getSubGraphBarriers()));
+		assertEquals(indexed.size(), index.getBarriersCount());
+		for (int barrierID : indexed) {
+			HashSet<EdgeGraph> expected = new HashSet<EdgeGraph>();
+			for (EdgeGraph parentEdge : parentIndex.getEdgesAlongBarrier(barrierID)) {
+				EdgeGraph child = subGraph.getChildEdge(parentEdge);
+				if (child != null) expected.add(child);
+			}
+			assertEquals(expected, new HashSet<EdgeGraph>(index.getEdgesAlongBarrier(barrierID)));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package urbanmason.main;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * Small graphs for the tests.
+ *
+ */
+final class TestGraphs {
+
+	private static final GeometryFactory FACTORY = new GeometryFactory();
+
+	private TestGraphs() {
+	}
+
+	/**
+	 * It returns a grid of columns x rows nodes, spaced by the given distance, with an edge between adjacent nodes and the
+	 * given share of the edges removed at random; nodes and edges get sequential IDs.
+	 *
+	 * @param columns the number of columns;
+	 * @param rows the number of rows;
+	 * @param spacing the distance between adjacent nodes;
+	 * @param removed the share of the edges to remove (0.0 for a full grid);
+	 * @param random the random generator;
+	 */
+	static Graph grid(int columns, int rows, double spacing, double removed, Random random) {
+
+		Graph graph = new Graph();
+		int edgeID = 0;
+		for (int x = 0; x < columns; x++) {
+			for (int y = 0; y < rows; y++) {
+				if (x + 1 < columns && random.nextDouble() >= removed)
+					addLine(graph, edgeID++, x * spacing, y * spacing, (x + 1) * spacing, y * spacing);
+				if (y + 1 < rows && random.nextDouble() >= removed)
+					addLine(graph, edgeID++, x * spacing, y * spacing, x * spacing, (y + 1) * spacing);
+			}
+		}
+		assignNodeIDs(graph);
+		return graph;
+	}
+
+	/**
+	 * It returns a graph of straight segments between random points in a square of the given side; the points are joined in
+	 * a random spanning tree (the graph is connected) plus further random segments, without repeating pairs of points.
+	 *
+	 * @param nodesCount the number of points;
+	 * @param extraEdges the number of segments beyond the spanning tree;
+	 * @param side the side of the square;
+	 * @param random the random generator;
+	 */
+	static Graph random(int nodesCount, int extraEdges, double side, Random random) {
+
+		Graph graph = new Graph();
+		double[] x = new double[nodesCount], y = new double[nodesCount];
+		for (int i = 0; i < nodesCount; i++) {
+			x[i] = random.nextDouble() * side;
+			y[i] = random.nextDouble() * side;
+		}
+		HashSet<Long> pairs = new HashSet<Long>();
+		int edgeID = 0;
+		for (int i = 1; i < nodesCount; i++) {
+			int j = random.nextInt(i);
+			pairs.add((long) j * nodesCount + i);
+			addLine(graph, edgeID++, x[j], y[j], x[i], y[i]);
+		}
+		for (int added = 0; added < extraEdges && nodesCount > 1; added++) {
+			int i = random.nextInt(nodesCount), j = random.nextInt(nodesCount);
+			if (i == j || !pairs.add((long) Math.min(i, j) * nodesCount + Math.max(i, j))) continue;
+			addLine(graph, edgeID++, x[i], y[i], x[j], y[j]);
+		}
+		assignNodeIDs(graph);
+		return graph;
+	}
+
+	/**
+	 * It adds a straight street segment to a graph.
+	 *
+	 */
+	static EdgeGraph addLine(Graph graph, int edgeID, double x0, double y0, double x1, double y1) {
+		LineString line = FACTORY.createLineString(new Coordinate[] {new Coordinate(x0, y0), new Coordinate(x1, y1)});
+		MasonGeometry wrappedLine = new MasonGeometry(line);
+		wrappedLine.addIntegerAttribute("edgeID", edgeID);
+		EdgeGraph edge = graph.addLineString(wrappedLine);
+		edge.setID(edgeID);
+		return edge;
+	}
+
+	/**
+	 * It numbers the nodes of a graph in the order of the coordinates, gives them a point geometry and rebuilds the nodes map.
+	 *
+	 */
+	static void assignNodeIDs(Graph graph) {
+		ArrayList<NodeGraph> nodes = new ArrayList<NodeGraph>(graph.getNodes());
+		graph.nodesMap.clear();
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).setID(i);
+			nodes.get(i).masonGeometry = new MasonGeometry(FACTORY.createPoint(nodes.get(i).getCoordinate()));
+			graph.nodesMap.put(i, nodes.get(i));
+		}
+		graph.resetIndexes();
+	}
+}
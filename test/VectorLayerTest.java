@@ -0,0 +1,52 @@
+package urbanmason.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import sim.util.geo.MasonGeometry;
+
+/**
+ * VectorLayer's attribute filters: the cached columns are regenerated when geometries are added or on request.
+ *
+ */
+public class VectorLayerTest {
+
+	@Test
+	public void filtersReadTheAttributesAgainOnceInvalidated() {
+
+		GeometryFactory factory = new GeometryFactory();
+		VectorLayer layer = new VectorLayer();
+		MasonGeometry[] geometries = new MasonGeometry[4];
+		for (int i = 0; i < geometries.length; i++) {
+			geometries[i] = new MasonGeometry(factory.createPoint(new Coordinate(i, i)));
+			geometries[i].addIntegerAttribute("type", i % 2);
+			geometries[i].addStringAttribute("name", "n" + i);
+			layer.addGeometry(geometries[i]);
+		}
+		layer.createIntegerIndex("type");
+		assertEquals(2, layer.filterFeatures("type", 1, true).size());
+		assertEquals(1, layer.filterFeatures("name", Arrays.asList("n0", "x"), true).size());
+
+		// changed attributes: the cached columns are read until invalidated
+		geometries[0].addIntegerAttribute("type", 1);
+		geometries[0].addStringAttribute("name", "x");
+		assertEquals(2, layer.filterFeatures("type", 1, true).size());
+		layer.invalidateAttributes();
+		assertEquals(3, layer.filterFeatures("type", 1, true).size());
+		assertEquals(1, layer.filterFeatures("type", 1, false).size());
+		assertEquals(1, layer.filterFeatures("name", Arrays.asList("n0", "x"), true).size());
+		assertEquals(Arrays.asList(1, 1, 0, 1), layer.getIntColumn("type"));
+
+		// added geometries are included
+		MasonGeometry added = new MasonGeometry(factory.createPoint(new Coordinate(9, 9)));
+		added.addIntegerAttribute("type", 1);
+		layer.addGeometry(added);
+		assertEquals(4, layer.filterFeatures("type", 1, true).size());
+	}
+}